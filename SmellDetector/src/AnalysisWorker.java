@@ -0,0 +1,163 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * A process that analyses the shards that a {@code DistributedCoordinator} sends to it, e.g.
+ * on another node of a build farm. Every connection is served by a thread of its own, and the
+ * shards of a connection are analysed one after the other. The tools that run inside the
+ * application stay loaded between the shards.
+ *
+ * Usage: {@code AnalysisWorker [--port <port>] [--bind <address>]}. When the port is 0, any
+ * free port is taken. The worker only listens on the loopback address, unless another address
+ * is given, in which case the coordinators must send the token of the
+ * {@value #TOKEN_VARIABLE} environment variable. The first line that the worker prints is
+ * {@code Listening on port <port>}.
+ */
+public class AnalysisWorker {
+
+	public static final int DEFAULT_PORT = 7879;
+	public static final String TOKEN_VARIABLE = "SMELLDETECTOR_WORKER_TOKEN";
+	static final String LISTENING_PREFIX = "Listening on port ";
+	private static final String USAGE = "Usage: AnalysisWorker [--port <port>] [--bind <address>]";
+	//A connection that does not even send its token must not hold a thread for long
+	private static final int HELLO_TIMEOUT_MILLIS = 10_000;
+
+	private final ServerSocket serverSocket;
+	private final String token;
+
+	/**
+	 * Creates the worker and binds its port.
+	 *
+	 * @param bindAddress the address on which the worker listens
+	 * @param port the port of the worker, or 0 for any free port
+	 * @param token the token that the coordinators must send, or {@code null} if any coordinator is accepted
+	 * @throws IOException if the port cannot be bound
+	 */
+	public AnalysisWorker(InetAddress bindAddress, int port, String token) throws IOException {
+		this.serverSocket = new ServerSocket(port, 0, bindAddress);
+		this.token = token;
+	}
+
+	public static void main(String[] args) {
+		int port = DEFAULT_PORT;
+		InetAddress bindAddress = InetAddress.getLoopbackAddress();
+		String token = getToken();
+		try {
+			for(int i = 0; i < args.length; i++) {
+				if(args[i].equals("--port") && i + 1 < args.length)
+					port = Integer.parseInt(args[++i]);
+				else if(args[i].equals("--bind") && i + 1 < args.length)
+					bindAddress = InetAddress.getByName(args[++i]);
+				else
+					throw new IllegalArgumentException("Unknown argument: " + args[i]);
+			}
+			//Anyone who reaches the address could otherwise make the worker read the files of the host
+			if(!bindAddress.isLoopbackAddress() && token == null)
+				throw new IllegalArgumentException("A worker that listens on " + bindAddress.getHostAddress()
+						+ " needs a token in the " + TOKEN_VARIABLE + " environment variable");
+		} catch (IllegalArgumentException | IOException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(CommandLineRunner.EXIT_USAGE_ERROR);
+		}
+
+		try {
+			AnalysisWorker worker = new AnalysisWorker(bindAddress, port, token);
+			System.out.println(LISTENING_PREFIX + worker.getPort());
+			System.out.flush();
+			worker.serve();
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(CommandLineRunner.EXIT_FAILURE);
+		}
+	}
+
+	/**
+	 * Returns the token of the {@value #TOKEN_VARIABLE} environment variable.
+	 *
+	 * @return the token, or {@code null} if the variable is not set
+	 */
+	public static String getToken() {
+		String token = System.getenv(TOKEN_VARIABLE);
+		return token == null || token.isBlank() ? null : token;
+	}
+
+	/**
+	 * Creates a random token, e.g. for the workers that a coordinator starts itself.
+	 *
+	 * @return a new token
+	 */
+	public static String createToken() {
+		byte[] tokenBytes = new byte[32];
+		new SecureRandom().nextBytes(tokenBytes);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(tokenBytes);
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Accepts connections until the worker is closed.
+	 *
+	 * @throws IOException if the connections can no longer be accepted
+	 */
+	public void serve() throws IOException {
+		while(!serverSocket.isClosed()) {
+			Socket socket = serverSocket.accept();
+			Thread connectionThread = new Thread(() -> serveConnection(socket), "AnalysisWorker-" + socket.getPort());
+			connectionThread.setDaemon(true);
+			connectionThread.start();
+		}
+	}
+
+	public void close() throws IOException {
+		serverSocket.close();
+	}
+
+	private void serveConnection(Socket socket) {
+		try(socket;
+			DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+			socket.setSoTimeout(HELLO_TIMEOUT_MILLIS);
+			WorkerProtocol.readHello(input, token);
+			//The coordinator may take long to send the next shard
+			socket.setSoTimeout(0);
+
+			while(true) {
+				WorkerProtocol.ShardRequest request;
+				try {
+					request = WorkerProtocol.readShardRequest(input);
+				} catch (EOFException e) {
+					//The coordinator has no more shards
+					return;
+				}
+
+				try {
+					SmellDetectionManager smellDetectionManager = new SmellDetectionManager(request.smellType,
+							request.projectDirectory, request.toDetectionOptions());
+					//The smells of a failed detector are incomplete, so the shard is tried elsewhere
+					if(smellDetectionManager.getFailures().isEmpty())
+						WorkerProtocol.writeShardResult(output, smellDetectionManager.getDetectedSmells());
+					else
+						WorkerProtocol.writeShardFailure(output, String.join("; ", smellDetectionManager.getFailures()));
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+					WorkerProtocol.writeShardFailure(output, e.toString());
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+}
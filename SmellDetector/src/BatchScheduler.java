@@ -0,0 +1,187 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Runs the detection of many projects in the same JVM, e.g. a nightly analysis of a whole
+ * portfolio of repositories. The projects are scheduled on a work-stealing pool, and the
+ * number of concurrent runs of every detector is limited by the {@code DetectorPermits} of
+ * the detection options. Since all the projects share the JVM, the tools that run inside the
+ * application (see {@link ToolExecutionMode#EMBEDDED}) load their rule sets and
+ * configurations only once, and the result cache is shared as well.
+ *
+ * Every project writes its results to a directory of its own under the export directory.
+ */
+public class BatchScheduler {
+
+	private final SmellType smellType;
+	private final DetectionOptions options;
+	private final int parallelism;
+	private String exportFormat = "csv";
+
+	/**
+	 * Creates a scheduler that runs the given number of projects at a time.
+	 *
+	 * @param smellType the smell type to be detected in every project
+	 * @param options the detection options of every project, including the detector limits
+	 * @param parallelism the number of projects that are analysed at the same time
+	 */
+	public BatchScheduler(SmellType smellType, DetectionOptions options, int parallelism) {
+		this.smellType = smellType;
+		this.options = options;
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * Sets the format in which the smells of every project are exported.
+	 *
+	 * @param exportFormat csv, or a format of {@link StreamingExportListener#getFormats()}
+	 */
+	public void setExportFormat(String exportFormat) {
+		this.exportFormat = exportFormat;
+	}
+
+	/**
+	 * Analyses all the given projects and exports the smells of each one.
+	 *
+	 * @param projectDirectories the directories of the projects
+	 * @param exportDirectory the directory under which the results of every project are written
+	 * @param projectFinished called from a worker thread whenever a project is finished
+	 * @return the result of every project, in the order of the given directories
+	 * @throws InterruptedException if the thread is interrupted while waiting for the projects
+	 */
+	public List<ProjectResult> run(List<String> projectDirectories, File exportDirectory,
+			Consumer<ProjectResult> projectFinished) throws InterruptedException {
+		List<File> projectExportDirectories = createExportDirectories(projectDirectories, exportDirectory);
+
+		//Threads that wait for a detector permit may be compensated, but never beyond twice the parallelism
+		ForkJoinPool pool = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, false,
+				0, parallelism * 2, 1, forkJoinPool -> true, 60, TimeUnit.SECONDS);
+		try {
+			List<Future<ProjectResult>> projectRuns = new ArrayList<>(projectDirectories.size());
+			for(int i = 0; i < projectDirectories.size(); i++) {
+				String projectDirectory = projectDirectories.get(i);
+				File projectExportDirectory = projectExportDirectories.get(i);
+				projectRuns.add(pool.submit(() -> {
+					ProjectResult result = runProject(projectDirectory, projectExportDirectory);
+					if(projectFinished != null)
+						projectFinished.accept(result);
+					return result;
+				}));
+			}
+
+			List<ProjectResult> results = new ArrayList<>(projectRuns.size());
+			for(Future<ProjectResult> projectRun : projectRuns) {
+				try {
+					results.add(projectRun.get());
+				} catch (ExecutionException e) {
+					//runProject catches the failures of the detection, so only errors get here
+					throw new IllegalStateException(e.getCause());
+				}
+			}
+			return results;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private ProjectResult runProject(String projectDirectory, File projectExportDirectory) {
+		long startTime = System.nanoTime();
+		try {
+			SmellDetectionManager smellDetectionManager;
+			if(exportFormat.equals("csv")) {
+				smellDetectionManager = new SmellDetectionManager(smellType, projectDirectory, options);
+				SmellExporter.exportSmellsToCSV(smellDetectionManager.getDetectedSmells(), projectExportDirectory.getPath());
+			} else {
+				try(StreamingExportListener exportListener = StreamingExportListener.create(exportFormat, projectExportDirectory)) {
+					smellDetectionManager = new SmellDetectionManager(smellType, projectDirectory, options, exportListener);
+				}
+			}
+			SmellStore detectedSmells = smellDetectionManager.getDetectedSmells();
+
+			//The smells that were found are exported, but the project still counts as failed
+			if(!smellDetectionManager.getFailures().isEmpty())
+				return new ProjectResult(projectDirectory, projectExportDirectory, detectedSmells.size(),
+						(System.nanoTime() - startTime) / 1_000_000, new IOException(String.join("; ", smellDetectionManager.getFailures())));
+
+			return new ProjectResult(projectDirectory, projectExportDirectory, detectedSmells.size(),
+					(System.nanoTime() - startTime) / 1_000_000, null);
+		} catch (IOException | RuntimeException e) {
+			return new ProjectResult(projectDirectory, projectExportDirectory, 0,
+					(System.nanoTime() - startTime) / 1_000_000, e);
+		}
+	}
+
+	/**
+	 * Creates a directory for the results of every project, named after the directory of the
+	 * project. Projects whose directories have the same name get a number after the name.
+	 */
+	private static List<File> createExportDirectories(List<String> projectDirectories, File exportDirectory) {
+		Map<String, Integer> nameCounts = new HashMap<>();
+		List<File> projectExportDirectories = new ArrayList<>(projectDirectories.size());
+		for(String projectDirectory : projectDirectories) {
+			String projectName = new File(projectDirectory).getAbsoluteFile().toPath().normalize().getFileName().toString();
+			int count = nameCounts.merge(projectName, 1, Integer::sum);
+
+			File projectExportDirectory = new File(exportDirectory, count == 1 ? projectName : projectName + "-" + count);
+			projectExportDirectory.mkdirs();
+			projectExportDirectories.add(projectExportDirectory);
+		}
+
+		return projectExportDirectories;
+	}
+
+
+	/**
+	 * The outcome of the analysis of a single project.
+	 */
+	public static class ProjectResult {
+		private final String projectDirectory;
+		private final File exportDirectory;
+		private final int smellCount;
+		private final long elapsedMillis;
+		private final Exception failure;
+
+		ProjectResult(String projectDirectory, File exportDirectory, int smellCount, long elapsedMillis, Exception failure) {
+			this.projectDirectory = projectDirectory;
+			this.exportDirectory = exportDirectory;
+			this.smellCount = smellCount;
+			this.elapsedMillis = elapsedMillis;
+			this.failure = failure;
+		}
+
+		public String getProjectDirectory() {
+			return projectDirectory;
+		}
+
+		public File getExportDirectory() {
+			return exportDirectory;
+		}
+
+		public int getSmellCount() {
+			return smellCount;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		/**
+		 * Returns what made the analysis of the project fail.
+		 *
+		 * @return the exception of the failure, or {@code null} if the project was analysed
+		 */
+		public Exception getFailure() {
+			return failure;
+		}
+	}
+
+}
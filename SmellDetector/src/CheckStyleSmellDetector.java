@@ -1,5 +1,7 @@
 import java.io.File;
-import java.net.URISyntaxException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -8,20 +10,48 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import javax.xml.stream.XMLStreamReader;
+
+import com.puppycrawl.tools.checkstyle.Checker;
+import com.puppycrawl.tools.checkstyle.ConfigurationLoader;
+import com.puppycrawl.tools.checkstyle.PropertiesExpander;
+import com.puppycrawl.tools.checkstyle.api.AuditEvent;
+import com.puppycrawl.tools.checkstyle.api.AuditListener;
+import com.puppycrawl.tools.checkstyle.api.Configuration;
 
 
 public class CheckStyleSmellDetector extends SmellDetector {
 
+    /**
+     * The longest list of file paths that is given to a single run of the tool, since the
+     * command line of {@code cmd} cannot be longer than 8191 characters.
+     */
+    private static final int MAX_TARGET_PATHS_LENGTH = 6000;
+    
     private String projectDirectory;
-    private Map<SmellType, Set<Smell>> detectedSmells;
+    private ToolExecutionMode executionMode;
+    private SmellStore detectedSmells;
+    private final Set<String> checkedFilePaths = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * The configurations that are already loaded by the embedded checker, per configuration
+     * file, so that repeated runs do not parse the configuration again.
+     */
+    private static final Map<String, Configuration> LOADED_CONFIGURATIONS = new ConcurrentHashMap<>();
 
     public CheckStyleSmellDetector(String projectDirectory) {
+        this(projectDirectory, ToolExecutionMode.EXTERNAL_PROCESS);
+    }
+    
+    public CheckStyleSmellDetector(String projectDirectory, ToolExecutionMode executionMode) {
         this.projectDirectory = projectDirectory;
-        this.detectedSmells = new HashMap<>();
+        this.executionMode = executionMode;
+        this.detectedSmells = new SmellStore();
     }
 
     private static final Set<SmellType> SUPPORTED_SMELL_TYPES = Collections.unmodifiableSet(
@@ -38,40 +68,57 @@ public class CheckStyleSmellDetector extends SmellDetector {
     }
 
     @Override
-    public void findSmells(SmellType smellType, Map<SmellType, Set<Smell>> detectedSmells) throws URISyntaxException {
-    	File checkStyleJarFile = new File(getClass().getClassLoader().getResource("checkstyle-10.12.1/checkstyle-10.12.1-all.jar").toURI());
+    public String getConfigurationId() throws Exception {
     	File checkStyleConfigFile = new File(getClass().getClassLoader().getResource("checkstyle-10.12.1/checkstyle-config.xml").toURI());
+    	return "checkstyle-10.12.1:" + ProjectSnapshot.hashContent(Files.readAllBytes(checkStyleConfigFile.toPath()));
+    }
 
-		
-		String toolOutput = null;
-		try {
-			toolOutput = Utils.runCommand(buildToolCommand(checkStyleJarFile, checkStyleConfigFile), null, true);
-		} catch (InterruptedException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		Document xmlDoc = Utils.getXmlDocument(toolOutput);
-		
-        try {
-			extractSmells(smellType, xmlDoc, detectedSmells);
-		} catch (Exception e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-        this.detectedSmells = detectedSmells;
+    @Override
+    public void findSmells(SmellType smellType, SmellStore detectedSmells) throws Exception {
+    	File checkStyleConfigFile = new File(getClass().getClassLoader().getResource("checkstyle-10.12.1/checkstyle-config.xml").toURI());
+    	this.detectedSmells = detectedSmells;
+    	
+    	if(executionMode == ToolExecutionMode.EMBEDDED) {
+    		detectSmellsEmbedded(checkStyleConfigFile, detectedSmells);
+    		System.out.println("End CheckStyle");
+    		return;
+    	}
+    	
+    	File checkStyleJarFile = new File(getClass().getClassLoader().getResource("checkstyle-10.12.1/checkstyle-10.12.1-all.jar").toURI());
+
+    	//The report lists every checked file as soon as it is checked, so it also tells the progress
+    	AtomicInteger checkedFiles = new AtomicInteger();
+    	int totalFiles = getAnalysisScope() == null ? -1 : getAnalysisScope().size();
+    	for(List<String> targetPaths : getTargetPathBatches()) {
+    		//CheckStyle exits with the number of the errors it found, and with a negative code when it fails
+    		getProcessSupervisor().run(buildToolCommand(checkStyleJarFile, checkStyleConfigFile, targetPaths), null,
+    				output -> extractSmells(smellType, Utils.createXmlStreamReader(output), detectedSmells,
+    						() -> reportFilesAnalysed(checkedFiles.incrementAndGet(), totalFiles)),
+    				exitCode -> exitCode >= 0);
+    	}
         System.out.println("End CheckStyle");
 
     }
     
+    /**
+     * The report of CheckStyle lists every file that it checked, so a file that it did not list
+     * was not analysed, e.g. because the tool stopped before it.
+     */
+    @Override
+    public boolean wasFileAnalysed(File file) {
+    	return checkedFilePaths.contains(Utils.getNormalisedPath(file)) && super.wasFileAnalysed(file);
+    }
+    
     /**
 	 * Builds a list that includes (in parts) the needed command to execute the tool via
 	 * the command line and produce the smell detection results.
 	 * 
 	 * @param checkStyleJarFile the file of the tool
 	 * @param checkStyleConfigFile the configuration file of the tool
+	 * @param targetPaths the paths of the files or directories to be checked
 	 * @return a list with the needed command
 	 */
-	private List<String> buildToolCommand(File checkStyleJarFile, File checkStyleConfigFile) {
+	private List<String> buildToolCommand(File checkStyleJarFile, File checkStyleConfigFile, List<String> targetPaths) {
 		List<String> checkStyleCmdList = new ArrayList<>();
 		
 		try {
@@ -84,7 +131,7 @@ public class CheckStyleSmellDetector extends SmellDetector {
 			checkStyleCmdList.add(checkStyleConfigFile.getPath());
 			checkStyleCmdList.add("-f");
 			checkStyleCmdList.add("xml");
-			checkStyleCmdList.add(projectDirectory);
+			checkStyleCmdList.addAll(targetPaths);
 		} catch (Exception e1) {
 			e1.printStackTrace();
 		}
@@ -92,6 +139,38 @@ public class CheckStyleSmellDetector extends SmellDetector {
 		return checkStyleCmdList;
 	}
 	
+	/**
+	 * Splits the paths that should be checked into batches, each of which fits in the command
+	 * line of a single run of the tool. Without an analysis scope the only batch is the
+	 * project directory.
+	 * 
+	 * @return a list with the batches of paths to be checked
+	 */
+	private List<List<String>> getTargetPathBatches() {
+		if(getAnalysisScope() == null)
+			return Collections.singletonList(Collections.singletonList(projectDirectory));
+		
+		List<List<String>> batches = new ArrayList<>();
+		List<String> currentBatch = new ArrayList<>();
+		int currentBatchLength = 0;
+		for(File file : getAnalysisScope()) {
+			String path = file.getAbsolutePath();
+			if(!currentBatch.isEmpty() && currentBatchLength + path.length() + 1 > MAX_TARGET_PATHS_LENGTH) {
+				batches.add(currentBatch);
+				currentBatch = new ArrayList<>();
+				currentBatchLength = 0;
+			}
+			
+			currentBatch.add(path);
+			currentBatchLength += path.length() + 1;
+		}
+		
+		if(!currentBatch.isEmpty())
+			batches.add(currentBatch);
+		
+		return batches;
+	}
+	
 	/**
 	 * A map that contains the code smells detected from the tool as the key, and their
 	 * corresponding {@code SmellType} as the value.
@@ -106,60 +185,183 @@ public class CheckStyleSmellDetector extends SmellDetector {
 	}
 
 	/**
-	 * Extracts God Class, Long Method and Long Parameter List code smells and returns a set
-	 * that contains all of them.
+	 * Extracts God Class, Long Method and Long Parameter List code smells from the report of
+	 * the tool while it is being read, and adds them to the {@code Map} of detected smells.
 	 * 
-	 * @param xmlDoc an XML {@code Document} that contains the results of the detection
-	 * @param detectedSmells a {@code Map} from smellType to a {@code Set} of detected smells
-	 * @return a set which contains all the detected smells of the given smell type
+	 * @param reader a streaming reader over the report of the detection
+	 * @param detectedSmells the {@code SmellStore} of the detected smells
+	 * @param fileChecked called for every file of the report
 	 * @throws Exception
 	 */
-	private void extractSmells(SmellType smellType, Document xmlDoc, Map<SmellType, Set<Smell>> detectedSmells) throws Exception {
-		NodeList fileNodes = xmlDoc.getDocumentElement().getElementsByTagName("file");
-		for(int i = 0; i < fileNodes.getLength(); i++) {
-			Node fileNode = fileNodes.item(i);
-			
-			String fileName = fileNode.getAttributes().getNamedItem("name").getNodeValue();
-			String filePath = fileName.substring(fileName.indexOf("\\", fileName.indexOf(projectDirectory + 1)));
-			File targetFile = new File(filePath);
-			String className = fileName.substring(fileName.lastIndexOf('\\') + 1).replace(".java", "");
-			
-			NodeList errorNodes = fileNode.getChildNodes();
-			for(int j = 0; j < errorNodes.getLength(); j++) {
-				Node errorNode = errorNodes.item(j);
-				//This is needed because there are unexpected children
-				if(!errorNode.getNodeName().equals("error"))
-					continue;
-				
-				String source = errorNode.getAttributes().getNamedItem("source").getNodeValue();
-				SmellType detectedSmellType = MAP_FROM_DECTECTED_SMELLS_TO_SMELLTYPE.get(source.substring(source.lastIndexOf('.') + 1));
-								
-				int startLine = Integer.parseInt(errorNode.getAttributes().getNamedItem("line").getNodeValue());
+	private void extractSmells(SmellType smellType, XMLStreamReader reader, SmellStore detectedSmells,
+			Runnable fileChecked) throws Exception {
+		File targetFile = null;
+		String className = null;
+		
+		while(Utils.nextStartElement(reader, "checkstyle")) {
+			if(reader.getLocalName().equals("file")) {
+				fileChecked.run();
+				targetFile = new File(reader.getAttributeValue(null, "name"));
+				className = targetFile.getName().replace(".java", "");
+				checkedFilePaths.add(Utils.getNormalisedPath(targetFile));
+			} else if(reader.getLocalName().equals("error")) {
+				String source = reader.getAttributeValue(null, "source");
+				int startLine = Integer.parseInt(reader.getAttributeValue(null, "line"));
+				String message = reader.getAttributeValue(null, "message");
 				
-				if(detectedSmellType == SmellType.GOD_CLASS) {
-					//CheckStyle returns line 1 in case a GodClass is found, instead of the line in which the class is declared
-					Utils.addSmell(detectedSmellType, detectedSmells, getDetectorName(),
-							Utils.createSmellObject(detectedSmellType, className, targetFile, startLine));
-				} else {
-					String methodName = "";
-					if(detectedSmellType == SmellType.LONG_PARAMETER_LIST) {
-						methodName = (String) Utils.extractMethodNameAndCorrectLineFromFile(targetFile, startLine)[0];
-					} else {
-						String message = errorNode.getAttributes().getNamedItem("message").getNodeValue().replace("Method ", "");
-						methodName = message.substring(0, message.indexOf(" "));
-					}
-					
-					Utils.addSmell(detectedSmellType, detectedSmells, getDetectorName(),
-							Utils.createSmellObject(detectedSmellType, className, methodName, targetFile, startLine));
-				}
+				addError(source, message, className, targetFile, startLine, detectedSmells);
+			}
+		}
+	}
+	
+	/**
+	 * Adds the smell that corresponds to a single CheckStyle error to the detected smells.
+	 * 
+	 * @param source the fully qualified name of the check that reported the error
+	 * @param message the message of the error
+	 * @param className the name of the class in which the error was found
+	 * @param targetFile the file that contains the error
+	 * @param startLine the line of the error
+	 * @param detectedSmells the {@code SmellStore} of the detected smells
+	 * @throws Exception
+	 */
+	private void addError(String source, String message, String className, File targetFile, int startLine,
+			SmellStore detectedSmells) throws Exception {
+		SmellType detectedSmellType = MAP_FROM_DECTECTED_SMELLS_TO_SMELLTYPE.get(source.substring(source.lastIndexOf('.') + 1));
+		if(detectedSmellType == null)
+			return;
+		
+		if(detectedSmellType == SmellType.GOD_CLASS) {
+			//CheckStyle returns line 1 in case a GodClass is found, instead of the line in which the class is declared
+			detectedSmells.add(getDetectorName(),
+					Utils.createSmellObject(detectedSmellType, className, targetFile, startLine));
+		} else {
+			String methodName = "";
+			if(detectedSmellType == SmellType.LONG_PARAMETER_LIST) {
+				methodName = (String) getSourceIndex(targetFile).findMethodDeclaration(startLine)[0];
+			} else {
+				String methodMessage = message.replace("Method ", "");
+				methodName = methodMessage.substring(0, methodMessage.indexOf(" "));
 			}
+			
+			detectedSmells.add(getDetectorName(),
+					Utils.createSmellObject(detectedSmellType, className, methodName, targetFile, startLine));
+		}
+	}
+	
+	/**
+	 * Finds the God Class, Long Method and Long Parameter List smells of the selected project
+	 * by running a CheckStyle {@code Checker} inside the current JVM. Every reported error is
+	 * turned into a smell as soon as it is reported, so no report is kept in memory.
+	 * 
+	 * @param checkStyleConfigFile the configuration file of the tool
+	 * @param detectedSmells the {@code SmellStore} of the detected smells
+	 * @throws Exception
+	 */
+	private void detectSmellsEmbedded(File checkStyleConfigFile, SmellStore detectedSmells) throws Exception {
+		Configuration configuration = LOADED_CONFIGURATIONS.get(checkStyleConfigFile.getPath());
+		if(configuration == null) {
+			configuration = ConfigurationLoader.loadConfiguration(checkStyleConfigFile.getPath(),
+					new PropertiesExpander(System.getProperties()));
+			LOADED_CONFIGURATIONS.put(checkStyleConfigFile.getPath(), configuration);
+		}
+		
+		Checker checker = new Checker();
+		try {
+			checker.setModuleClassLoader(Checker.class.getClassLoader());
+			checker.configure(configuration);
+			
+			List<File> javaFiles = collectJavaFiles();
+			SmellAuditListener listener = new SmellAuditListener(detectedSmells, javaFiles.size());
+			checker.addListener(listener);
+			checker.process(javaFiles);
+			
+			if(listener.failure != null)
+				throw listener.failure;
+		} finally {
+			checker.destroy();
+		}
+	}
+	
+	/**
+	 * Collects the java files that should be checked, i.e. the files of the analysis scope or
+	 * all the java files of the selected project, so that they can be given to the embedded checker.
+	 * 
+	 * @return a list with the java files to be checked
+	 * @throws IOException
+	 */
+	private List<File> collectJavaFiles() throws IOException {
+		if(getAnalysisScope() != null)
+			return getAnalysisScope();
+		
+		try(Stream<Path> paths = Files.walk(Path.of(projectDirectory))) {
+			return paths.filter(path -> path.toString().endsWith(".java") && Files.isRegularFile(path))
+						.map(Path::toFile)
+						.collect(Collectors.toList());
 		}
 	}
 
 	@Override
-	public Map<SmellType, Set<Smell>> getDetectedSmells() {
+	public SmellStore getDetectedSmells() {
 		// TODO Auto-generated method stub
 		return this.detectedSmells;
 	}
 	
+	
+	/**
+	 * An {@code AuditListener} that adds every error of the embedded checker to the detected
+	 * smells at the moment it is reported.
+	 */
+	private class SmellAuditListener implements AuditListener {
+		
+		private final SmellStore detectedSmells;
+		private final int totalFiles;
+		private int checkedFiles;
+		private Exception failure;
+		
+		SmellAuditListener(SmellStore detectedSmells, int totalFiles) {
+			this.detectedSmells = detectedSmells;
+			this.totalFiles = totalFiles;
+		}
+		
+		@Override
+		public void auditStarted(AuditEvent event) {
+		}
+		
+		@Override
+		public void auditFinished(AuditEvent event) {
+		}
+		
+		@Override
+		public void fileStarted(AuditEvent event) {
+		}
+		
+		@Override
+		public void fileFinished(AuditEvent event) {
+			checkedFilePaths.add(Utils.getNormalisedPath(new File(event.getFileName())));
+			reportFilesAnalysed(++checkedFiles, totalFiles);
+		}
+		
+		@Override
+		public void addError(AuditEvent event) {
+			File targetFile = new File(event.getFileName());
+			String className = targetFile.getName().replace(".java", "");
+			try {
+				CheckStyleSmellDetector.this.addError(event.getSourceName(), event.getMessage(), className,
+						targetFile, event.getLine(), detectedSmells);
+			} catch (Exception e) {
+				if(failure == null)
+					failure = e;
+			}
+		}
+		
+		@Override
+		public void addException(AuditEvent event, Throwable throwable) {
+			System.err.println("CheckStyle could not check " + event.getFileName() + ": " + throwable.getMessage());
+			reportFileFailed(new File(event.getFileName()));
+			if(failure == null)
+				failure = throwable instanceof Exception ? (Exception) throwable : new Exception(throwable);
+		}
+	}
+	
 }
\ No newline at end of file
@@ -0,0 +1,181 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Unifies the duplicate code that different detectors found into a single set of clone groups.
+ * Every detector numbers its duplication groups on its own, and the same clone is often
+ * reported with slightly different lines by each of them. Fragments of the same file whose
+ * lines overlap are therefore merged into a single fragment, which keeps the detectors of all
+ * of them, and groups that share a fragment are merged into a single group.
+ *
+ * The overlapping fragments are found with a sweep over the fragments of every file sorted by
+ * their start line, and the groups are merged with a union-find structure, so unifying n
+ * fragments takes O(n log n) time.
+ */
+public class CloneGroupUnifier {
+
+	private final List<Fragment> fragments = new ArrayList<>();
+	//The first fragment of every duplication group of every detector, by "detector#group"
+	private final Map<String, Integer> firstFragmentOfGroup = new HashMap<>();
+
+	/**
+	 * Adds a duplicate that a detector found.
+	 *
+	 * @param detectorName the name of the detector that found the duplicate
+	 * @param duplicate the duplicate, whose group id is the one given by the detector
+	 */
+	public void add(String detectorName, Smell duplicate) {
+		fragments.add(new Fragment(detectorName, duplicate));
+	}
+
+	public boolean isEmpty() {
+		return fragments.isEmpty();
+	}
+
+	/**
+	 * Unifies all the added duplicates and adds the resulting clone groups to the given store.
+	 * The groups get new ids from the duplication group counter of the store, in the order of
+	 * their first fragment.
+	 *
+	 * @param detectedSmells the {@code SmellStore} to which the unified duplicates are added
+	 */
+	public void unifyInto(SmellStore detectedSmells) {
+		int fragmentCount = fragments.size();
+		int[] parents = new int[fragmentCount];
+		int[] sizes = new int[fragmentCount];
+		for(int i = 0; i < fragmentCount; i++) {
+			parents[i] = i;
+			sizes[i] = 1;
+		}
+
+		//Fragments of the same duplication group of a detector belong to the same clone group
+		for(int i = 0; i < fragmentCount; i++) {
+			Integer firstFragment = firstFragmentOfGroup.putIfAbsent(fragments.get(i).groupKey, i);
+			if(firstFragment != null)
+				union(parents, sizes, firstFragment, i);
+		}
+
+		//Overlapping fragments of the same file are merged into one fragment
+		List<MergedFragment> mergedFragments = new ArrayList<>();
+		for(List<Fragment> fileFragments : getFragmentsPerFile().values()) {
+			fileFragments.sort(Comparator.comparingInt((Fragment fragment) -> fragment.startLine)
+										 .thenComparingInt(fragment -> fragment.endLine));
+
+			MergedFragment current = null;
+			for(Fragment fragment : fileFragments) {
+				if(current != null && fragment.startLine <= current.endLine) {
+					union(parents, sizes, current.firstIndex, fragment.index);
+					current.endLine = Math.max(current.endLine, fragment.endLine);
+					current.detectorNames.add(fragment.detectorName);
+				} else {
+					current = new MergedFragment(fragment);
+					mergedFragments.add(current);
+				}
+			}
+		}
+
+		//Every clone group is numbered in the order of its first fragment
+		mergedFragments.sort(Comparator.comparing((MergedFragment fragment) -> fragment.filePath)
+									   .thenComparingInt(fragment -> fragment.startLine));
+		Map<Integer, Integer> groupIds = new HashMap<>();
+		for(MergedFragment mergedFragment : mergedFragments) {
+			int root = find(parents, mergedFragment.firstIndex);
+			int duplicationGroupId = groupIds.computeIfAbsent(root, key -> detectedSmells.createDuplicationGroupId());
+
+			Smell duplicate = new Smell.Builder(SmellType.DUPLICATE_CODE)
+									.setDuplicationGroupId(duplicationGroupId)
+									.setClassName(mergedFragment.targetFile.getName())
+									.setTargetFile(mergedFragment.targetFile)
+									.setStartLine(mergedFragment.startLine)
+									.setEndLine(mergedFragment.endLine)
+									.build();
+			for(String detectorName : mergedFragment.detectorNames) {
+				detectedSmells.add(detectorName, duplicate);
+			}
+		}
+
+		fragments.clear();
+		firstFragmentOfGroup.clear();
+	}
+
+	private Map<String, List<Fragment>> getFragmentsPerFile() {
+		Map<String, List<Fragment>> fragmentsPerFile = new HashMap<>();
+		for(int i = 0; i < fragments.size(); i++) {
+			Fragment fragment = fragments.get(i);
+			fragment.index = i;
+			fragmentsPerFile.computeIfAbsent(fragment.filePath, path -> new ArrayList<>()).add(fragment);
+		}
+
+		return fragmentsPerFile;
+	}
+
+	private static int find(int[] parents, int fragment) {
+		while(parents[fragment] != fragment) {
+			parents[fragment] = parents[parents[fragment]];
+			fragment = parents[fragment];
+		}
+
+		return fragment;
+	}
+
+	private static void union(int[] parents, int[] sizes, int firstFragment, int secondFragment) {
+		int firstRoot = find(parents, firstFragment);
+		int secondRoot = find(parents, secondFragment);
+		if(firstRoot == secondRoot)
+			return;
+
+		if(sizes[firstRoot] < sizes[secondRoot]) {
+			int root = firstRoot;
+			firstRoot = secondRoot;
+			secondRoot = root;
+		}
+
+		parents[secondRoot] = firstRoot;
+		sizes[firstRoot] += sizes[secondRoot];
+	}
+
+
+	private static class Fragment {
+		private final String detectorName;
+		private final String groupKey;
+		private final File targetFile;
+		private final String filePath;
+		private final int startLine;
+		private final int endLine;
+		private int index;
+
+		Fragment(String detectorName, Smell duplicate) {
+			this.detectorName = detectorName;
+			this.groupKey = detectorName + "#" + duplicate.getDuplicationGroupId();
+			this.targetFile = duplicate.getTargetFile();
+			this.filePath = Utils.getNormalisedPath(duplicate.getTargetFile());
+			this.startLine = duplicate.getTargetStartLine();
+			this.endLine = duplicate.getTargetEndLine();
+		}
+	}
+
+	private static class MergedFragment {
+		private final int firstIndex;
+		private final File targetFile;
+		private final String filePath;
+		private final int startLine;
+		private int endLine;
+		private final Set<String> detectorNames = new LinkedHashSet<>();
+
+		MergedFragment(Fragment fragment) {
+			this.firstIndex = fragment.index;
+			this.targetFile = fragment.targetFile;
+			this.filePath = fragment.filePath;
+			this.startLine = fragment.startLine;
+			this.endLine = fragment.endLine;
+			detectorNames.add(fragment.detectorName);
+		}
+	}
+
+}
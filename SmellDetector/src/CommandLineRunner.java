@@ -0,0 +1,453 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The headless entry point of the application, for CI machines and scripts. It runs the
+ * selected detectors on a project, exports the detected smells and sets the exit code of the
+ * JVM, without loading any Swing or AWT classes. When more than one project is given, the
+ * projects are analysed as a batch by a {@code BatchScheduler}, and the results of every
+ * project are exported to a directory of its own under the export directory.
+ *
+ * Exit codes: 0 when the run succeeds, 1 when more smells than {@code --max-smells} are
+ * detected in a project, 2 when the arguments are wrong, and 3 when the run or the export of a
+ * project fails, including a run in which a detector failed and its smells are missing.
+ */
+public class CommandLineRunner {
+
+	public static final int EXIT_SUCCESS = 0;
+	public static final int EXIT_SMELL_THRESHOLD_EXCEEDED = 1;
+	public static final int EXIT_USAGE_ERROR = 2;
+	public static final int EXIT_FAILURE = 3;
+
+	//The names of the detectors, which the detector limits refer to
+	private static final List<String> DETECTOR_NAMES = List.of("PMD", "CheckStyle", "DuDe", "Organic", "TokenClone", "MetricRules", "QuickScan");
+
+	private static final String USAGE = String.join(System.lineSeparator(),
+			"Usage: CommandLineRunner --project <directory> [--project <directory>...] [options]",
+			"       CommandLineRunner --daemon [--port <port>] [options]",
+			"",
+			"Options:",
+			"  --project <directory>   a java project to analyse; it can be given more than once",
+			"  --projects-file <file>  a file with the directory of a project to analyse in every line",
+			"  --smells <selection>    ALL_SMELLS (default), PMD, CHECKSTYLE, DUDE or ORGANIC",
+			"  --export <directory>    the directory of the exported results (default: the current directory)",
+			"  --format <format>       the format of the exported results: csv (default), jsonl or sarif;",
+			"                          jsonl and sarif are written while the detectors finish",
+			"  --max-smells <count>    exit with code 1 when more smells than this are detected",
+			"  --concurrent            run the detectors concurrently",
+			"  --embedded              run the tools inside the application instead of as processes",
+			"                          (the default for more than one project)",
+			"  --external              run the tools as processes, even for more than one project",
+			"  --no-cache              do not reuse the cached results of unchanged files",
+			"  --native-clones         find duplicates inside the application instead of with CPD and DuDe",
+			"  --parallel-organic      run Organic on all cores",
+			"  --metric-rules          also apply the built-in metric rules",
+			"  --quick-scan            run the quick scan for size-based smells first",
+			"  --tool-timeout <seconds>",
+			"                          stop the external tools of a detector after this time and keep",
+			"                          what they reported until then (default: "
+					+ DetectionOptions.DEFAULT_TOOL_TIMEOUT.getSeconds() + "; 0 for no limit)",
+			"  --parallel-projects <n> the number of projects analysed at the same time (default: the cores)",
+			"  --detector-limit <detector>=<n>",
+			"                          the number of concurrent runs of a detector across the projects,",
+			"                          e.g. Organic=2; it can be given more than once, and the detector is",
+			"                          one of " + String.join(", ", DETECTOR_NAMES),
+			"  --workers <host:port>[,<host:port>...]",
+			"                          analyse the project on these AnalysisWorker processes, which must",
+			"                          see the project under the same path and expect the token of",
+			"                          " + AnalysisWorker.TOKEN_VARIABLE + ", if any",
+			"  --local-workers <n>     start this number of worker processes on this machine for the project",
+			"  --daemon                keep running and analyse the projects asked for over HTTP on the",
+			"                          loopback address, e.g. GET /analyse?project=<directory>&smells=PMD",
+			"                          with the token that it prints in the " + DetectionDaemon.TOKEN_HEADER + " header",
+			"  --port <port>           the port of the daemon (default: " + DetectionDaemon.DEFAULT_PORT + ")",
+			"  --help                  print this message");
+
+	private final List<String> projectDirectories = new ArrayList<>();
+	private ToolExecutionMode toolExecutionMode;
+	private int parallelProjects = Runtime.getRuntime().availableProcessors();
+	private final Map<String, Integer> detectorLimits = new HashMap<>();
+	private SmellType smellType = SmellType.ALL_SMELLS;
+	private String exportDirectory = ".";
+	private String format = "csv";
+	private int maxSmells = -1;
+	private boolean daemon;
+	private final List<InetSocketAddress> workerAddresses = new ArrayList<>();
+	private final List<String> detectionFailures = new ArrayList<>();
+	private int localWorkers;
+	private int port = DetectionDaemon.DEFAULT_PORT;
+	private final DetectionOptions.Builder optionsBuilder = new DetectionOptions.Builder().setResultCacheEnabled(true);
+
+	public static void main(String[] args) {
+		System.exit(run(args, System.out, System.err));
+	}
+
+	/**
+	 * Runs the application with the given command line arguments.
+	 *
+	 * @param args the command line arguments
+	 * @param out the stream of the summary of the run
+	 * @param err the stream of the errors
+	 * @return the exit code of the run
+	 */
+	public static int run(String[] args, PrintStream out, PrintStream err) {
+		CommandLineRunner runner = new CommandLineRunner();
+		try {
+			if(!runner.parseArguments(args)) {
+				out.println(USAGE);
+				return EXIT_SUCCESS;
+			}
+		} catch (IllegalArgumentException e) {
+			err.println(e.getMessage());
+			err.println(USAGE);
+			return EXIT_USAGE_ERROR;
+		}
+
+		if(runner.daemon)
+			return runner.runDaemon(out, err);
+		return runner.detectAndExport(out, err);
+	}
+
+	/**
+	 * Reads the given arguments into the fields of the runner.
+	 *
+	 * @param args the command line arguments
+	 * @return false if only the usage should be printed; true otherwise
+	 * @throws IllegalArgumentException if an argument is unknown, or a value is missing or wrong
+	 */
+	private boolean parseArguments(String[] args) {
+		for(int i = 0; i < args.length; i++) {
+			switch(args[i]) {
+				case "--help":
+				case "-h":
+					return false;
+				case "--project":
+					projectDirectories.add(getValue(args, ++i));
+					break;
+				case "--projects-file":
+					projectDirectories.addAll(readProjectsFile(getValue(args, ++i)));
+					break;
+				case "--smells":
+					smellType = parseSmellType(getValue(args, ++i));
+					break;
+				case "--export":
+					exportDirectory = getValue(args, ++i);
+					break;
+				case "--format":
+					format = getValue(args, ++i).toLowerCase();
+					if(!format.equals("csv") && !StreamingExportListener.getFormats().contains(format))
+						throw new IllegalArgumentException("Unknown export format: " + format);
+					break;
+				case "--max-smells":
+					maxSmells = parseCount(args[i], getValue(args, ++i));
+					break;
+				case "--concurrent":
+					optionsBuilder.setConcurrent(true);
+					break;
+				case "--embedded":
+					toolExecutionMode = ToolExecutionMode.EMBEDDED;
+					break;
+				case "--external":
+					toolExecutionMode = ToolExecutionMode.EXTERNAL_PROCESS;
+					break;
+				case "--tool-timeout":
+					int toolTimeoutSeconds = parseCount(args[i], getValue(args, ++i));
+					optionsBuilder.setToolTimeout(toolTimeoutSeconds == 0 ? null : Duration.ofSeconds(toolTimeoutSeconds));
+					break;
+				case "--parallel-projects":
+					parallelProjects = Math.max(1, parseCount(args[i], getValue(args, ++i)));
+					break;
+				case "--detector-limit":
+					parseDetectorLimit(getValue(args, ++i));
+					break;
+				case "--no-cache":
+					optionsBuilder.setResultCacheEnabled(false);
+					break;
+				case "--native-clones":
+					optionsBuilder.setNativeCloneDetection(true);
+					break;
+				case "--parallel-organic":
+					optionsBuilder.setOrganicParallelism(Runtime.getRuntime().availableProcessors());
+					break;
+				case "--metric-rules":
+					optionsBuilder.setMetricRulesEnabled(true);
+					break;
+				case "--quick-scan":
+					optionsBuilder.setQuickScanEnabled(true);
+					break;
+				case "--workers":
+					for(String workerAddress : getValue(args, ++i).split(",")) {
+						workerAddresses.add(parseWorkerAddress(workerAddress.strip()));
+					}
+					break;
+				case "--local-workers":
+					localWorkers = parseCount(args[i], getValue(args, ++i));
+					break;
+				case "--daemon":
+					daemon = true;
+					break;
+				case "--port":
+					port = parseCount(args[i], getValue(args, ++i));
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown argument: " + args[i]);
+			}
+		}
+
+		if(daemon)
+			return parseDaemonArguments();
+
+		if(projectDirectories.isEmpty())
+			throw new IllegalArgumentException("The project directory is required");
+		for(String projectDirectory : projectDirectories) {
+			if(!new File(projectDirectory).isDirectory())
+				throw new IllegalArgumentException("The project directory does not exist: " + projectDirectory);
+		}
+
+		if((!workerAddresses.isEmpty() || localWorkers > 0) && projectDirectories.size() > 1)
+			throw new IllegalArgumentException("Workers can only be used for a single project");
+
+		//Projects of a batch share the JVM, so the tools are kept loaded between them unless asked otherwise
+		if(toolExecutionMode == null)
+			toolExecutionMode = projectDirectories.size() > 1 ? ToolExecutionMode.EMBEDDED : ToolExecutionMode.EXTERNAL_PROCESS;
+		optionsBuilder.setToolExecutionMode(toolExecutionMode);
+		if(!detectorLimits.isEmpty())
+			optionsBuilder.setDetectorPermits(new DetectorPermits(detectorLimits));
+
+		return true;
+	}
+
+	/**
+	 * The projects of a daemon are given with its requests. Every request of a project reuses the
+	 * results of the previous ones, so the runs are incremental, and the tools are kept loaded.
+	 */
+	private boolean parseDaemonArguments() {
+		if(!projectDirectories.isEmpty())
+			throw new IllegalArgumentException("The projects of the daemon are given with its requests, not with --project");
+		if(port > 65535)
+			throw new IllegalArgumentException("The port must be below 65536: " + port);
+
+		optionsBuilder.setIncremental(true);
+		optionsBuilder.setToolExecutionMode(toolExecutionMode == null ? ToolExecutionMode.EMBEDDED : toolExecutionMode);
+		if(!detectorLimits.isEmpty())
+			optionsBuilder.setDetectorPermits(new DetectorPermits(detectorLimits));
+
+		return true;
+	}
+
+	private static InetSocketAddress parseWorkerAddress(String workerAddress) {
+		int separator = workerAddress.lastIndexOf(':');
+		try {
+			if(separator > 0)
+				return new InetSocketAddress(workerAddress.substring(0, separator), Integer.parseInt(workerAddress.substring(separator + 1)));
+		} catch (IllegalArgumentException e) {
+			//The same message as for a missing port is given below
+		}
+
+		throw new IllegalArgumentException("A worker must look like <host>:<port>: " + workerAddress);
+	}
+
+	private static List<String> readProjectsFile(String projectsFile) {
+		try {
+			List<String> projectDirectories = new ArrayList<>();
+			for(String line : Files.readAllLines(new File(projectsFile).toPath())) {
+				if(!line.isBlank() && !line.strip().startsWith("#"))
+					projectDirectories.add(line.strip());
+			}
+			return projectDirectories;
+		} catch (IOException e) {
+			throw new IllegalArgumentException("The projects file cannot be read: " + projectsFile);
+		}
+	}
+
+	private void parseDetectorLimit(String detectorLimit) {
+		int separator = detectorLimit.indexOf('=');
+		if(separator <= 0)
+			throw new IllegalArgumentException("A detector limit must look like <detector>=<n>: " + detectorLimit);
+
+		String detectorName = DETECTOR_NAMES.stream()
+											.filter(name -> name.equalsIgnoreCase(detectorLimit.substring(0, separator)))
+											.findFirst()
+											.orElseThrow(() -> new IllegalArgumentException("Unknown detector in a detector limit: "
+													+ detectorLimit.substring(0, separator) + " (the detectors are " + String.join(", ", DETECTOR_NAMES) + ")"));
+		detectorLimits.put(detectorName, Math.max(1, parseCount("--detector-limit", detectorLimit.substring(separator + 1))));
+	}
+
+	private static String getValue(String[] args, int index) {
+		if(index >= args.length || args[index].startsWith("--"))
+			throw new IllegalArgumentException("A value is missing after " + args[index - 1]);
+
+		return args[index];
+	}
+
+	static SmellType parseSmellType(String selection) {
+		for(SmellType smellType : new SmellType[] {SmellType.ALL_SMELLS, SmellType.PMD, SmellType.CHECKSTYLE,
+				SmellType.DUDE, SmellType.ORGANIC}) {
+			if(smellType.name().equalsIgnoreCase(selection) || smellType.getName().equalsIgnoreCase(selection))
+				return smellType;
+		}
+
+		throw new IllegalArgumentException("Unknown smell selection: " + selection);
+	}
+
+	private static int parseCount(String option, String value) {
+		try {
+			int count = Integer.parseInt(value);
+			if(count >= 0)
+				return count;
+		} catch (NumberFormatException e) {
+			//The same message as for a negative count is given below
+		}
+
+		throw new IllegalArgumentException("The value of " + option + " must be a non-negative number: " + value);
+	}
+
+	private int detectAndExport(PrintStream out, PrintStream err) {
+		File exportDirectoryFile = new File(exportDirectory);
+		if(!exportDirectoryFile.isDirectory() && !exportDirectoryFile.mkdirs()) {
+			err.println("The export directory cannot be created: " + exportDirectory);
+			return EXIT_FAILURE;
+		}
+
+		if(projectDirectories.size() > 1)
+			return detectAndExportBatch(exportDirectoryFile, out, err);
+
+		long startTime = System.nanoTime();
+		SmellStore detectedSmells;
+		try {
+			if(format.equals("csv")) {
+				detectedSmells = detect(projectDirectories.get(0), null);
+				SmellExporter.exportSmellsToCSV(detectedSmells, exportDirectoryFile.getPath());
+			} else {
+				try(StreamingExportListener exportListener = StreamingExportListener.create(format, exportDirectoryFile)) {
+					detectedSmells = detect(projectDirectories.get(0), exportListener);
+				}
+			}
+		} catch (IOException e) {
+			err.println("The results cannot be exported: " + e.getMessage());
+			return EXIT_FAILURE;
+		} catch (RuntimeException e) {
+			e.printStackTrace(err);
+			return EXIT_FAILURE;
+		}
+
+		out.println(detectedSmells.size() + " smells detected in " + (System.nanoTime() - startTime) / 1_000_000 + " ms");
+		for(SmellType detectedSmellType : detectedSmells.getSmellTypes()) {
+			out.println("  " + detectedSmellType.getName() + ": " + detectedSmells.query().ofType(detectedSmellType).stream().count());
+		}
+
+		//The smells that were found are exported, but a run with missing smells must not pass
+		if(!detectionFailures.isEmpty()) {
+			detectionFailures.forEach(failure -> err.println("The run is incomplete: " + failure));
+			return EXIT_FAILURE;
+		}
+
+		if(maxSmells >= 0 && detectedSmells.size() > maxSmells) {
+			err.println("The number of smells (" + detectedSmells.size() + ") is above the allowed maximum (" + maxSmells + ")");
+			return EXIT_SMELL_THRESHOLD_EXCEEDED;
+		}
+
+		return EXIT_SUCCESS;
+	}
+
+	private int runDaemon(PrintStream out, PrintStream err) {
+		DetectionDaemon detectionDaemon;
+		try {
+			detectionDaemon = new DetectionDaemon(port, optionsBuilder.build());
+		} catch (IOException e) {
+			err.println("The daemon cannot listen on port " + port + ": " + e.getMessage());
+			return EXIT_FAILURE;
+		}
+
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> detectionDaemon.stop(1)));
+		detectionDaemon.start();
+		out.println("Listening on http://localhost:" + detectionDaemon.getPort() + "/analyse");
+		out.println(DetectionDaemon.TOKEN_HEADER + ": " + detectionDaemon.getToken());
+
+		try {
+			detectionDaemon.awaitStop();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			detectionDaemon.stop(0);
+		}
+		return EXIT_SUCCESS;
+	}
+
+	/**
+	 * Detects the smells of the given project, on this machine or on the workers. The failures
+	 * of the detection are added to {@code detectionFailures}.
+	 *
+	 * @param projectDirectory the directory of the project
+	 * @param exportListener the streaming export of the smells, or {@code null}
+	 * @return the detected smells
+	 */
+	private SmellStore detect(String projectDirectory, StreamingExportListener exportListener) {
+		if(workerAddresses.isEmpty() && localWorkers == 0) {
+			SmellDetectionManager smellDetectionManager = new SmellDetectionManager(smellType, projectDirectory,
+					optionsBuilder.build(), exportListener);
+			detectionFailures.addAll(smellDetectionManager.getFailures());
+			return smellDetectionManager.getDetectedSmells();
+		}
+
+		//The remote workers share the token of the environment, and the local ones use it as well
+		String workerToken = AnalysisWorker.getToken() != null ? AnalysisWorker.getToken() : AnalysisWorker.createToken();
+		try(DistributedCoordinator.LocalWorkers startedWorkers = DistributedCoordinator.startLocalWorkers(localWorkers, workerToken)) {
+			List<InetSocketAddress> allWorkerAddresses = new ArrayList<>(workerAddresses);
+			allWorkerAddresses.addAll(startedWorkers.getAddresses());
+			DistributedCoordinator coordinator = new DistributedCoordinator(smellType, projectDirectory, optionsBuilder.build(),
+					allWorkerAddresses, workerToken);
+			SmellStore detectedSmells = coordinator.run();
+			detectionFailures.addAll(coordinator.getFailures());
+			//The shards do not report the detectors one by one, so the smells are exported once they are merged
+			if(exportListener != null)
+				exportListener.exportAll(detectedSmells);
+			return detectedSmells;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("The distributed run was interrupted", e);
+		}
+	}
+
+	private int detectAndExportBatch(File exportDirectoryFile, PrintStream out, PrintStream err) {
+		long startTime = System.nanoTime();
+		BatchScheduler batchScheduler = new BatchScheduler(smellType, optionsBuilder.build(), parallelProjects);
+		batchScheduler.setExportFormat(format);
+
+		List<BatchScheduler.ProjectResult> results;
+		try {
+			results = batchScheduler.run(projectDirectories, exportDirectoryFile, result -> {
+				if(result.getFailure() != null)
+					err.println(result.getProjectDirectory() + ": failed after " + result.getElapsedMillis() + " ms: " + result.getFailure());
+				else
+					out.println(result.getProjectDirectory() + ": " + result.getSmellCount() + " smells in " + result.getElapsedMillis() + " ms");
+			});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			err.println("The batch was interrupted");
+			return EXIT_FAILURE;
+		}
+
+		int exitCode = EXIT_SUCCESS;
+		for(BatchScheduler.ProjectResult result : results) {
+			if(result.getFailure() != null)
+				exitCode = EXIT_FAILURE;
+			else if(maxSmells >= 0 && result.getSmellCount() > maxSmells && exitCode == EXIT_SUCCESS)
+				exitCode = EXIT_SMELL_THRESHOLD_EXCEEDED;
+		}
+
+		out.println(results.size() + " projects analysed in " + (System.nanoTime() - startTime) / 1_000_000 + " ms");
+		return exitCode;
+	}
+
+}
@@ -0,0 +1,304 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A long-lived analysis service for editors and scripts that ask for the smells of a project
+ * many times. The daemon stays in the same JVM between the requests, so the tools that run
+ * inside the application keep their rule sets and configurations loaded, and the results of
+ * the files that did not change since the previous request of the same project are reused.
+ *
+ * The daemon only listens on the loopback address, and only answers requests whose
+ * {@code Host} is the loopback address, so that web pages cannot reach it through their own
+ * host names. Every start of the daemon creates a new token, which the requests for an analysis
+ * must send in the {@value #TOKEN_HEADER} header. A request looks like
+ * {@code GET /analyse?project=<directory>&smells=<selection>&format=<jsonl|csv>}, and the
+ * smells of every detector are written to the response as soon as the detector ends. In the
+ * jsonl format, every line is an object with an {@code event} field: {@code smell} for a smell,
+ * {@code detectorFinished} after the smells of a detector, and {@code finished} at the end. A
+ * smell that several detectors find is only written once, by the first of them that ends, so
+ * the number of smell lines is the number of smells of the {@code finished} line.
+ * {@code GET /status} answers whether the daemon is running.
+ */
+public class DetectionDaemon {
+
+	public static final int DEFAULT_PORT = 7878;
+	public static final String TOKEN_HEADER = "X-SmellDetector-Token";
+	private static final Set<String> LOOPBACK_HOSTS = Set.of("localhost", "127.0.0.1", "[::1]");
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final DetectionOptions options;
+	private final String token = AnalysisWorker.createToken();
+	private final Map<String, ReentrantLock> projectLocks = new ConcurrentHashMap<>();
+	private final CountDownLatch stopped = new CountDownLatch(1);
+
+	/**
+	 * Creates the daemon, without starting it.
+	 *
+	 * @param port the port of the daemon on the loopback address, or 0 for any free port
+	 * @param options the detection options of every request; the runs are always incremental
+	 * @throws IOException if the port cannot be bound
+	 */
+	public DetectionDaemon(int port, DetectionOptions options) throws IOException {
+		this.options = options;
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		this.executor = Executors.newCachedThreadPool();
+
+		server.createContext("/analyse", this::handleAnalysis);
+		server.createContext("/status", this::handleStatus);
+		server.setExecutor(executor);
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stops the daemon, letting the running requests end within the given time.
+	 *
+	 * @param delaySeconds the highest number of seconds to wait for the running requests
+	 */
+	public void stop(int delaySeconds) {
+		server.stop(delaySeconds);
+		executor.shutdownNow();
+		stopped.countDown();
+	}
+
+	/**
+	 * Waits until the daemon is stopped.
+	 *
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public void awaitStop() throws InterruptedException {
+		stopped.await();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Returns the token that the requests for an analysis must send, which is new for every
+	 * daemon.
+	 *
+	 * @return the token of the daemon
+	 */
+	public String getToken() {
+		return token;
+	}
+
+	private void handleStatus(HttpExchange exchange) throws IOException {
+		try {
+			if(!isLoopbackHost(exchange)) {
+				sendText(exchange, 403, "Only requests for localhost are answered");
+				return;
+			}
+			sendText(exchange, 200, "ok");
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void handleAnalysis(HttpExchange exchange) throws IOException {
+		try {
+			if(!isLoopbackHost(exchange)) {
+				sendText(exchange, 403, "Only requests for localhost are answered");
+				return;
+			}
+
+			String requestToken = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+			if(requestToken == null || !MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+					requestToken.getBytes(StandardCharsets.UTF_8))) {
+				sendText(exchange, 401, "The " + TOKEN_HEADER + " header does not hold the token of the daemon");
+				return;
+			}
+
+			if(!exchange.getRequestMethod().equals("GET")) {
+				sendText(exchange, 405, "Only GET requests are supported");
+				return;
+			}
+
+			Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+			String projectDirectory = parameters.get("project");
+			if(projectDirectory == null || !new File(projectDirectory).isDirectory()) {
+				sendText(exchange, 400, "The project directory does not exist: " + projectDirectory);
+				return;
+			}
+
+			String format = parameters.getOrDefault("format", "jsonl").toLowerCase();
+			if(!format.equals("jsonl") && !format.equals("csv")) {
+				sendText(exchange, 400, "Unknown format: " + format);
+				return;
+			}
+
+			SmellType smellType;
+			try {
+				smellType = CommandLineRunner.parseSmellType(parameters.getOrDefault("smells", SmellType.ALL_SMELLS.name()));
+			} catch (IllegalArgumentException e) {
+				sendText(exchange, 400, e.getMessage());
+				return;
+			}
+
+			exchange.getResponseHeaders().set("Content-Type",
+					format.equals("jsonl") ? "application/x-ndjson; charset=utf-8" : "text/csv; charset=utf-8");
+			//A length of zero makes the response chunked, so that it can be written while the detectors run
+			exchange.sendResponseHeaders(200, 0);
+			analyse(new File(projectDirectory).getAbsolutePath(), smellType, format.equals("jsonl"), exchange.getResponseBody());
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Runs the detection of the given project and streams its smells. The requests of the same
+	 * project run one after the other, since they share the incremental state of the project.
+	 */
+	private void analyse(String projectDirectory, SmellType smellType, boolean jsonLines, OutputStream responseBody) {
+		ResultStream resultStream = new ResultStream(responseBody, jsonLines);
+		ReentrantLock projectLock = projectLocks.computeIfAbsent(projectDirectory, directory -> new ReentrantLock());
+		projectLock.lock();
+		try {
+			new SmellDetectionManager(smellType, projectDirectory, options, resultStream);
+		} finally {
+			projectLock.unlock();
+		}
+	}
+
+	/**
+	 * Checks that the request was meant for the loopback address, since a page that makes its
+	 * own host name point to it, i.e. DNS rebinding, sends that name instead.
+	 */
+	private static boolean isLoopbackHost(HttpExchange exchange) {
+		String host = exchange.getRequestHeaders().getFirst("Host");
+		if(host == null)
+			return false;
+
+		int portSeparator = host.lastIndexOf(':');
+		if(portSeparator > host.lastIndexOf(']'))
+			host = host.substring(0, portSeparator);
+		return LOOPBACK_HOSTS.contains(host.toLowerCase());
+	}
+
+	private static Map<String, String> parseQuery(String query) {
+		Map<String, String> parameters = new HashMap<>();
+		if(query == null)
+			return parameters;
+
+		for(String parameter : query.split("&")) {
+			int separator = parameter.indexOf('=');
+			if(separator > 0)
+				parameters.put(URLDecoder.decode(parameter.substring(0, separator), StandardCharsets.UTF_8),
+						URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8));
+		}
+		return parameters;
+	}
+
+	private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+		byte[] body = text.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		exchange.getResponseBody().write(body);
+	}
+
+
+	/**
+	 * Writes the smells of every detector to the response as soon as the detector ends. A smell
+	 * that an earlier detector already found is not written again, so it only names the first
+	 * detector that found it. The duplicates are held back until the end, since their group ids
+	 * are only final once the results of all the detectors are merged. If the client goes away,
+	 * the detection still ends, so that its results are cached for the next request.
+	 */
+	private static class ResultStream implements DetectionListener {
+		private final Writer writer;
+		private final boolean jsonLines;
+		private final long startTime = System.nanoTime();
+		private final Set<Smell> writtenSmells = new HashSet<>();
+		private boolean clientGone;
+
+		ResultStream(OutputStream responseBody, boolean jsonLines) {
+			this.writer = new OutputStreamWriter(responseBody, StandardCharsets.UTF_8);
+			this.jsonLines = jsonLines;
+			if(!jsonLines)
+				write("class_name;method_name;class_path;SmellType;start_line;end_line;DetectorNames\n");
+		}
+
+		@Override
+		public synchronized void detectorFinished(String detectorName, SmellStore detectorSmells) {
+			StringBuilder lines = new StringBuilder();
+			int count = 0;
+			for(Smell smell : detectorSmells.stream().toList()) {
+				if(smell.getSmellType() != SmellType.DUPLICATE_CODE) {
+					if(writtenSmells.add(smell))
+						appendSmell(lines, smell);
+					count++;
+				}
+			}
+			if(jsonLines)
+				lines.append("{\"event\":\"detectorFinished\",\"detector\":").append(SmellExporter.toJsonString(detectorName))
+					.append(",\"smells\":").append(count).append('}').append('\n');
+			write(lines.toString());
+		}
+
+		@Override
+		public synchronized void detectionFinished(SmellStore detectedSmells) {
+			StringBuilder lines = new StringBuilder();
+			//Every merged smell is written exactly once, whichever detector it came from
+			for(Smell smell : detectedSmells.stream().toList()) {
+				if(smell.getSmellType() == SmellType.DUPLICATE_CODE || writtenSmells.add(smell))
+					appendSmell(lines, smell);
+			}
+			if(jsonLines)
+				lines.append("{\"event\":\"finished\",\"smells\":").append(detectedSmells.size())
+					.append(",\"elapsedMillis\":").append((System.nanoTime() - startTime) / 1_000_000).append('}').append('\n');
+			write(lines.toString());
+		}
+
+		private void appendSmell(StringBuilder lines, Smell smell) {
+			if(jsonLines) {
+				String smellJson = SmellExporter.toJsonLine(smell);
+				lines.append("{\"event\":\"smell\",").append(smellJson, 1, smellJson.length()).append('\n');
+			} else {
+				lines.append(smell.getClassName()).append(';')
+					.append(smell.getMethodName() == null ? "" : smell.getMethodName()).append(';')
+					.append(smell.getTargetFile() == null ? "" : smell.getTargetFile().getAbsolutePath()).append(';')
+					.append(smell.getSmellType()).append(';')
+					.append(smell.getTargetStartLine()).append(';')
+					.append(smell.getTargetEndLine()).append(';')
+					.append(String.join(" | ", smell.getDetectorNameSet())).append('\n');
+			}
+		}
+
+		private void write(String text) {
+			if(clientGone || text.isEmpty())
+				return;
+
+			try {
+				writer.write(text);
+				writer.flush();
+			} catch (IOException e) {
+				clientGone = true;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,58 @@
+import java.util.List;
+
+/**
+ * Receives the progress of a {@code SmellDetectionManager} while the detection is running, so
+ * that the results of every detector can be used as soon as the detector ends, instead of
+ * after the slowest one. When the detectors run concurrently, the methods are called from the
+ * threads of the detectors, so implementations have to be thread-safe.
+ *
+ * The duplicates that a detector reports still have the duplication group ids of the detector.
+ * They are unified with the ones of the other detectors only in the smells that are given to
+ * {@link #detectionFinished(SmellStore)}.
+ */
+public interface DetectionListener {
+
+	/**
+	 * A method that is called once, before any detector starts.
+	 * 
+	 * @param detectorNames the names of the detectors that will be run, in the order of their results
+	 */
+	default void detectionStarted(List<String> detectorNames) {
+	}
+
+	/**
+	 * A method that is called right before the given detector starts.
+	 * 
+	 * @param detectorName the name of the detector
+	 */
+	default void detectorStarted(String detectorName) {
+	}
+
+	/**
+	 * A method that is called while the given detector runs, whenever it has analysed more
+	 * files. Only some detectors report their files, the others only start and finish.
+	 * 
+	 * @param detectorName the name of the detector
+	 * @param analysedFiles the number of files that the detector has analysed so far
+	 * @param totalFiles the number of files that the detector will analyse, or -1 if it is not known
+	 */
+	default void filesAnalysed(String detectorName, int analysedFiles, int totalFiles) {
+	}
+
+	/**
+	 * A method that is called as soon as the given detector ends, with the smells it found.
+	 * 
+	 * @param detectorName the name of the detector
+	 * @param detectorSmells the smells found by the detector, which must not be changed
+	 */
+	void detectorFinished(String detectorName, SmellStore detectorSmells);
+
+	/**
+	 * A method that is called once all the detectors have ended and their results are merged.
+	 * 
+	 * @param detectedSmells all the detected smells
+	 */
+	default void detectionFinished(SmellStore detectedSmells) {
+	}
+
+}
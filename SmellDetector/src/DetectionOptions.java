@@ -0,0 +1,320 @@
+import java.io.File;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Holds the settings that control how a {@code SmellDetectionManager} runs the selected
+ * detectors. Instances are immutable and are created through the {@link Builder}.
+ */
+public class DetectionOptions {
+	
+	/**
+	 * The time after which the external tools of a detector are stopped, unless another one is set.
+	 */
+	public static final Duration DEFAULT_TOOL_TIMEOUT = Duration.ofHours(1);
+	
+	/**
+	 * What a run with a scope does with the detectors that analyse the whole project whatever
+	 * their scope (see {@link SmellDetector#analysesWholeProject()}).
+	 */
+	public enum WholeProjectDetectors {
+		//They are run, and only their smells of the scope are kept
+		RESTRICTED,
+		//They are run, and all their smells are kept, e.g. in the central pass of a distributed run
+		UNRESTRICTED,
+		//They are not run, e.g. on the shards of a distributed run, whose central pass runs them once
+		SKIPPED;
+	}
+	
+	private final boolean concurrent;
+	private final int maxConcurrentDetectors;
+	private final ToolExecutionMode toolExecutionMode;
+	private final boolean incremental;
+	private final boolean resultCacheEnabled;
+	private final boolean nativeCloneDetection;
+	private final int organicParallelism;
+	private final boolean metricRulesEnabled;
+	private final boolean quickScanEnabled;
+	private final DetectorPermits detectorPermits;
+	private final List<File> analysisScope;
+	private final boolean crossFileAnalysisEnabled;
+	private final Duration toolTimeout;
+	private final WholeProjectDetectors wholeProjectDetectors;
+	
+	private DetectionOptions(Builder builder) {
+		this.concurrent = builder.concurrent;
+		this.maxConcurrentDetectors = builder.maxConcurrentDetectors;
+		this.toolExecutionMode = builder.toolExecutionMode;
+		this.incremental = builder.incremental;
+		this.resultCacheEnabled = builder.resultCacheEnabled;
+		this.nativeCloneDetection = builder.nativeCloneDetection;
+		this.organicParallelism = builder.organicParallelism;
+		this.metricRulesEnabled = builder.metricRulesEnabled;
+		this.quickScanEnabled = builder.quickScanEnabled;
+		this.detectorPermits = builder.detectorPermits;
+		this.analysisScope = builder.analysisScope;
+		this.crossFileAnalysisEnabled = builder.crossFileAnalysisEnabled;
+		this.toolTimeout = builder.toolTimeout;
+		this.wholeProjectDetectors = builder.wholeProjectDetectors;
+	}
+	
+	/**
+	 * Returns the options used when nothing else is specified, i.e. the detectors are run
+	 * one after another.
+	 * 
+	 * @return the default {@code DetectionOptions}
+	 */
+	public static DetectionOptions defaults() {
+		return new Builder().build();
+	}
+	
+	public boolean isConcurrent() {
+		return concurrent;
+	}
+	
+	public int getMaxConcurrentDetectors() {
+		return maxConcurrentDetectors;
+	}
+	
+	public ToolExecutionMode getToolExecutionMode() {
+		return toolExecutionMode;
+	}
+	
+	/**
+	 * Whether only the files that changed since the last run of the same project should be
+	 * analysed again, reusing the rest of the results of that run. The detectors that analyse
+	 * the whole project anyway, i.e. Organic, still analyse all of it when a file changed.
+	 * 
+	 * @return true if the run is incremental; false otherwise
+	 */
+	public boolean isIncremental() {
+		return incremental;
+	}
+	
+	/**
+	 * Whether the smells of files that were already analysed with the same detector
+	 * configuration should be taken from the result cache of the user (see {@link SmellCache}).
+	 * 
+	 * @return true if the result cache is used; false otherwise
+	 */
+	public boolean isResultCacheEnabled() {
+		return resultCacheEnabled;
+	}
+	
+	/**
+	 * Whether duplicate code should be found by the in-process clone detector (see
+	 * {@link TokenCloneSmellDetector}) instead of CPD and DuDe.
+	 * 
+	 * @return true if the in-process clone detector is used; false otherwise
+	 */
+	public boolean isNativeCloneDetection() {
+		return nativeCloneDetection;
+	}
+	
+	/**
+	 * The number of threads on which Organic computes the metrics and the smells of the types.
+	 * 
+	 * @return the number of threads, which is 1 when Organic analyses the project in one batch
+	 */
+	public int getOrganicParallelism() {
+		return organicParallelism;
+	}
+	
+	/**
+	 * Whether the metric-based smells should also be found by the rules of the application
+	 * (see {@link MetricRuleSmellDetector}). The rules parse every file of the project once per
+	 * run, in addition to the parse of Organic. Their results are not cached per file, since the
+	 * lazy classes of a file depend on the other files, so incremental runs parse the whole
+	 * project again, and shards leave the rules to the central pass.
+	 * 
+	 * @return true if the metric rules are run; false otherwise
+	 */
+	public boolean isMetricRulesEnabled() {
+		return metricRulesEnabled;
+	}
+	
+	/**
+	 * Whether the size-based smells should first be found by the quick scan (see
+	 * {@link QuickScanSmellDetector}), which ends long before the tools that report them.
+	 * 
+	 * @return true if the quick scan is run; false otherwise
+	 */
+	public boolean isQuickScanEnabled() {
+		return quickScanEnabled;
+	}
+	
+	/**
+	 * The limits on the concurrent runs of every detector, which are shared with the other
+	 * runs that use the same options, e.g. the runs of a batch of projects.
+	 * 
+	 * @return the {@code DetectorPermits} of the run, or {@code null} if the detectors are not limited
+	 */
+	public DetectorPermits getDetectorPermits() {
+		return detectorPermits;
+	}
+	
+	/**
+	 * The files in which the file-local smells are searched for, e.g. the shard of a project
+	 * that a worker analyses (see {@link AnalysisWorker}). Runs with a scope are never
+	 * incremental.
+	 * 
+	 * @return the files of the run, or {@code null} if the whole project is analysed
+	 */
+	public List<File> getAnalysisScope() {
+		return analysisScope;
+	}
+	
+	/**
+	 * Whether the smells that depend on more than one file (see
+	 * {@link Utils#isCrossFileSmell(SmellType)}) should be detected as well.
+	 * 
+	 * @return true if the cross-file smells are detected; false otherwise
+	 */
+	public boolean isCrossFileAnalysisEnabled() {
+		return crossFileAnalysisEnabled;
+	}
+	
+	/**
+	 * The longest time the external tools of a detector may run, after which they are stopped
+	 * and the detector reports what the tools found until then. It is
+	 * {@link #DEFAULT_TOOL_TIMEOUT} unless another one is set.
+	 * 
+	 * @return the time limit of the tools of every detector, or {@code null} if there is none
+	 */
+	public Duration getToolTimeout() {
+		return toolTimeout;
+	}
+	
+	/**
+	 * What the run does with the detectors that analyse the whole project even when the run
+	 * has a scope. It is {@link WholeProjectDetectors#RESTRICTED} unless another one is set, and
+	 * it is not used by runs without a scope.
+	 * 
+	 * @return how the whole-project detectors are run
+	 */
+	public WholeProjectDetectors getWholeProjectDetectors() {
+		return wholeProjectDetectors;
+	}
+	
+	
+	public static class Builder {
+		private boolean concurrent;
+		private int maxConcurrentDetectors = Runtime.getRuntime().availableProcessors();
+		private ToolExecutionMode toolExecutionMode = ToolExecutionMode.EXTERNAL_PROCESS;
+		private boolean incremental;
+		private boolean resultCacheEnabled;
+		private boolean nativeCloneDetection;
+		private int organicParallelism = 1;
+		private boolean metricRulesEnabled;
+		private boolean quickScanEnabled;
+		private DetectorPermits detectorPermits;
+		private List<File> analysisScope;
+		private boolean crossFileAnalysisEnabled = true;
+		private Duration toolTimeout = DEFAULT_TOOL_TIMEOUT;
+		private WholeProjectDetectors wholeProjectDetectors = WholeProjectDetectors.RESTRICTED;
+		
+		public Builder() {
+		}
+		
+		/**
+		 * Creates a builder that starts from the settings of the given options.
+		 * 
+		 * @param options the options to be copied
+		 */
+		public Builder(DetectionOptions options) {
+			this.concurrent = options.concurrent;
+			this.maxConcurrentDetectors = options.maxConcurrentDetectors;
+			this.toolExecutionMode = options.toolExecutionMode;
+			this.incremental = options.incremental;
+			this.resultCacheEnabled = options.resultCacheEnabled;
+			this.nativeCloneDetection = options.nativeCloneDetection;
+			this.organicParallelism = options.organicParallelism;
+			this.metricRulesEnabled = options.metricRulesEnabled;
+			this.quickScanEnabled = options.quickScanEnabled;
+			this.detectorPermits = options.detectorPermits;
+			this.analysisScope = options.analysisScope;
+			this.crossFileAnalysisEnabled = options.crossFileAnalysisEnabled;
+			this.toolTimeout = options.toolTimeout;
+			this.wholeProjectDetectors = options.wholeProjectDetectors;
+		}
+		
+		public Builder setConcurrent(boolean concurrent) {
+			this.concurrent = concurrent;
+			return this;
+		}
+		
+		public Builder setMaxConcurrentDetectors(int maxConcurrentDetectors) {
+			if(maxConcurrentDetectors < 1)
+				throw new IllegalArgumentException("At least one detector must be allowed to run");
+			
+			this.maxConcurrentDetectors = maxConcurrentDetectors;
+			return this;
+		}
+		
+		public Builder setToolExecutionMode(ToolExecutionMode toolExecutionMode) {
+			this.toolExecutionMode = toolExecutionMode;
+			return this;
+		}
+		
+		public Builder setIncremental(boolean incremental) {
+			this.incremental = incremental;
+			return this;
+		}
+		
+		public Builder setResultCacheEnabled(boolean resultCacheEnabled) {
+			this.resultCacheEnabled = resultCacheEnabled;
+			return this;
+		}
+		
+		public Builder setNativeCloneDetection(boolean nativeCloneDetection) {
+			this.nativeCloneDetection = nativeCloneDetection;
+			return this;
+		}
+		
+		public Builder setOrganicParallelism(int organicParallelism) {
+			this.organicParallelism = organicParallelism;
+			return this;
+		}
+		
+		public Builder setMetricRulesEnabled(boolean metricRulesEnabled) {
+			this.metricRulesEnabled = metricRulesEnabled;
+			return this;
+		}
+		
+		public Builder setQuickScanEnabled(boolean quickScanEnabled) {
+			this.quickScanEnabled = quickScanEnabled;
+			return this;
+		}
+		
+		public Builder setDetectorPermits(DetectorPermits detectorPermits) {
+			this.detectorPermits = detectorPermits;
+			return this;
+		}
+		
+		public Builder setAnalysisScope(Collection<File> analysisScope) {
+			this.analysisScope = analysisScope == null ? null : List.copyOf(analysisScope);
+			return this;
+		}
+		
+		public Builder setCrossFileAnalysisEnabled(boolean crossFileAnalysisEnabled) {
+			this.crossFileAnalysisEnabled = crossFileAnalysisEnabled;
+			return this;
+		}
+		
+		public Builder setToolTimeout(Duration toolTimeout) {
+			this.toolTimeout = toolTimeout;
+			return this;
+		}
+		
+		public Builder setWholeProjectDetectors(WholeProjectDetectors wholeProjectDetectors) {
+			this.wholeProjectDetectors = wholeProjectDetectors;
+			return this;
+		}
+		
+		public DetectionOptions build() {
+			return new DetectionOptions(this);
+		}
+	}
+
+}
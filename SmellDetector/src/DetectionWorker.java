@@ -0,0 +1,257 @@
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import javax.swing.BorderFactory;
+import javax.swing.BoxLayout;
+import javax.swing.JButton;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.SwingWorker;
+
+/**
+ * Runs a detection in the background of the user interface. A small window shows which
+ * detectors are running, how far the detection is and how long it will probably take, and
+ * lets the user cancel it, which stops the external tools. The smells of every detector are
+ * added to the given results window as soon as the detector ends, and once the detection has
+ * ended they are replaced by the merged smells of all the detectors.
+ *
+ * The estimate of the remaining time is based on the measured progress: the detectors that
+ * ended count fully, and the running ones by the share of their files that they analysed.
+ */
+public class DetectionWorker extends SwingWorker<SmellStore, SmellStore> implements DetectionListener {
+
+	private final String projectDirectory;
+	private final SmellDetectionManager smellDetectionManager;
+	private final SmellResultsFrame resultsFrame;
+	private final Consumer<SmellStore> finishedAction;
+
+	private final JFrame progressFrame;
+	private final JProgressBar progressBar;
+	private final JLabel statusLabel;
+	private final JLabel remainingTimeLabel;
+	private final JButton cancelButton;
+
+	//Written by the threads of the detectors, read on the event dispatch thread
+	private final Map<String, Double> runningDetectors = new LinkedHashMap<>();
+	private int detectorCount;
+	private int finishedDetectors;
+	private volatile int projectFileCount = -1;
+	private volatile long startTime;
+
+	/**
+	 * Creates the worker and its progress window. The detection starts with {@link #execute()}.
+	 *
+	 * @param smellType the smell type to be detected
+	 * @param projectDirectory the directory of the project
+	 * @param options the options of the detection
+	 * @param resultsFrame the window in which the smells are shown
+	 * @param finishedAction what is done with all the detected smells, if the detection was not cancelled;
+	 *        it runs on the event dispatch thread, so slow work such as an export must be started in the background
+	 */
+	public DetectionWorker(SmellType smellType, String projectDirectory, DetectionOptions options,
+			SmellResultsFrame resultsFrame, Consumer<SmellStore> finishedAction) {
+		this.projectDirectory = projectDirectory;
+		this.smellDetectionManager = SmellDetectionManager.prepare(smellType, projectDirectory, options, this);
+		this.resultsFrame = resultsFrame;
+		this.finishedAction = finishedAction;
+
+		progressFrame = new JFrame("Detecting " + smellType.getName());
+		progressFrame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+		progressFrame.setLayout(new BorderLayout());
+
+		JPanel progressPanel = new JPanel();
+		progressPanel.setLayout(new BoxLayout(progressPanel, BoxLayout.Y_AXIS));
+		progressPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+		statusLabel = new JLabel("Preparing the detection");
+		progressBar = new JProgressBar(0, 100);
+		progressBar.setStringPainted(true);
+		remainingTimeLabel = new JLabel(" ");
+		progressPanel.add(statusLabel);
+		progressPanel.add(progressBar);
+		progressPanel.add(remainingTimeLabel);
+
+		JPanel buttonPanel = new JPanel(new FlowLayout());
+		cancelButton = new JButton("Cancel");
+		cancelButton.addActionListener(e -> cancelDetection());
+		buttonPanel.add(cancelButton);
+
+		progressFrame.add(progressPanel, BorderLayout.CENTER);
+		progressFrame.add(buttonPanel, BorderLayout.SOUTH);
+		progressFrame.setSize(450, 150);
+
+		addPropertyChangeListener(event -> {
+			if("progress".equals(event.getPropertyName()) || "detectors".equals(event.getPropertyName()))
+				showProgress();
+		});
+		//Closing the results stops the detection, since nobody would see the rest of them
+		resultsFrame.addCloseAction(this::cancelDetection);
+		resultsFrame.setStatus("detecting");
+		progressFrame.setVisible(true);
+	}
+
+	/**
+	 * Stops the detection. The running tools are stopped, and the smells found until then are kept.
+	 */
+	public void cancelDetection() {
+		if(isDone() || smellDetectionManager.isCancelled())
+			return;
+
+		smellDetectionManager.cancel();
+		cancelButton.setEnabled(false);
+		statusLabel.setText("Stopping the running detectors");
+	}
+
+	@Override
+	protected SmellStore doInBackground() {
+		startTime = System.nanoTime();
+		projectFileCount = countJavaFiles();
+		smellDetectionManager.detect();
+		return smellDetectionManager.getDetectedSmells();
+	}
+
+	@Override
+	protected void process(List<SmellStore> detectorSmells) {
+		detectorSmells.forEach(resultsFrame::addSmells);
+	}
+
+	@Override
+	protected void done() {
+		progressFrame.dispose();
+
+		SmellStore detectedSmells;
+		try {
+			detectedSmells = get();
+		} catch (InterruptedException | ExecutionException e) {
+			e.printStackTrace();
+			detectedSmells = null;
+		}
+
+		if(detectedSmells == null) {
+			resultsFrame.setStatus("the detection failed");
+			return;
+		}
+
+		resultsFrame.setSmells(detectedSmells);
+		if(smellDetectionManager.isCancelled()) {
+			resultsFrame.setStatus("cancelled, the results are partial");
+			return;
+		}
+
+		long elapsedSeconds = (System.nanoTime() - startTime) / 1_000_000_000;
+		resultsFrame.setStatus("detected in " + formatDuration(elapsedSeconds));
+		finishedAction.accept(detectedSmells);
+	}
+
+	@Override
+	public void detectionStarted(List<String> detectorNames) {
+		synchronized (runningDetectors) {
+			detectorCount = detectorNames.size();
+		}
+		updateProgress();
+	}
+
+	@Override
+	public void detectorStarted(String detectorName) {
+		synchronized (runningDetectors) {
+			runningDetectors.put(detectorName, 0.0);
+		}
+		firePropertyChange("detectors", null, detectorName);
+	}
+
+	@Override
+	public void filesAnalysed(String detectorName, int analysedFiles, int totalFiles) {
+		//A detector that analyses the whole project does not always know how many files it has
+		int files = totalFiles > 0 ? totalFiles : projectFileCount;
+		if(files <= 0)
+			return;
+
+		//Detectors that analyse their files in parallel may report them out of order
+		double analysedShare = Math.min(1.0, (double) analysedFiles / files);
+		synchronized (runningDetectors) {
+			runningDetectors.computeIfPresent(detectorName, (name, share) -> Math.max(share, analysedShare));
+		}
+		updateProgress();
+	}
+
+	@Override
+	public void detectorFinished(String detectorName, SmellStore detectorSmells) {
+		synchronized (runningDetectors) {
+			runningDetectors.remove(detectorName);
+			finishedDetectors++;
+		}
+		publish(detectorSmells);
+		updateProgress();
+		firePropertyChange("detectors", detectorName, null);
+	}
+
+	/**
+	 * Sets the progress of the worker, which is shown on the event dispatch thread. Changes that
+	 * follow each other quickly are shown only once.
+	 */
+	private void updateProgress() {
+		setProgress((int) (getCompletedShare() * 100));
+	}
+
+	private double getCompletedShare() {
+		synchronized (runningDetectors) {
+			if(detectorCount == 0)
+				return 0;
+
+			double completedDetectors = finishedDetectors;
+			for(double runningShare : runningDetectors.values()) {
+				completedDetectors += runningShare;
+			}
+			return Math.min(1.0, completedDetectors / detectorCount);
+		}
+	}
+
+	private void showProgress() {
+		if(smellDetectionManager.isCancelled())
+			return;
+
+		double completedShare = getCompletedShare();
+		progressBar.setValue((int) (completedShare * 100));
+
+		synchronized (runningDetectors) {
+			statusLabel.setText(runningDetectors.isEmpty() ? "Preparing the detection"
+					: "Running " + String.join(", ", runningDetectors.keySet())
+						+ " (" + finishedDetectors + " of " + detectorCount + " detectors done)");
+		}
+
+		if(completedShare > 0) {
+			//The rest of the detection is assumed to go as fast as the part that is done
+			long elapsedNanos = System.nanoTime() - startTime;
+			long remainingSeconds = (long) (elapsedNanos * (1 - completedShare) / completedShare / 1_000_000_000);
+			remainingTimeLabel.setText("About " + formatDuration(remainingSeconds) + " left");
+		}
+	}
+
+	private static String formatDuration(long seconds) {
+		return seconds < 60 ? seconds + " s" : (seconds / 60) + " min " + (seconds % 60) + " s";
+	}
+
+	/**
+	 * Counts the java files of the project, so that the progress of the detectors that do not
+	 * know how many files they analyse can still be estimated.
+	 */
+	private int countJavaFiles() {
+		try(Stream<Path> paths = Files.walk(Path.of(projectDirectory))) {
+			return (int) paths.filter(path -> path.toString().endsWith(".java") && Files.isRegularFile(path)).count();
+		} catch (IOException e) {
+			e.printStackTrace();
+			return -1;
+		}
+	}
+
+}
@@ -0,0 +1,74 @@
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits how many runs of each detector may take place at the same time, across all the
+ * {@code SmellDetectionManager}s that share the permits. The detectors have very different CPU
+ * and memory needs, so e.g. only a few Organic runs may be allowed while PMD runs on every core.
+ * Detectors without a limit are never blocked.
+ *
+ * Waiting for a permit is reported to the {@code ForkJoinPool} of the waiting thread, so the
+ * pool may start another worker to keep its other tasks going in the meantime.
+ */
+public class DetectorPermits {
+
+	private final Map<String, Semaphore> semaphores;
+
+	/**
+	 * Creates the permits with the given limits.
+	 *
+	 * @param limits the highest number of concurrent runs, per detector name
+	 */
+	public DetectorPermits(Map<String, Integer> limits) {
+		Map<String, Semaphore> semaphores = new HashMap<>();
+		limits.forEach((detectorName, limit) -> semaphores.put(detectorName, new Semaphore(Math.max(1, limit), true)));
+		this.semaphores = Collections.unmodifiableMap(semaphores);
+	}
+
+	/**
+	 * Waits until the given detector may run.
+	 *
+	 * @param detectorName the name of the detector that is about to run
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public void acquire(String detectorName) throws InterruptedException {
+		Semaphore semaphore = semaphores.get(detectorName);
+		if(semaphore == null || semaphore.tryAcquire())
+			return;
+
+		ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+			private boolean acquired;
+
+			@Override
+			public boolean block() throws InterruptedException {
+				if(!acquired) {
+					semaphore.acquire();
+					acquired = true;
+				}
+				return true;
+			}
+
+			@Override
+			public boolean isReleasable() {
+				if(!acquired)
+					acquired = semaphore.tryAcquire();
+				return acquired;
+			}
+		});
+	}
+
+	/**
+	 * Lets another run of the given detector take place.
+	 *
+	 * @param detectorName the name of the detector that ended
+	 */
+	public void release(String detectorName) {
+		Semaphore semaphore = semaphores.get(detectorName);
+		if(semaphore != null)
+			semaphore.release();
+	}
+
+}
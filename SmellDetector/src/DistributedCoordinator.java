@@ -0,0 +1,447 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Spreads the analysis of a project over {@code AnalysisWorker} processes, e.g. for a monorepo
+ * that takes hours on a single host. The java files are split into shards of about the same
+ * number of files, keeping the files of a package together where possible, and the workers
+ * take the shards from a shared queue, so faster workers take more of them. The workers only
+ * look for the file-local smells of their shards. The smells that depend on the whole project,
+ * i.e. the duplicates and the coupling smells, are found by the coordinator itself while the
+ * workers run, and so are all the smells of the detectors that analyse the whole project anyway,
+ * i.e. Organic, which is thus run only once.
+ *
+ * A shard whose worker dies, fails or does not answer in time is sent to another worker, and
+ * the shards that are left when no worker is alive are analysed by the coordinator.
+ */
+public class DistributedCoordinator {
+
+	//More shards than workers, so that a slow shard does not hold back the end of the run
+	private static final int SHARDS_PER_WORKER = 4;
+	private static final int MAX_ATTEMPTS = 3;
+	private static final int CONNECT_TIMEOUT_MILLIS = 10_000;
+	//A shard runs its detectors one after the other, each one within the tool timeout
+	private static final int DETECTORS_PER_SHARD = 4;
+	private static final long SHARD_TIMEOUT_MARGIN_MILLIS = 5 * 60_000;
+
+	private final SmellType smellType;
+	private final String projectDirectory;
+	private final DetectionOptions options;
+	private final List<InetSocketAddress> workerAddresses;
+	private final String workerToken;
+	private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+
+	/**
+	 * Creates a coordinator for the given workers.
+	 *
+	 * @param smellType the smell type to be detected
+	 * @param projectDirectory the directory of the project, which the workers must see under the same path
+	 * @param options the options of the detection; the incremental setting is not used
+	 * @param workerAddresses the addresses of the workers
+	 * @param workerToken the token that the workers were started with, or {@code null} if they have none
+	 */
+	public DistributedCoordinator(SmellType smellType, String projectDirectory, DetectionOptions options,
+			List<InetSocketAddress> workerAddresses, String workerToken) {
+		this.smellType = smellType;
+		this.projectDirectory = new File(projectDirectory).getAbsolutePath();
+		this.options = options;
+		this.workerAddresses = List.copyOf(workerAddresses);
+		this.workerToken = workerToken;
+	}
+
+	/**
+	 * Analyses the project on the workers and merges their smells with the ones of the
+	 * central pass.
+	 *
+	 * @return the detected smells
+	 * @throws IOException if the files of the project cannot be listed
+	 * @throws InterruptedException if the thread is interrupted while waiting for the workers
+	 */
+	public SmellStore run() throws IOException, InterruptedException {
+		List<List<File>> shards = createShards(collectJavaFiles(), Math.max(1, workerAddresses.size() * SHARDS_PER_WORKER));
+		ShardQueue shardQueue = new ShardQueue(shards, workerAddresses);
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, workerAddresses.size()));
+		try {
+			List<Future<?>> workerRuns = new ArrayList<>(workerAddresses.size());
+			for(InetSocketAddress workerAddress : workerAddresses) {
+				workerRuns.add(executor.submit(() -> feedWorker(workerAddress, shardQueue)));
+			}
+
+			//The duplicates and the coupling smells need the whole project, so they are found here in the meantime,
+			//together with the smells of Organic, which the workers leave out
+			SmellDetectionManager centralManager = new SmellDetectionManager(smellType, projectDirectory, new DetectionOptions.Builder(options)
+					.setIncremental(false)
+					.setAnalysisScope(Collections.emptyList())
+					.setCrossFileAnalysisEnabled(true)
+					.setWholeProjectDetectors(DetectionOptions.WholeProjectDetectors.UNRESTRICTED)
+					.build());
+			failures.addAll(centralManager.getFailures());
+			SmellStore centralSmells = centralManager.getDetectedSmells();
+
+			for(Future<?> workerRun : workerRuns) {
+				try {
+					workerRun.get();
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace();
+				}
+			}
+
+			for(Shard shard : shardQueue.takeLeftoverShards()) {
+				System.err.println("Analysing shard " + shard.index + " locally, since no worker could analyse it");
+				SmellDetectionManager shardManager = new SmellDetectionManager(smellType, projectDirectory,
+						new WorkerProtocol.ShardRequest(smellType, projectDirectory, options, shard.files).toDetectionOptions());
+				failures.addAll(shardManager.getFailures());
+				shardQueue.complete(shard, shardManager.getDetectedSmells());
+			}
+
+			//The shards are merged in their order, so that the results do not depend on the speed of the workers
+			SmellStore detectedSmells = new SmellStore();
+			for(SmellStore smells : shardQueue.shardSmells) {
+				detectedSmells.addAll(smells);
+			}
+			detectedSmells.addAll(centralSmells);
+			return detectedSmells;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Returns what went wrong in the last run, i.e. the failures of the detectors of the central
+	 * pass and of the shards that the coordinator analysed itself. A shard that failed on a
+	 * worker but succeeded on another one is not a failure of the run.
+	 *
+	 * @return a list with a message for every failure, which is empty if the run succeeded
+	 */
+	public List<String> getFailures() {
+		synchronized (failures) {
+			return new ArrayList<>(failures);
+		}
+	}
+
+	/**
+	 * Sends shards to the given worker until no shards are left or the worker dies. A worker
+	 * that does not answer in time is given up, since it may hang.
+	 */
+	private void feedWorker(InetSocketAddress workerAddress, ShardQueue shardQueue) {
+		Shard shard = null;
+		try(Socket socket = new Socket()) {
+			socket.connect(workerAddress, CONNECT_TIMEOUT_MILLIS);
+			socket.setSoTimeout(getShardTimeoutMillis());
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			WorkerProtocol.writeHello(output, workerToken);
+
+			while((shard = shardQueue.take(workerAddress)) != null) {
+				WorkerProtocol.writeShardRequest(output, new WorkerProtocol.ShardRequest(smellType, projectDirectory, options, shard.files));
+				try {
+					SmellStore smells = new SmellStore();
+					for(Smell smell : WorkerProtocol.readShardResult(input)) {
+						smell.getDetectorNameSet().forEach(detectorName -> smells.add(detectorName, smell));
+					}
+					shardQueue.complete(shard, smells);
+				} catch (WorkerProtocol.ShardFailedException e) {
+					System.err.println(workerAddress + " failed to analyse shard " + shard.index + ": " + e.getMessage());
+					shardQueue.fail(shard, workerAddress);
+				}
+				shard = null;
+			}
+		} catch (SocketTimeoutException e) {
+			//Only the answer to a shard is waited for, so a shard is pending
+			System.err.println(workerAddress + " did not finish shard " + shard.index + " in time");
+			shardQueue.fail(shard, workerAddress);
+		} catch (IOException e) {
+			System.err.println("Lost the worker " + workerAddress + ": " + e);
+			if(shard != null)
+				shardQueue.fail(shard, workerAddress);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			if(shard != null)
+				shardQueue.fail(shard, workerAddress);
+		} finally {
+			shardQueue.leave(workerAddress);
+		}
+	}
+
+	/**
+	 * Returns the longest time that a worker may take for a shard, which follows from the
+	 * timeout of the tools, or 0 if the tools have no timeout either.
+	 */
+	private int getShardTimeoutMillis() {
+		if(options.getToolTimeout() == null)
+			return 0;
+		long shardTimeoutMillis = options.getToolTimeout().toMillis() * DETECTORS_PER_SHARD + SHARD_TIMEOUT_MARGIN_MILLIS;
+		return (int) Math.min(Integer.MAX_VALUE, shardTimeoutMillis);
+	}
+
+	private List<File> collectJavaFiles() throws IOException {
+		try(Stream<Path> paths = Files.walk(Path.of(projectDirectory))) {
+			return paths.filter(path -> path.toString().endsWith(".java") && Files.isRegularFile(path))
+						.sorted()
+						.map(Path::toFile)
+						.collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * Splits the given files into the given number of shards of about the same size. The files
+	 * of a directory, i.e. of a package, are kept in the same shard, unless the package alone is
+	 * bigger than a shard. The biggest packages are placed first, each one in the smallest shard.
+	 *
+	 * @param javaFiles the java files of the project
+	 * @param shardCount the highest number of shards
+	 * @return the shards, none of which is empty
+	 */
+	static List<List<File>> createShards(List<File> javaFiles, int shardCount) {
+		Map<String, List<File>> filesPerPackage = new TreeMap<>();
+		for(File javaFile : javaFiles) {
+			filesPerPackage.computeIfAbsent(String.valueOf(javaFile.getParent()), directory -> new ArrayList<>()).add(javaFile);
+		}
+
+		int shardSize = Math.max(1, (javaFiles.size() + shardCount - 1) / shardCount);
+		List<List<File>> packageChunks = new ArrayList<>();
+		for(List<File> packageFiles : filesPerPackage.values()) {
+			for(int start = 0; start < packageFiles.size(); start += shardSize) {
+				packageChunks.add(packageFiles.subList(start, Math.min(packageFiles.size(), start + shardSize)));
+			}
+		}
+		packageChunks.sort(Comparator.comparingInt((List<File> chunk) -> chunk.size()).reversed());
+
+		List<List<File>> shards = new ArrayList<>();
+		PriorityQueue<List<File>> smallestShards = new PriorityQueue<>(Comparator.comparingInt(List::size));
+		for(int i = 0; i < Math.min(shardCount, packageChunks.size()); i++) {
+			List<File> shard = new ArrayList<>();
+			shards.add(shard);
+			smallestShards.add(shard);
+		}
+		for(List<File> chunk : packageChunks) {
+			List<File> shard = smallestShards.poll();
+			shard.addAll(chunk);
+			smallestShards.add(shard);
+		}
+
+		return shards;
+	}
+
+
+	/**
+	 * Starts the given number of worker processes on this machine, e.g. to try out a
+	 * distributed run, or to stand in for remote nodes in a test. The workers use the class
+	 * path of this JVM, listen on the loopback address and take any free port.
+	 *
+	 * @param workerCount the number of workers
+	 * @param workerToken the token that the workers expect from the coordinator
+	 * @return the started workers, which have to be closed once they are not needed
+	 * @throws IOException if a worker cannot be started
+	 */
+	public static LocalWorkers startLocalWorkers(int workerCount, String workerToken) throws IOException {
+		LocalWorkers localWorkers = new LocalWorkers(workerToken);
+		try {
+			for(int i = 0; i < workerCount; i++) {
+				localWorkers.start();
+			}
+		} catch (IOException e) {
+			localWorkers.close();
+			throw e;
+		}
+		return localWorkers;
+	}
+
+
+	/**
+	 * Worker processes on this machine, which are stopped when they are closed.
+	 */
+	public static class LocalWorkers implements AutoCloseable {
+		private final List<Process> processes = new ArrayList<>();
+		private final List<InetSocketAddress> addresses = new ArrayList<>();
+		private final String workerToken;
+
+		private LocalWorkers(String workerToken) {
+			this.workerToken = workerToken;
+		}
+
+		private void start() throws IOException {
+			String javaExecutable = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+			ProcessBuilder processBuilder = new ProcessBuilder(javaExecutable, "-cp", System.getProperty("java.class.path"),
+					AnalysisWorker.class.getName(), "--port", "0")
+					.redirectError(ProcessBuilder.Redirect.INHERIT);
+			//The token is not passed as an argument, which other users of the host could see
+			if(workerToken != null)
+				processBuilder.environment().put(AnalysisWorker.TOKEN_VARIABLE, workerToken);
+			Process process = processBuilder.start();
+			processes.add(process);
+
+			BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+			String line = reader.readLine();
+			if(line == null || !line.startsWith(AnalysisWorker.LISTENING_PREFIX))
+				throw new IOException("The worker did not start: " + line);
+			addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+					Integer.parseInt(line.substring(AnalysisWorker.LISTENING_PREFIX.length()).trim())));
+
+			//The tools may print to the output of the worker, which must not fill up
+			Thread drainThread = new Thread(() -> {
+				try {
+					while(reader.readLine() != null) {
+						//The output of the tools is not needed
+					}
+				} catch (IOException e) {
+					//The worker has ended
+				}
+			}, "LocalWorker-output");
+			drainThread.setDaemon(true);
+			drainThread.start();
+		}
+
+		public List<InetSocketAddress> getAddresses() {
+			return Collections.unmodifiableList(addresses);
+		}
+
+		@Override
+		public void close() {
+			processes.forEach(Process::destroy);
+		}
+	}
+
+
+	/**
+	 * The shards of a run. A shard that fails is put back for another worker, unless it
+	 * already failed too often or every worker that is still alive failed it; the shards that
+	 * are not put back are left for the coordinator.
+	 */
+	private static class ShardQueue {
+		private final Deque<Shard> pendingShards = new ArrayDeque<>();
+		private final List<Shard> leftoverShards = new ArrayList<>();
+		private final Set<InetSocketAddress> liveWorkers;
+		private final List<SmellStore> shardSmells;
+		private int remainingShards;
+
+		ShardQueue(List<List<File>> shards, List<InetSocketAddress> workerAddresses) {
+			for(int i = 0; i < shards.size(); i++) {
+				pendingShards.add(new Shard(i, shards.get(i)));
+			}
+			liveWorkers = new HashSet<>(workerAddresses);
+			shardSmells = new ArrayList<>(Collections.nCopies(shards.size(), new SmellStore()));
+			remainingShards = shards.size();
+		}
+
+		/**
+		 * Waits for a shard that the given worker has not failed yet. The shards of a dead
+		 * worker come back to the queue, so the queue is watched until every shard is either
+		 * done or left for the coordinator.
+		 *
+		 * @param workerAddress the address of the worker that asks for a shard
+		 * @return the next shard, or {@code null} if no shards are left
+		 */
+		synchronized Shard take(InetSocketAddress workerAddress) throws InterruptedException {
+			while(remainingShards > 0) {
+				for(Iterator<Shard> iterator = pendingShards.iterator(); iterator.hasNext(); ) {
+					Shard shard = iterator.next();
+					if(!shard.failedWorkers.contains(workerAddress)) {
+						iterator.remove();
+						return shard;
+					}
+				}
+				wait();
+			}
+
+			return null;
+		}
+
+		synchronized void complete(Shard shard, SmellStore smells) {
+			shardSmells.set(shard.index, smells);
+			remainingShards--;
+			notifyAll();
+		}
+
+		synchronized void fail(Shard shard, InetSocketAddress workerAddress) {
+			shard.attempts++;
+			shard.failedWorkers.add(workerAddress);
+			if(shard.attempts < MAX_ATTEMPTS && !shard.failedWorkers.containsAll(liveWorkers)) {
+				pendingShards.add(shard);
+			} else {
+				leftoverShards.add(shard);
+				remainingShards--;
+			}
+			notifyAll();
+		}
+
+		/**
+		 * Records that the given worker is gone, so that the shards which all the other workers
+		 * failed as well are left for the coordinator instead of waiting for a worker.
+		 *
+		 * @param workerAddress the address of the worker
+		 */
+		synchronized void leave(InetSocketAddress workerAddress) {
+			liveWorkers.remove(workerAddress);
+			for(Iterator<Shard> iterator = pendingShards.iterator(); iterator.hasNext(); ) {
+				Shard shard = iterator.next();
+				if(!liveWorkers.isEmpty() && shard.failedWorkers.containsAll(liveWorkers)) {
+					iterator.remove();
+					leftoverShards.add(shard);
+					remainingShards--;
+				}
+			}
+			notifyAll();
+		}
+
+		/**
+		 * Returns the shards that no worker could analyse, i.e. the ones that failed too often
+		 * and the ones that were still pending when all the workers were gone.
+		 */
+		synchronized List<Shard> takeLeftoverShards() {
+			List<Shard> shards = new ArrayList<>(leftoverShards);
+			shards.addAll(pendingShards);
+			pendingShards.clear();
+			leftoverShards.clear();
+			//Their results are completed again by the coordinator
+			remainingShards += shards.size();
+			return shards;
+		}
+	}
+
+
+	private static class Shard {
+		private final int index;
+		private final List<File> files;
+		private int attempts;
+		//Only touched while the queue is locked
+		private final Set<InetSocketAddress> failedWorkers = new HashSet<>();
+
+		Shard(int index, List<File> files) {
+			this.index = index;
+			this.files = files;
+		}
+	}
+
+}
@@ -1,28 +1,42 @@
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.eclipse.jdt.core.JavaModelException;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 
 public class DuDeSmellDetector extends SmellDetector {
 	
+	/**
+	 * The longest time a DuDe run is allowed to take. The run normally ends much earlier,
+	 * since the process is waited for until it exits.
+	 */
+	private static final Duration MAX_RUN_TIME = Duration.ofMinutes(30);
+	
 	private String projectDirectory;
-	private Map<SmellType, Set<Smell>> detectedSmells;
+	private SmellStore detectedSmells;
 
 	public DuDeSmellDetector(String projectDirectory) {
 	    this.projectDirectory = projectDirectory;
-	    this.detectedSmells = new HashMap<>();
+	    this.detectedSmells = new SmellStore();
 	}
 	
 	private static final Set<SmellType> SUPPORTED_SMELL_TYPES = Collections.unmodifiableSet(
@@ -39,30 +53,74 @@ public class DuDeSmellDetector extends SmellDetector {
 	}
 
 	@Override
-	public void findSmells(SmellType smellType,  Map<SmellType, Set<Smell>> detectedSmells) throws Exception {
-		File dudeJarFile = new File(getClass().getClassLoader().getResource("dude/dude.jar").toURI());
-		File dudeConfigFile = new File(getClass().getClassLoader().getResource("dude/selected-project.txt").toURI());
-		
-		writeSelectedProjectPathToConfigFile(dudeConfigFile);
-		
-		String dudeDirectory = dudeJarFile.getAbsolutePath().toString();
-		dudeDirectory = dudeDirectory.substring(0, dudeDirectory.lastIndexOf("\\") + 1);
+	public void findSmells(SmellType smellType,  SmellStore detectedSmells) throws Exception {
+		//Duplicates depend on the whole project, so there is nothing to do for a run that only
+		//covers file-local smells
+		if(!isCrossFileAnalysisEnabled()) {
+			this.detectedSmells = detectedSmells;
+			return;
+		}
 		
-		Utils.runCommand(buildToolCommand(dudeJarFile, dudeConfigFile), dudeDirectory, false);
+		File dudeJarFile = new File(getClass().getClassLoader().getResource("dude/dude.jar").toURI());
 		
-		for(int i = 0; i < 3; i++) {
-			File resultsFile = new File(String.format(dudeDirectory + "Result%d.xml", i));
-			if(!resultsFile.exists())
-				continue;
+		//Every run gets its own directory for the config and the results, so that runs for
+		//different projects never see each other's files
+		File workspaceDirectory = Files.createTempDirectory("dude-").toFile();
+		try {
+			File dudeConfigFile = new File(workspaceDirectory, "selected-project.txt");
+			writeSelectedProjectPathToConfigFile(dudeConfigFile);
+			
+			getProcessSupervisor().runUntilExit(buildToolCommand(dudeJarFile, dudeConfigFile), workspaceDirectory,
+					new File(workspaceDirectory, "dude.log"), MAX_RUN_TIME);
 			
-			Document xmlDoc = Utils.getXmlDocument(resultsFile);
-			extractDuplicates(xmlDoc, detectedSmells);
-			resultsFile.delete();
+			for(File resultsFile : findResultFiles(workspaceDirectory)) {
+				try(InputStream resultsInput = new FileInputStream(resultsFile)) {
+					XMLStreamReader reader = Utils.createXmlStreamReader(resultsInput);
+					extractDuplicates(reader, detectedSmells);
+					reader.close();
+				} catch (XMLStreamException e) {
+					//A stopped run may leave its last result file unfinished, while the earlier ones are kept
+					if(!getProcessSupervisor().wasStopped())
+						throw e;
+				}
+			}
+		} finally {
+			deleteWorkspace(workspaceDirectory);
 		}
 		this.detectedSmells = detectedSmells;
 		System.out.println("End DuDe");
 	}
 	
+	/**
+	 * Finds the result files that DuDe wrote in the given directory, in the order of their
+	 * numbering.
+	 * 
+	 * @param workspaceDirectory the directory in which the tool was run
+	 * @return a list with the result files of the run
+	 */
+	private List<File> findResultFiles(File workspaceDirectory) {
+		File[] resultFiles = workspaceDirectory.listFiles((directory, name) -> name.matches("Result\\d+\\.xml"));
+		if(resultFiles == null)
+			return Collections.emptyList();
+		
+		return Arrays.stream(resultFiles)
+					.sorted(Comparator.comparingInt(file -> Integer.parseInt(file.getName().replaceAll("\\D", ""))))
+					.collect(Collectors.toList());
+	}
+	
+	/**
+	 * Deletes the directory of a run together with everything the tool wrote in it.
+	 * 
+	 * @param workspaceDirectory the directory in which the tool was run
+	 */
+	private void deleteWorkspace(File workspaceDirectory) {
+		try(Stream<Path> paths = Files.walk(workspaceDirectory.toPath())) {
+			paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
 	/**
 	 * Writes the project's absolute path to the config file of the tool.
 	 * 
@@ -90,7 +148,7 @@ public class DuDeSmellDetector extends SmellDetector {
 	private List<String> buildToolCommand(File dudeJarFile, File dudeConfigFile) throws Exception {
 		List<String> dudeCmdList = new ArrayList<>();
 		
-		dudeCmdList.add("java");
+		dudeCmdList.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
 		dudeCmdList.add("-cp");
 		dudeCmdList.add(dudeJarFile.getAbsolutePath());
 		dudeCmdList.add("lrg.dude.batch.RunBatchMode");
@@ -100,43 +158,48 @@ public class DuDeSmellDetector extends SmellDetector {
 	}
 
 	/**
-	 * Extracts Duplicate Code smells and returns a set that contains all of them.
+	 * Extracts Duplicate Code smells from a result file of the tool while it is being read.
+	 * Duplication chains that include a file which is not a java file are skipped from that
+	 * file onwards.
 	 * 
-	 * @param xmlDoc an XML {@code Document} that contains the results of the detection
-	 * @param detectedSmells a {@code Map} from smellType to a {@code Set} of detected smells
+	 * @param reader a streaming reader over the results of the detection
+	 * @param detectedSmells the {@code SmellStore} of the detected smells
 	 * @throws Exception 
 	 */
-	private void extractDuplicates(Document xmlDoc, Map<SmellType, Set<Smell>> detectedSmells) throws Exception {
-		int duplicationGroupId = Utils.getGreatestDuplicationGroupId(detectedSmells);
+	private void extractDuplicates(XMLStreamReader reader, SmellStore detectedSmells) throws Exception {
+		int duplicationGroupId = 0;
+		boolean skipDupChain = false;
 		
-		NodeList dupChains = xmlDoc.getDocumentElement().getElementsByTagName("DupChain");
-		dupChainLoop: for(int i = 0; i < dupChains.getLength(); i++) {
-			NodeList codeSnippets = dupChains.item(i).getChildNodes();
-			for(int j = 0; j < codeSnippets.getLength(); j++) {
-				Node codeSnippet = codeSnippets.item(j);
-				
-				if(!codeSnippet.getNodeName().equals("CodeSnippet"))
-					continue;
-				
-				String fileName = codeSnippet.getAttributes().getNamedItem("FileName").getNodeValue();
-				if(!fileName.endsWith(".java"))
-					continue dupChainLoop;
-				
-				String className = fileName.substring(fileName.lastIndexOf("\\") + 1);
-				File targetIFile = new File(fileName);
-				int startLine = Integer.parseInt(codeSnippet.getAttributes().getNamedItem("From").getNodeValue());
-				int endLine = Integer.parseInt(codeSnippet.getAttributes().getNamedItem("To").getNodeValue());
-				
-				Utils.addSmell(SmellType.DUPLICATE_CODE, detectedSmells, getDetectorName(),
-						Utils.createSmellObject(SmellType.DUPLICATE_CODE, duplicationGroupId, className, targetIFile, startLine, endLine));
+		while(reader.hasNext()) {
+			if(reader.next() != XMLStreamConstants.START_ELEMENT)
+				continue;
+			
+			if(reader.getLocalName().equals("DupChain")) {
+				duplicationGroupId = detectedSmells.createDuplicationGroupId();
+				skipDupChain = false;
+				continue;
+			}
+			
+			if(!reader.getLocalName().equals("CodeSnippet") || skipDupChain)
+				continue;
+			
+			String fileName = reader.getAttributeValue(null, "FileName");
+			if(!fileName.endsWith(".java")) {
+				skipDupChain = true;
+				continue;
 			}
 			
-			duplicationGroupId++;
+			File targetIFile = new File(fileName);
+			int startLine = Integer.parseInt(reader.getAttributeValue(null, "From"));
+			int endLine = Integer.parseInt(reader.getAttributeValue(null, "To"));
+			
+			detectedSmells.add(getDetectorName(),
+					Utils.createSmellObject(SmellType.DUPLICATE_CODE, duplicationGroupId, targetIFile.getName(), targetIFile, startLine, endLine));
 		}
 	}
 
 	@Override
-	public Map<SmellType, Set<Smell>> getDetectedSmells() {
+	public SmellStore getDetectedSmells() {
 		return this.detectedSmells;
 	}
 
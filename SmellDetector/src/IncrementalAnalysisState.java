@@ -0,0 +1,103 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * What is kept from the last run of a project, so that the next run only has to analyse the
+ * files that changed since then: the snapshot of the project and the smells that every
+ * detector found, grouped by file.
+ */
+public class IncrementalAnalysisState {
+	
+	private ProjectSnapshot snapshot;
+	private final Map<String, DetectorResults> resultsPerDetector = new ConcurrentHashMap<>();
+	
+	public ProjectSnapshot getSnapshot() {
+		return snapshot;
+	}
+	
+	public void setSnapshot(ProjectSnapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+	
+	/**
+	 * Returns the results of the given detector from the last run, or {@code null} if the
+	 * detector has no complete results for the project.
+	 * 
+	 * @param detectorName the name of the detector
+	 * @return the results of the detector
+	 */
+	public DetectorResults getResults(String detectorName) {
+		return resultsPerDetector.get(detectorName);
+	}
+	
+	public void setResults(String detectorName, DetectorResults results) {
+		resultsPerDetector.put(detectorName, results);
+	}
+	
+	public void removeResults(String detectorName) {
+		resultsPerDetector.remove(detectorName);
+	}
+	
+	
+	/**
+	 * The smells found by a single detector, split into the file-local smells of every file
+	 * and the cross-file smells of the whole project.
+	 */
+	public static class DetectorResults {
+		private final Map<String, List<Smell>> fileLocalSmells = new HashMap<>();
+		private List<Smell> crossFileSmells = new ArrayList<>();
+		
+		/**
+		 * Splits the smells found by a detector per file.
+		 * 
+		 * @param detectedSmells the {@code SmellStore} of the smells found by the detector
+		 */
+		public DetectorResults(SmellStore detectedSmells) {
+			detectedSmells.stream().forEach(smell -> {
+				if(Utils.isCrossFileSmell(smell.getSmellType())) {
+					crossFileSmells.add(smell);
+				} else {
+					fileLocalSmells.computeIfAbsent(Utils.getNormalisedPath(smell.getTargetFile()), path -> new ArrayList<>())
+								   .add(smell);
+				}
+			});
+		}
+		
+		/**
+		 * Completes the results of a restricted run with the results of the previous run: the
+		 * file-local smells of every file that was not affected by the changes are taken over,
+		 * and so are the cross-file smells when they were not detected again.
+		 * 
+		 * @param previousResults the results of the previous run
+		 * @param changes the changes of the project since the previous run
+		 * @param crossFileSmellsDetected whether the cross-file smells were detected in this run
+		 */
+		public void carryOver(DetectorResults previousResults, ProjectSnapshot.FileChanges changes, boolean crossFileSmellsDetected) {
+			previousResults.fileLocalSmells.forEach((filePath, smells) -> {
+				if(!changes.affects(filePath))
+					fileLocalSmells.putIfAbsent(filePath, smells);
+			});
+			
+			if(!crossFileSmellsDetected)
+				crossFileSmells = previousResults.crossFileSmells;
+		}
+		
+		/**
+		 * Puts all the smells back into the structure that the detectors use.
+		 * 
+		 * @param detectorName the name of the detector that found the smells
+		 * @return a new {@code SmellStore} with the smells
+		 */
+		public SmellStore toSmellStore(String detectorName) {
+			SmellStore detectedSmells = new SmellStore();
+			fileLocalSmells.values().forEach(smells -> smells.forEach(smell -> detectedSmells.add(detectorName, smell)));
+			crossFileSmells.forEach(smell -> detectedSmells.add(detectorName, smell));
+			
+			return detectedSmells;
+		}
+	}
+
+}
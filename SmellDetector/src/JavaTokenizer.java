@@ -0,0 +1,248 @@
+import java.util.Arrays;
+
+/**
+ * A small tokenizer for java source code, which is enough to compare code token by token.
+ * Whitespace and comments are dropped, and so are the package and import statements, since
+ * they are the same in many files without being duplicated code. Every token is kept as a
+ * hash of its text together with the line in which it starts and its place in the source, so
+ * that tokens with the same hash can still be told apart by their text.
+ */
+public abstract class JavaTokenizer {
+
+	//Operators of more than one character, longest first, so that the longest one is matched
+	private static final String[] OPERATORS = {">>>=", "<<=", ">>=", ">>>", "...", "->", "::", "++", "--", "&&", "||",
+			"==", "!=", "<=", ">=", "+=", "-=", "*=", "/=", "&=", "|=", "^=", "%=", "<<", ">>"};
+
+	/**
+	 * Splits the given source code into tokens.
+	 *
+	 * @param source the source code of a java file
+	 * @return the tokens of the source code
+	 */
+	public static Tokens tokenize(String source) {
+		Tokens tokens = new Tokens(source, Math.max(16, source.length() / 4));
+		int length = source.length();
+		int line = 1;
+		int position = 0;
+		boolean skipStatement = false;
+
+		while(position < length) {
+			char current = source.charAt(position);
+			char next = position + 1 < length ? source.charAt(position + 1) : '\0';
+
+			if(current == '\n' || (current == '\r' && next != '\n')) {
+				line++;
+				position++;
+				continue;
+			}
+			if(Character.isWhitespace(current)) {
+				position++;
+				continue;
+			}
+			if(current == '/' && next == '/') {
+				while(position < length && source.charAt(position) != '\n' && source.charAt(position) != '\r')
+					position++;
+				continue;
+			}
+			if(current == '/' && next == '*') {
+				int end = source.indexOf("*/", position + 2);
+				end = end == -1 ? length : end + 2;
+				line += countLines(source, position, end);
+				position = end;
+				continue;
+			}
+
+			int tokenStart = position;
+			int tokenLine = line;
+			if(current == '"' || current == '\'') {
+				position = skipLiteral(source, position);
+				line += countLines(source, tokenStart, position);
+			} else if(Character.isJavaIdentifierStart(current)) {
+				do {
+					position++;
+				} while(position < length && Character.isJavaIdentifierPart(source.charAt(position)));
+			} else if(Character.isDigit(current) || (current == '.' && Character.isDigit(next))) {
+				position = skipNumber(source, position);
+			} else {
+				position += getOperatorLength(source, position);
+			}
+
+			if(skipStatement) {
+				skipStatement = !(position - tokenStart == 1 && current == ';');
+				continue;
+			}
+			if(isKeyword(source, tokenStart, position, "package") || isKeyword(source, tokenStart, position, "import")) {
+				skipStatement = true;
+				continue;
+			}
+
+			tokens.add(hash(source, tokenStart, position), tokenLine, tokenStart, position);
+		}
+
+		return tokens;
+	}
+
+	private static int skipLiteral(String source, int position) {
+		char quote = source.charAt(position);
+		if(quote == '"' && source.startsWith("\"\"\"", position)) {
+			//A text block ends at the next unescaped """
+			int end = position + 3;
+			while(end < source.length() && !source.startsWith("\"\"\"", end))
+				end += source.charAt(end) == '\\' ? 2 : 1;
+			return Math.min(source.length(), end + 3);
+		}
+
+		int end = position + 1;
+		while(end < source.length()) {
+			char current = source.charAt(end);
+			if(current == '\\') {
+				end += 2;
+				continue;
+			}
+			end++;
+			//An unterminated literal ends at the end of its line
+			if(current == quote || current == '\n' || current == '\r')
+				break;
+		}
+
+		return Math.min(source.length(), end);
+	}
+
+	private static int skipNumber(String source, int position) {
+		boolean hexadecimal = source.startsWith("0x", position) || source.startsWith("0X", position);
+		//The exponent of a decimal number starts with e, and the one of a hexadecimal number with p
+		String exponentLetters = hexadecimal ? "pP" : "eE";
+
+		int end = position + 1;
+		while(end < source.length()) {
+			char current = source.charAt(end);
+			boolean exponentSign = (current == '+' || current == '-') && exponentLetters.indexOf(source.charAt(end - 1)) != -1;
+			if(!Character.isLetterOrDigit(current) && current != '_' && current != '.' && !exponentSign)
+				break;
+			end++;
+		}
+
+		return end;
+	}
+
+	private static int getOperatorLength(String source, int position) {
+		for(String operator : OPERATORS) {
+			if(source.startsWith(operator, position))
+				return operator.length();
+		}
+
+		return 1;
+	}
+
+	private static int countLines(String source, int start, int end) {
+		int lines = 0;
+		for(int i = start; i < end; i++) {
+			char current = source.charAt(i);
+			if(current == '\n' || (current == '\r' && (i + 1 >= source.length() || source.charAt(i + 1) != '\n')))
+				lines++;
+		}
+
+		return lines;
+	}
+
+	private static boolean isKeyword(String source, int start, int end, String keyword) {
+		return end - start == keyword.length() && source.startsWith(keyword, start);
+	}
+
+	private static int hash(String source, int start, int end) {
+		int hash = 0;
+		for(int i = start; i < end; i++) {
+			hash = 31 * hash + source.charAt(i);
+		}
+
+		//The bits are mixed, so that similar tokens do not get similar hashes
+		hash ^= hash >>> 16;
+		hash *= 0x85EBCA6B;
+		hash ^= hash >>> 13;
+		return hash;
+	}
+
+
+	/**
+	 * The tokens of a file, kept as parallel arrays of hashes, lines and the places of the tokens
+	 * in the source of the file.
+	 */
+	public static class Tokens {
+		private final String source;
+		private int[] hashes;
+		private int[] lines;
+		private int[] starts;
+		private int[] ends;
+		private int size;
+
+		Tokens(String source, int initialCapacity) {
+			this.source = source;
+			hashes = new int[initialCapacity];
+			lines = new int[initialCapacity];
+			starts = new int[initialCapacity];
+			ends = new int[initialCapacity];
+		}
+
+		private void add(int hash, int line, int start, int end) {
+			if(size == hashes.length) {
+				hashes = Arrays.copyOf(hashes, size * 2);
+				lines = Arrays.copyOf(lines, size * 2);
+				starts = Arrays.copyOf(starts, size * 2);
+				ends = Arrays.copyOf(ends, size * 2);
+			}
+
+			hashes[size] = hash;
+			lines[size] = line;
+			starts[size] = start;
+			ends[size++] = end;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public int getHash(int index) {
+			return hashes[index];
+		}
+
+		public int getLine(int index) {
+			return lines[index];
+		}
+
+		/**
+		 * Checks if the token at the given index is the same as the token at the given index of
+		 * the other list. The hashes are compared first, and the text only when they are equal.
+		 *
+		 * @param index the index of the token in this list
+		 * @param other the other token list
+		 * @param otherIndex the index of the token in the other list
+		 * @return true if the tokens have the same text; false otherwise
+		 */
+		public boolean sameToken(int index, Tokens other, int otherIndex) {
+			int length = ends[index] - starts[index];
+			return hashes[index] == other.hashes[otherIndex]
+					&& length == other.ends[otherIndex] - other.starts[otherIndex]
+					&& source.regionMatches(starts[index], other.source, other.starts[otherIndex], length);
+		}
+
+		/**
+		 * Checks if the given number of tokens, starting at the given indexes of the two token
+		 * lists, have the same text.
+		 *
+		 * @param start the index of the first token in this list
+		 * @param other the other token list
+		 * @param otherStart the index of the first token in the other list
+		 * @param count the number of tokens to compare
+		 * @return true if the tokens are the same; false otherwise
+		 */
+		public boolean matches(int start, Tokens other, int otherStart, int count) {
+			for(int i = 0; i < count; i++) {
+				if(!sameToken(start + i, other, otherStart + i))
+					return false;
+			}
+
+			return true;
+		}
+	}
+
+}
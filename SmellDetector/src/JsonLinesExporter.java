@@ -0,0 +1,32 @@
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes every smell as a JSON object of a line of its own (JSON Lines), so that a reader can
+ * parse every line as soon as it is written.
+ */
+public class JsonLinesExporter implements SmellStreamExporter {
+
+	private final Writer writer;
+
+	public JsonLinesExporter(Writer writer) {
+		this.writer = writer;
+	}
+
+	@Override
+	public void writeSmell(Smell smell) throws IOException {
+		writer.write(SmellExporter.toJsonLine(smell));
+		writer.write('\n');
+	}
+
+	@Override
+	public void flush() throws IOException {
+		writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.close();
+	}
+
+}
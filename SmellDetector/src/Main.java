@@ -1,8 +1,11 @@
 import javax.swing.*;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
 
 public class Main {
 
@@ -51,9 +54,11 @@ public class Main {
         // Panel for options
         JPanel optionsPanel = new JPanel(new FlowLayout());
         JButton selectSmellButton = new JButton("Select Smell Detector");
+        JButton openResultsButton = new JButton("Open Results");
         JButton exitButton = new JButton("Exit");
 
         optionsPanel.add(selectSmellButton);
+        optionsPanel.add(openResultsButton);
         optionsPanel.add(exitButton);
 
         // Add panels to the main frame
@@ -165,6 +170,25 @@ public class Main {
                     smellPanel.add(smellButtons[i]);
                 }
 
+                JCheckBox concurrentCheckBox = new JCheckBox("Run detectors concurrently");
+                smellPanel.add(concurrentCheckBox);
+                JCheckBox embeddedCheckBox = new JCheckBox("Run tools inside the application");
+                smellPanel.add(embeddedCheckBox);
+                JCheckBox incrementalCheckBox = new JCheckBox("Only re-analyse changed files");
+                smellPanel.add(incrementalCheckBox);
+                JCheckBox resultCacheCheckBox = new JCheckBox("Reuse cached results of unchanged files", true);
+                smellPanel.add(resultCacheCheckBox);
+                JCheckBox nativeCloneCheckBox = new JCheckBox("Find duplicates inside the application");
+                smellPanel.add(nativeCloneCheckBox);
+                JCheckBox parallelOrganicCheckBox = new JCheckBox("Run Organic on all cores");
+                smellPanel.add(parallelOrganicCheckBox);
+                JCheckBox metricRulesCheckBox = new JCheckBox("Also apply the built-in metric rules");
+                smellPanel.add(metricRulesCheckBox);
+                JCheckBox quickScanCheckBox = new JCheckBox("Quick scan for size-based smells first");
+                smellPanel.add(quickScanCheckBox);
+                JCheckBox watchCheckBox = new JCheckBox("Keep watching the project for changes");
+                smellPanel.add(watchCheckBox);
+
                 JScrollPane scrollPane = new JScrollPane(smellPanel);
                 smellFrame.add(scrollPane, BorderLayout.CENTER);
 
@@ -186,28 +210,52 @@ public class Main {
                         for (int i = 0; i < smellButtons.length; i++) {
                             if (smellButtons[i].isSelected()) {
                                 SmellType selectedSmellType = filteredSmells[i];
-                                SmellDetectionManager smellDetectionManager = new SmellDetectionManager(selectedSmellType, projectDirectory);
-                                // Add logic to use smellDetectionManager
-
+                                DetectionOptions detectionOptions = new DetectionOptions.Builder()
+                                        .setConcurrent(concurrentCheckBox.isSelected())
+                                        .setToolExecutionMode(embeddedCheckBox.isSelected()
+                                                ? ToolExecutionMode.EMBEDDED : ToolExecutionMode.EXTERNAL_PROCESS)
+                                        // Watching re-runs the detection on every save, which is only fast when incremental
+                                        .setIncremental(incrementalCheckBox.isSelected() || watchCheckBox.isSelected())
+                                        .setResultCacheEnabled(resultCacheCheckBox.isSelected())
+                                        .setNativeCloneDetection(nativeCloneCheckBox.isSelected())
+                                        .setOrganicParallelism(parallelOrganicCheckBox.isSelected()
+                                                ? Runtime.getRuntime().availableProcessors() : 1)
+                                        .setMetricRulesEnabled(metricRulesCheckBox.isSelected())
+                                        .setQuickScanEnabled(quickScanCheckBox.isSelected())
+                                        .build();
                                 JOptionPane.showMessageDialog(smellFrame, "Selected Smell Detector: " + selectedSmellType.getName());
                                 smellFrame.dispose();
-                                
-                                if (smellDetectionManager.getDetectedSmells() == null) {
-                                	 JOptionPane.showMessageDialog(frame, "No smells detected.");
-                                }else {
-                                	// Create and show the SmellResultsFrame to display the detected smells
-                                    SmellResultsFrame resultsFrame = new SmellResultsFrame(smellDetectionManager.getDetectedSmells());
-                                	
-                                	// Export detected smells to the chosen CSV file
-                                    try {
-                                        // Export detected smells to the chosen CSV file
-                                        SmellExporter.exportSmellsToCSV(smellDetectionManager.getDetectedSmells(), fullExportPath);
-                                        JOptionPane.showMessageDialog(frame, "CSV files have been successfully created in the export directory.");
-                                    } catch (Exception ex) {
-                                        JOptionPane.showMessageDialog(frame, "Error creating CSV files: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+
+                                // The detection runs in the background, and the smells of every detector are shown as soon as it ends
+                                SmellResultsFrame resultsFrame = new SmellResultsFrame(new SmellStore());
+                                DetectionWorker detectionWorker = new DetectionWorker(selectedSmellType, projectDirectory, detectionOptions,
+                                        resultsFrame, detectedSmells -> {
+                                    if (watchCheckBox.isSelected()) {
+                                        watchProject(selectedSmellType, projectDirectory, detectionOptions, detectedSmells, resultsFrame);
                                     }
-                                    break;
-                                }
+
+                                    // The export writes every smell, so it runs in the background as well
+                                    new SwingWorker<Void, Void>() {
+                                        @Override
+                                        protected Void doInBackground() throws Exception {
+                                            // Export detected smells to the chosen CSV file
+                                            SmellExporter.exportSmellsToCSV(detectedSmells, fullExportPath);
+                                            return null;
+                                        }
+
+                                        @Override
+                                        protected void done() {
+                                            try {
+                                                get();
+                                                JOptionPane.showMessageDialog(frame, "CSV files have been successfully created in the export directory.");
+                                            } catch (InterruptedException | ExecutionException ex) {
+                                                JOptionPane.showMessageDialog(frame, "Error creating CSV files: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                                            }
+                                        }
+                                    }.execute();
+                                });
+                                detectionWorker.execute();
+                                break;
                             }
                         }
                     }
@@ -220,6 +268,26 @@ public class Main {
             }
         });
 
+        // Action listener for opening saved results, which does not run any detector
+        openResultsButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                JFileChooser fileChooser = new JFileChooser();
+                fileChooser.setFileFilter(new FileNameExtensionFilter("Smell results", SmellResultFile.FILE_EXTENSION.substring(1)));
+                if (fileChooser.showOpenDialog(frame) == JFileChooser.APPROVE_OPTION) {
+                    File selectedFile = fileChooser.getSelectedFile();
+                    try {
+                        // Only the header and the names are read here, the smells are decoded by the table
+                        SmellResultFile resultFile = SmellResultFile.open(selectedFile);
+                        SmellResultsFrame resultsFrame = new SmellResultsFrame(resultFile);
+                        resultsFrame.setStatus(selectedFile.getName());
+                    } catch (IOException ex) {
+                        JOptionPane.showMessageDialog(frame, "Error opening the results: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                    }
+                }
+            }
+        });
+
         // Action listener for the exit button
         exitButton.addActionListener(new ActionListener() {
             @Override
@@ -231,4 +299,24 @@ public class Main {
         // Show the main frame
         frame.setVisible(true);
     }
-}
\ No newline at end of file
+
+    /**
+     * Keeps the given results up to date with the project until their window is closed.
+     * @param smellType The smell type that was detected.
+     * @param projectDirectory The directory of the project.
+     * @param detectionOptions The options of the detection, which should be incremental.
+     * @param detectedSmells The smells that are shown.
+     * @param resultsFrame The window of the results.
+     */
+    private static void watchProject(SmellType smellType, String projectDirectory, DetectionOptions detectionOptions,
+            SmellStore detectedSmells, SmellResultsFrame resultsFrame) {
+        try {
+            ProjectWatcher projectWatcher = new ProjectWatcher(smellType, projectDirectory, detectionOptions, detectedSmells,
+                    changes -> SwingUtilities.invokeLater(() -> resultsFrame.applyChanges(changes)));
+            resultsFrame.addCloseAction(projectWatcher::stop);
+            projectWatcher.start();
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(frame, "The project cannot be watched: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A detector that finds metric-based smells with rules of its own instead of calling a tool.
+ * Every file is parsed once into the {@code ProjectMetrics} table, and the rules only look at
+ * the table, which also records the type names that each file uses, for the lazy classes. The
+ * parse is the detector's own, since Organic parses the project inside its library, so the
+ * rules add to the time of a run that also runs Organic. The thresholds are
+ * the ones of the detection strategies of Lanza and Marinescu in "Object-Oriented Metrics in
+ * Practice", where such a strategy exists.
+ */
+public class MetricRuleSmellDetector extends SmellDetector {
+
+	//The thresholds of the detection strategies
+	private static final int FEW = 5;
+	private static final int MANY = 7;
+	private static final int WMC_HIGH = 31;
+	private static final int WMC_VERY_HIGH = 47;
+	private static final double ONE_THIRD = 1.0 / 3;
+	private static final int LONG_METHOD_LINES = 30;
+	private static final int BRAIN_METHOD_LINES = 65;
+	private static final int CYCLO_HIGH = 4;
+	private static final int NESTING_DEEP = 3;
+	private static final int LONG_PARAMETER_LIST_SIZE = 5;
+
+	private String projectDirectory;
+	private SmellStore detectedSmells;
+
+	public MetricRuleSmellDetector(String projectDirectory) {
+		this.projectDirectory = projectDirectory;
+		this.detectedSmells = new SmellStore();
+	}
+
+	private static final Set<SmellType> SUPPORTED_SMELL_TYPES = Collections.unmodifiableSet(
+			new HashSet<SmellType>(Arrays.asList(SmellType.GOD_CLASS,
+												 SmellType.DATA_CLASS,
+												 SmellType.COMPLEX_CLASS,
+												 SmellType.LAZY_CLASS,
+												 SmellType.LONG_METHOD,
+												 SmellType.LONG_PARAMETER_LIST,
+												 SmellType.BRAIN_METHOD)));
+
+	@Override
+	public Set<SmellType> getSupportedSmellTypes() {
+		return SUPPORTED_SMELL_TYPES;
+	}
+
+	@Override
+	public String getDetectorName() {
+		return "MetricRules";
+	}
+
+	/**
+	 * Lazy classes depend on which types the other files name, so the rules always measure the
+	 * whole project, and a restricted run only filters the smells that they report.
+	 */
+	@Override
+	public boolean analysesWholeProject() {
+		return true;
+	}
+
+	@Override
+	public void findSmells(SmellType smellType, SmellStore detectedSmells) throws Exception {
+		ProjectMetrics projectMetrics = ProjectMetrics.collect(collectJavaFiles(), getSourceIndexes());
+
+		for(ProjectMetrics.TypeMetrics typeMetrics : projectMetrics.getTypeMetrics()) {
+			if(!typeMetrics.isInterface() && isInAnalysisScope(typeMetrics.getSourceFile()))
+				detectClassSmells(typeMetrics, detectedSmells);
+		}
+		for(ProjectMetrics.MethodMetrics methodMetrics : projectMetrics.getMethodMetrics()) {
+			if(isInAnalysisScope(methodMetrics.getSourceFile()))
+				detectMethodSmells(methodMetrics, detectedSmells);
+		}
+
+		this.detectedSmells = detectedSmells;
+	}
+
+	private List<File> collectJavaFiles() throws IOException {
+		try(Stream<Path> paths = Files.walk(Path.of(projectDirectory))) {
+			return paths.filter(path -> path.toString().endsWith(".java") && Files.isRegularFile(path))
+						.sorted()
+						.map(Path::toFile)
+						.collect(Collectors.toList());
+		}
+	}
+
+	private void detectClassSmells(ProjectMetrics.TypeMetrics typeMetrics, SmellStore detectedSmells) throws Exception {
+		int weightedMethodCount = typeMetrics.getWeightedMethodCount();
+		int publicData = typeMetrics.getNumberOfPublicAttributes() + typeMetrics.getNumberOfAccessorMethods();
+
+		if(typeMetrics.getAccessToForeignData() > FEW && weightedMethodCount >= WMC_VERY_HIGH
+				&& typeMetrics.getTightClassCohesion() < ONE_THIRD)
+			addClassSmell(SmellType.GOD_CLASS, typeMetrics, detectedSmells);
+
+		if(typeMetrics.getWeightOfClass() < ONE_THIRD
+				&& ((publicData > FEW && weightedMethodCount < WMC_HIGH) || (publicData > MANY && weightedMethodCount < WMC_VERY_HIGH)))
+			addClassSmell(SmellType.DATA_CLASS, typeMetrics, detectedSmells);
+
+		if(weightedMethodCount >= WMC_VERY_HIGH)
+			addClassSmell(SmellType.COMPLEX_CLASS, typeMetrics, detectedSmells);
+
+		//Abstract classes are allowed to be small, since their subclasses add the rest, and so are
+		//exceptions, which mostly only carry their type. A type that no other file uses is dead
+		//code rather than a class that does too little for the others
+		if(!typeMetrics.isAbstract() && !typeMetrics.isThrowable() && typeMetrics.getNumberOfMethods() < 3
+				&& typeMetrics.getNumberOfAttributes() < 3 && weightedMethodCount < 3
+				&& typeMetrics.isReferencedElsewhere())
+			addClassSmell(SmellType.LAZY_CLASS, typeMetrics, detectedSmells);
+	}
+
+	private void detectMethodSmells(ProjectMetrics.MethodMetrics methodMetrics, SmellStore detectedSmells) throws Exception {
+		if(methodMetrics.getLinesOfCode() > LONG_METHOD_LINES)
+			addMethodSmell(SmellType.LONG_METHOD, methodMetrics, detectedSmells);
+
+		if(methodMetrics.getNumberOfParameters() >= LONG_PARAMETER_LIST_SIZE)
+			addMethodSmell(SmellType.LONG_PARAMETER_LIST, methodMetrics, detectedSmells);
+
+		//The strategy also asks for many accessed variables, which cannot be told apart without bindings
+		if(methodMetrics.getLinesOfCode() > BRAIN_METHOD_LINES && methodMetrics.getCyclomaticComplexity() >= CYCLO_HIGH
+				&& methodMetrics.getMaxNesting() >= NESTING_DEEP)
+			addMethodSmell(SmellType.BRAIN_METHOD, methodMetrics, detectedSmells);
+	}
+
+	private void addClassSmell(SmellType smellType, ProjectMetrics.TypeMetrics typeMetrics, SmellStore detectedSmells) throws Exception {
+		detectedSmells.add(getDetectorName(),
+				Utils.createSmellObject(smellType, typeMetrics.getClassName(), typeMetrics.getSourceFile(), typeMetrics.getStartLine()));
+	}
+
+	private void addMethodSmell(SmellType smellType, ProjectMetrics.MethodMetrics methodMetrics, SmellStore detectedSmells) throws Exception {
+		detectedSmells.add(getDetectorName(),
+				Utils.createSmellObject(smellType, methodMetrics.getClassName(), methodMetrics.getMethodName(),
+						methodMetrics.getSourceFile(), methodMetrics.getStartLine()));
+	}
+
+	@Override
+	public SmellStore getDetectedSmells() {
+		return this.detectedSmells;
+	}
+
+}
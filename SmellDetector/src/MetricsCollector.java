@@ -0,0 +1,371 @@
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.Block;
+import org.eclipse.jdt.core.dom.CatchClause;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.ConditionalExpression;
+import org.eclipse.jdt.core.dom.DoStatement;
+import org.eclipse.jdt.core.dom.EnhancedForStatement;
+import org.eclipse.jdt.core.dom.FieldAccess;
+import org.eclipse.jdt.core.dom.FieldDeclaration;
+import org.eclipse.jdt.core.dom.ForStatement;
+import org.eclipse.jdt.core.dom.IfStatement;
+import org.eclipse.jdt.core.dom.InfixExpression;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.MethodInvocation;
+import org.eclipse.jdt.core.dom.Modifier;
+import org.eclipse.jdt.core.dom.QualifiedName;
+import org.eclipse.jdt.core.dom.SimpleName;
+import org.eclipse.jdt.core.dom.SingleVariableDeclaration;
+import org.eclipse.jdt.core.dom.SwitchCase;
+import org.eclipse.jdt.core.dom.ThisExpression;
+import org.eclipse.jdt.core.dom.TypeDeclaration;
+import org.eclipse.jdt.core.dom.VariableDeclarationFragment;
+import org.eclipse.jdt.core.dom.WhileStatement;
+
+/**
+ * Collects the {@code ProjectMetrics} of the types and methods of a single compilation unit
+ * in one walk over its syntax tree.
+ */
+class MetricsCollector extends ASTVisitor {
+
+	private static final Pattern ACCESSOR_NAME = Pattern.compile("(get|set|is)[A-Z].*");
+	//The superclass of an exception or an error, possibly qualified or with type arguments
+	private static final Pattern THROWABLE_NAME = Pattern.compile("([\\w$]+\\.)*(Throwable|[\\w$]*(Exception|Error))(<.*>)?");
+
+	private final File sourceFile;
+	private final CompilationUnit compilationUnit;
+	private final List<ProjectMetrics.TypeMetrics> typeMetrics = new ArrayList<>();
+	private final List<ProjectMetrics.MethodMetrics> methodMetrics = new ArrayList<>();
+	private final Set<String> referencedTypeNames = new HashSet<>();
+
+	private final Deque<TypeState> typeStates = new ArrayDeque<>();
+	private MethodState methodState;
+
+	MetricsCollector(File sourceFile, CompilationUnit compilationUnit) {
+		this.sourceFile = sourceFile;
+		this.compilationUnit = compilationUnit;
+	}
+
+	List<ProjectMetrics.TypeMetrics> getTypeMetrics() {
+		return typeMetrics;
+	}
+
+	List<ProjectMetrics.MethodMetrics> getMethodMetrics() {
+		return methodMetrics;
+	}
+
+	File getSourceFile() {
+		return sourceFile;
+	}
+
+	/**
+	 * Returns the names in the file that may name a type, i.e. the ones that start with an
+	 * upper case letter, apart from the names of the declarations of the file.
+	 */
+	Set<String> getReferencedTypeNames() {
+		return referencedTypeNames;
+	}
+
+	@Override
+	public boolean visit(TypeDeclaration node) {
+		TypeState typeState = new TypeState(node, methodState);
+		for(FieldDeclaration field : node.getFields()) {
+			boolean publicData = Modifier.isPublic(field.getModifiers()) && !Modifier.isStatic(field.getModifiers());
+			for(Object fragment : field.fragments()) {
+				typeState.fieldNames.add(((VariableDeclarationFragment) fragment).getName().getIdentifier());
+				typeState.metrics.numberOfAttributes++;
+				if(publicData)
+					typeState.metrics.numberOfPublicAttributes++;
+			}
+		}
+
+		typeStates.push(typeState);
+		methodState = null;
+		return true;
+	}
+
+	@Override
+	public void endVisit(TypeDeclaration node) {
+		TypeState typeState = typeStates.pop();
+		methodState = typeState.enclosingMethod;
+
+		ProjectMetrics.TypeMetrics metrics = typeState.metrics;
+		metrics.numberOfMethods = typeState.methods.size();
+
+		Set<String> foreignData = new HashSet<>();
+		List<MethodState> publicMethods = new ArrayList<>();
+		int functionalMethods = 0;
+		for(MethodState method : typeState.methods) {
+			metrics.weightedMethodCount += method.metrics.cyclomaticComplexity;
+			foreignData.addAll(method.foreignData);
+			if(method.isAccessor)
+				metrics.numberOfAccessorMethods++;
+
+			if(method.isPublic && !method.isConstructor) {
+				publicMethods.add(method);
+				if(!method.isAccessor && !method.isAbstract)
+					functionalMethods++;
+			}
+		}
+		metrics.accessToForeignData = foreignData.size();
+		metrics.tightClassCohesion = computeTightClassCohesion(publicMethods);
+
+		int publicMembers = publicMethods.size() + metrics.numberOfPublicAttributes;
+		metrics.weightOfClass = publicMembers == 0 ? 1 : (double) functionalMethods / publicMembers;
+
+		typeMetrics.add(metrics);
+	}
+
+	private static double computeTightClassCohesion(List<MethodState> methods) {
+		if(methods.size() < 2)
+			return 1;
+
+		int connectedPairs = 0;
+		for(int i = 0; i < methods.size(); i++) {
+			for(int j = i + 1; j < methods.size(); j++) {
+				if(!Collections.disjoint(methods.get(i).usedFields, methods.get(j).usedFields))
+					connectedPairs++;
+			}
+		}
+
+		int pairs = methods.size() * (methods.size() - 1) / 2;
+		return (double) connectedPairs / pairs;
+	}
+
+	@Override
+	public boolean visit(MethodDeclaration node) {
+		//Methods of anonymous classes are part of the method that declares the class, and
+		//methods of enums and records are not measured
+		TypeState typeState = typeStates.peek();
+		if(typeState == null || node.getParent() != typeState.declaration)
+			return true;
+
+		methodState = new MethodState(node, typeState);
+		typeState.methods.add(methodState);
+		return true;
+	}
+
+	@Override
+	public void endVisit(MethodDeclaration node) {
+		if(methodState == null || methodState.declaration != node)
+			return;
+
+		methodState.metrics.linesOfCode = getLine(node.getStartPosition() + node.getLength()) - methodState.metrics.startLine + 1;
+		methodState.metrics.accessToForeignData = methodState.foreignData.size();
+		methodMetrics.add(methodState.metrics);
+		methodState = null;
+	}
+
+	@Override
+	public boolean visit(IfStatement node) {
+		addDecision(1);
+		return true;
+	}
+
+	@Override
+	public boolean visit(ForStatement node) {
+		addDecision(1);
+		return true;
+	}
+
+	@Override
+	public boolean visit(EnhancedForStatement node) {
+		addDecision(1);
+		return true;
+	}
+
+	@Override
+	public boolean visit(WhileStatement node) {
+		addDecision(1);
+		return true;
+	}
+
+	@Override
+	public boolean visit(DoStatement node) {
+		addDecision(1);
+		return true;
+	}
+
+	@Override
+	public boolean visit(SwitchCase node) {
+		if(!node.isDefault())
+			addDecision(1);
+		return true;
+	}
+
+	@Override
+	public boolean visit(CatchClause node) {
+		addDecision(1);
+		return true;
+	}
+
+	@Override
+	public boolean visit(ConditionalExpression node) {
+		addDecision(1);
+		return true;
+	}
+
+	@Override
+	public boolean visit(InfixExpression node) {
+		if(node.getOperator() == InfixExpression.Operator.CONDITIONAL_AND || node.getOperator() == InfixExpression.Operator.CONDITIONAL_OR)
+			addDecision(1 + node.extendedOperands().size());
+		return true;
+	}
+
+	private void addDecision(int decisions) {
+		if(methodState != null)
+			methodState.metrics.cyclomaticComplexity += decisions;
+	}
+
+	@Override
+	public boolean visit(Block node) {
+		if(methodState != null) {
+			methodState.nesting++;
+			//The body of the method itself is not counted as nesting
+			methodState.metrics.maxNesting = Math.max(methodState.metrics.maxNesting, methodState.nesting - 1);
+		}
+		return true;
+	}
+
+	@Override
+	public void endVisit(Block node) {
+		if(methodState != null)
+			methodState.nesting--;
+	}
+
+	@Override
+	public boolean visit(VariableDeclarationFragment node) {
+		if(methodState != null)
+			methodState.localNames.add(node.getName().getIdentifier());
+		return true;
+	}
+
+	@Override
+	public boolean visit(SingleVariableDeclaration node) {
+		if(methodState != null)
+			methodState.localNames.add(node.getName().getIdentifier());
+		return true;
+	}
+
+	@Override
+	public boolean visit(FieldAccess node) {
+		if(methodState == null)
+			return true;
+
+		if(node.getExpression() instanceof ThisExpression)
+			methodState.usedFields.add(node.getName().getIdentifier());
+		else
+			methodState.foreignData.add(node.getExpression() + "." + node.getName().getIdentifier());
+		return true;
+	}
+
+	@Override
+	public boolean visit(QualifiedName node) {
+		if(methodState == null)
+			return true;
+
+		//Without bindings, only qualifiers that look like variables are taken to be other objects,
+		//so that types and packages (e.g. Math.PI) are not counted
+		String qualifier = node.getQualifier().getFullyQualifiedName();
+		if(qualifier.indexOf('.') == -1 && Character.isLowerCase(qualifier.charAt(0)))
+			methodState.foreignData.add(node.getFullyQualifiedName());
+		return true;
+	}
+
+	@Override
+	public boolean visit(MethodInvocation node) {
+		if(methodState != null && node.getExpression() != null && !(node.getExpression() instanceof ThisExpression)
+				&& ACCESSOR_NAME.matcher(node.getName().getIdentifier()).matches())
+			methodState.foreignData.add(node.getExpression() + "." + node.getName().getIdentifier());
+		return true;
+	}
+
+	@Override
+	public boolean visit(SimpleName node) {
+		ASTNode parent = node.getParent();
+		boolean declaredName = (parent instanceof TypeDeclaration && ((TypeDeclaration) parent).getName() == node)
+				|| (parent instanceof MethodDeclaration && ((MethodDeclaration) parent).getName() == node);
+		if(!declaredName && Character.isUpperCase(node.getIdentifier().charAt(0)))
+			referencedTypeNames.add(node.getIdentifier());
+
+		if(methodState == null || !typeStates.peek().fieldNames.contains(node.getIdentifier())
+				|| methodState.localNames.contains(node.getIdentifier()))
+			return true;
+
+		//Names of methods, and names of attributes of other objects, are not attributes of the class
+		if(parent instanceof MethodInvocation && ((MethodInvocation) parent).getName() == node)
+			return true;
+		if(parent instanceof QualifiedName || parent instanceof FieldAccess)
+			return true;
+
+		methodState.usedFields.add(node.getIdentifier());
+		return true;
+	}
+
+	private int getLine(int position) {
+		return compilationUnit.getLineNumber(position);
+	}
+
+
+	private class TypeState {
+		private final TypeDeclaration declaration;
+		private final ProjectMetrics.TypeMetrics metrics = new ProjectMetrics.TypeMetrics();
+		private final Set<String> fieldNames = new HashSet<>();
+		private final List<MethodState> methods = new ArrayList<>();
+		private final MethodState enclosingMethod;
+
+		TypeState(TypeDeclaration declaration, MethodState enclosingMethod) {
+			this.declaration = declaration;
+			this.enclosingMethod = enclosingMethod;
+			metrics.sourceFile = sourceFile;
+			metrics.className = declaration.getName().getIdentifier();
+			metrics.startLine = getLine(declaration.getName().getStartPosition());
+			metrics.linesOfCode = getLine(declaration.getStartPosition() + declaration.getLength()) - metrics.startLine + 1;
+			metrics.isInterface = declaration.isInterface();
+			metrics.isAbstract = Modifier.isAbstract(declaration.getModifiers());
+			metrics.isThrowable = declaration.getSuperclassType() != null
+					&& THROWABLE_NAME.matcher(declaration.getSuperclassType().toString()).matches();
+		}
+	}
+
+	private class MethodState {
+		private final MethodDeclaration declaration;
+		private final ProjectMetrics.MethodMetrics metrics = new ProjectMetrics.MethodMetrics();
+		private final Set<String> localNames = new HashSet<>();
+		private final Set<String> usedFields = new HashSet<>();
+		private final Set<String> foreignData = new HashSet<>();
+		private final boolean isPublic;
+		private final boolean isAbstract;
+		private final boolean isConstructor;
+		private final boolean isAccessor;
+		private int nesting;
+
+		MethodState(MethodDeclaration declaration, TypeState typeState) {
+			this.declaration = declaration;
+			this.isPublic = Modifier.isPublic(declaration.getModifiers()) || typeState.metrics.isInterface;
+			this.isAbstract = declaration.getBody() == null;
+			this.isConstructor = declaration.isConstructor();
+			this.isAccessor = !isConstructor && !isAbstract && declaration.getBody().statements().size() <= 1
+					&& ACCESSOR_NAME.matcher(declaration.getName().getIdentifier()).matches();
+
+			metrics.sourceFile = sourceFile;
+			metrics.className = typeState.metrics.className;
+			metrics.methodName = declaration.getName().getIdentifier();
+			metrics.startLine = getLine(declaration.getName().getStartPosition());
+			metrics.numberOfParameters = declaration.parameters().size();
+			metrics.cyclomaticComplexity = 1;
+		}
+	}
+
+}
@@ -5,9 +5,14 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import br.pucrio.opus.smells.Organic;
 import br.pucrio.opus.smells.collector.SmellName;
@@ -16,12 +21,16 @@ import br.pucrio.opus.smells.resources.Type;
 
 public class OrganicSmellDetector extends SmellDetector {
 
+	//Types of the same file are kept in the same batch, and every thread gets a few batches so that uneven files even out
+	private static final int BATCHES_PER_THREAD = 4;
+
 	private String projectDirectory;
-	private Map<SmellType, Set<Smell>> detectedSmells;
+	private int parallelism = 1;
+	private SmellStore detectedSmells;
 
 	public OrganicSmellDetector(String projectDirectory) {
 	    this.projectDirectory = projectDirectory;
-	    this.detectedSmells = new HashMap<>();
+	    this.detectedSmells = new SmellStore();
 	}
 	
 	private static final Set<SmellType> SUPPORTED_SMELL_TYPES = Collections.unmodifiableSet(
@@ -42,6 +51,16 @@ public class OrganicSmellDetector extends SmellDetector {
 												 SmellType.SHOTGUN_SURGERY,
 												 SmellType.BRAIN_METHOD,
 												 SmellType.DATA_CLASS)));
+	/**
+	 * Sets the number of threads on which the metrics and the smells of the types are computed.
+	 * With a single thread, Organic analyses the whole project as one batch.
+	 * 
+	 * @param parallelism the number of threads
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+	
 	@Override
 	public Set<SmellType> getSupportedSmellTypes() {
 		return SUPPORTED_SMELL_TYPES;
@@ -52,6 +71,13 @@ public class OrganicSmellDetector extends SmellDetector {
 		return "Organic";
 	}
 	
+	//The metrics of a type depend on the other types, so all of them are always loaded. For the
+	//same reason the smells of a file cannot be cached by its content, so there is no configuration id
+	@Override
+	public boolean analysesWholeProject() {
+		return true;
+	}
+	
 	private static final Map<SmellName, SmellType> MAP_FROM_SMELLNAME_TO_SMELLTYPE;
 	static {
 		MAP_FROM_SMELLNAME_TO_SMELLTYPE = new HashMap<>(17);
@@ -76,13 +102,96 @@ public class OrganicSmellDetector extends SmellDetector {
 
 	@Override
 	// Method to find smells in the specified Java project
-	public void findSmells(SmellType smellType, Map<SmellType, Set<Smell>> detectedSmells) throws Exception {
+	public void findSmells(SmellType smellType, SmellStore detectedSmells) throws Exception {
 
 	    List<String> sourcePath = new ArrayList<>();
 	    sourcePath.add(projectDirectory);
 	    Organic organicPlugin = new Organic();
 
+	    //The types are always loaded together, since the bindings between them and the project-wide data
+	    //that the coupling smells (e.g. ShotgunSurgery, DispersedCoupling) are based on need all of them
 	    List<Type> classTypeDeclarations = organicPlugin.loadAllTypes(sourcePath);
+
+	    if (parallelism == 1) {
+	        detectedSmells.addAll(analyseTypes(smellType, classTypeDeclarations));
+	    } else {
+	        for (SmellStore batchSmells : analyseTypesInParallel(smellType, classTypeDeclarations)) {
+	            detectedSmells.addAll(batchSmells);
+	        }
+	    }
+
+	    this.detectedSmells = detectedSmells;
+	}
+	
+	/**
+	 * A method that computes the metrics and the smells of the given types on a
+	 * {@code ForkJoinPool}. The types are split into batches of whole source files, and the
+	 * smells of every batch are kept in their own {@code SmellStore}, which are returned in
+	 * the order of the batches, so that the results do not depend on which batch ends first.
+	 * 
+	 * @param smellType the smell type of the run
+	 * @param classTypeDeclarations all the types of the project
+	 * @return the smells of every batch
+	 * @throws Exception
+	 */
+	private List<SmellStore> analyseTypesInParallel(SmellType smellType, List<Type> classTypeDeclarations) throws Exception {
+	    List<Callable<SmellStore>> batchTasks = new ArrayList<>();
+	    for (List<Type> batch : createBatches(classTypeDeclarations, parallelism * BATCHES_PER_THREAD)) {
+	        batchTasks.add(() -> analyseTypes(smellType, batch));
+	    }
+
+	    ForkJoinPool pool = new ForkJoinPool(parallelism);
+	    try {
+	        List<SmellStore> batchSmells = new ArrayList<>(batchTasks.size());
+	        for (Future<SmellStore> batchResult : pool.invokeAll(batchTasks)) {
+	            batchSmells.add(batchResult.get());
+	        }
+	        return batchSmells;
+	    } catch (ExecutionException e) {
+	        throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+	    } finally {
+	        pool.shutdownNow();
+	    }
+	}
+	
+	private static List<List<Type>> createBatches(List<Type> classTypeDeclarations, int batchCount) {
+	    //The types of every source file, in the order in which they were loaded
+	    Map<File, List<Type>> typesPerFile = new LinkedHashMap<>();
+	    for (Type classTypeDeclaration : classTypeDeclarations) {
+	        typesPerFile.computeIfAbsent(classTypeDeclaration.getSourceFile().getFile(), file -> new ArrayList<>())
+	                    .add(classTypeDeclaration);
+	    }
+
+	    int typesPerBatch = Math.max(1, (classTypeDeclarations.size() + batchCount - 1) / batchCount);
+	    List<List<Type>> batches = new ArrayList<>();
+	    List<Type> batch = new ArrayList<>();
+	    for (List<Type> fileTypes : typesPerFile.values()) {
+	        batch.addAll(fileTypes);
+	        if (batch.size() >= typesPerBatch) {
+	            batches.add(batch);
+	            batch = new ArrayList<>();
+	        }
+	    }
+	    if (!batch.isEmpty())
+	        batches.add(batch);
+
+	    return batches;
+	}
+	
+	/**
+	 * A method that computes the metrics and the smells of the given types and extracts the
+	 * smells of the ones that are smelly. Every call uses its own {@code Organic} instance, so
+	 * batches of types can be analysed at the same time.
+	 * 
+	 * @param smellType the smell type of the run
+	 * @param classTypeDeclarations the types to be analysed
+	 * @return the smells of the types
+	 * @throws Exception
+	 */
+	private SmellStore analyseTypes(SmellType smellType, List<Type> classTypeDeclarations) throws Exception {
+	    SmellStore typeSmells = new SmellStore();
+	    Organic organicPlugin = new Organic();
+
 	    organicPlugin.collectTypeMetrics(classTypeDeclarations);
 	    organicPlugin.detectSmells(classTypeDeclarations);
 	    classTypeDeclarations = organicPlugin.onlySmelly(classTypeDeclarations);
@@ -100,28 +209,35 @@ public class OrganicSmellDetector extends SmellDetector {
 	        File targetFile = new File(FilePath);
 
 	        // Extract smells using the file path
-	        extractSmells(smellType, detectedSmells, classTypeDeclaration.getSmells(), className, targetFile);
+	        extractSmells(smellType, typeSmells, classTypeDeclaration.getSmells(), className, targetFile);
 
 	        for (Method methodTypeDeclaration : classTypeDeclaration.getMethods()) {
-	            extractSmells(smellType, detectedSmells, methodTypeDeclaration.getSmells(), className, targetFile);
+	            extractSmells(smellType, typeSmells, methodTypeDeclaration.getSmells(), className, targetFile);
 	        }
 	    }
+
+	    return typeSmells;
 	}
 
 	
-	private void extractSmells(SmellType smellType, Map<SmellType, Set<Smell>> detectedSmells, 
+	private void extractSmells(SmellType smellType, SmellStore detectedSmells, 
 			   List<br.pucrio.opus.smells.collector.Smell> toolSmells,String className, File targetFile) throws Exception {
 		for(br.pucrio.opus.smells.collector.Smell smell: toolSmells) {
 			SmellType detectedSmellType = MAP_FROM_SMELLNAME_TO_SMELLTYPE.get(smell.getName());
+			
+			//Organic always analyses the whole project, since it needs all the types to resolve the
+			//bindings, but only the smells that are part of the current run are extracted
+			if(Utils.isCrossFileSmell(detectedSmellType) ? !isCrossFileAnalysisEnabled() : !isInAnalysisScope(targetFile))
+				continue;
 
 			int startingLine = smell.getStartingLine();
 
 			if(Utils.isClassSmell(detectedSmellType)) {
-				Utils.addSmell(detectedSmellType, detectedSmells, getDetectorName(),
+				detectedSmells.add(getDetectorName(),
 						Utils.createSmellObject(detectedSmellType, className, targetFile, startingLine));
 			} else {
-				String methodName = (String) Utils.extractMethodNameAndCorrectLineFromFile(targetFile, startingLine)[0];
-				Utils.addSmell(detectedSmellType, detectedSmells, getDetectorName(),
+				String methodName = (String) getSourceIndex(targetFile).findMethodDeclaration(startingLine)[0];
+				detectedSmells.add(getDetectorName(),
 						Utils.createSmellObject(detectedSmellType, className, methodName, targetFile, startingLine));
 			}
 		}
@@ -133,19 +249,16 @@ public class OrganicSmellDetector extends SmellDetector {
 	        return;
 	    }
 
-	    for (Map.Entry<SmellType, Set<Smell>> entry : detectedSmells.entrySet()) {
-	        SmellType smellType = entry.getKey();
-	        Set<Smell> smells = entry.getValue();
-	        
+	    for (SmellType smellType : detectedSmells.getSmellTypes()) {
 	        System.out.println("Smell Type: " + smellType);
-	        for (Smell smell : smells) {
+	        detectedSmells.query().ofType(smellType).stream().forEach(smell -> {
 	            smell.print(); // Calling the existing print method in the Smell class
 	            System.out.println(); // Adding a new line for better readability
-	        }
+	        });
 	    }
 	}
 	
-	public Map<SmellType, Set<Smell>> getDetectedSmells() {
+	public SmellStore getDetectedSmells() {
         return this.detectedSmells;
     }
 	
@@ -1,29 +1,64 @@
 
 import java.io.File;
-import java.io.InputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import javax.xml.stream.XMLStreamReader;
+
+import net.sourceforge.pmd.PMD;
+import net.sourceforge.pmd.PMDConfiguration;
+import net.sourceforge.pmd.Report;
+import net.sourceforge.pmd.RulePriority;
+import net.sourceforge.pmd.RuleSet;
+import net.sourceforge.pmd.RuleSetLoader;
+import net.sourceforge.pmd.RuleViolation;
+import net.sourceforge.pmd.cpd.CPD;
+import net.sourceforge.pmd.cpd.CPDConfiguration;
+import net.sourceforge.pmd.cpd.LanguageFactory;
+import net.sourceforge.pmd.cpd.Mark;
+import net.sourceforge.pmd.cpd.Match;
+import net.sourceforge.pmd.renderers.AbstractIncrementingRenderer;
+import net.sourceforge.pmd.renderers.Renderer;
+import net.sourceforge.pmd.util.datasource.DataSource;
+import net.sourceforge.pmd.util.datasource.FileDataSource;
 
 
 public class PMDSmellDetector extends SmellDetector {
 	
 	private String projectDirectory;
-	private Map<SmellType, Set<Smell>> detectedSmells;
+	private ToolExecutionMode executionMode;
+	private boolean duplicateDetectionEnabled = true;
+	private SmellStore detectedSmells;
+	
+	/**
+	 * The rule sets that are already loaded by the embedded engine, per configuration file.
+	 * They are kept for the lifetime of the JVM so that repeated runs skip the parsing of
+	 * the configuration and the loading of the rule classes.
+	 */
+	private static final Map<String, RuleSet> LOADED_RULE_SETS = new ConcurrentHashMap<>();
 
 	    public PMDSmellDetector(String projectDirectory) {
+	        this(projectDirectory, ToolExecutionMode.EXTERNAL_PROCESS);
+	    }
+	    
+	    public PMDSmellDetector(String projectDirectory, ToolExecutionMode executionMode) {
 	        this.projectDirectory = projectDirectory;
-	        this.detectedSmells = new HashMap<>();
+	        this.executionMode = executionMode;
+	        this.detectedSmells = new SmellStore();
 	    }
 	    
 	private static final Set<SmellType> SUPPORTED_SMELL_TYPES = Collections.unmodifiableSet(
@@ -32,6 +67,16 @@ public class PMDSmellDetector extends SmellDetector {
 												SmellType.LONG_METHOD,
 												SmellType.LONG_PARAMETER_LIST)));
 	
+	/**
+	 * Sets whether CPD should be run as well, which is not needed when duplicates are found by
+	 * another detector of the run.
+	 * 
+	 * @param duplicateDetectionEnabled true if CPD should be run; false otherwise
+	 */
+	public void setDuplicateDetectionEnabled(boolean duplicateDetectionEnabled) {
+		this.duplicateDetectionEnabled = duplicateDetectionEnabled;
+	}
+	
 	@Override
 	public Set<SmellType> getSupportedSmellTypes() {
 		return SUPPORTED_SMELL_TYPES;
@@ -43,10 +88,27 @@ public class PMDSmellDetector extends SmellDetector {
 	}
 	
 	@Override
-	public void findSmells(SmellType smellType, Map<SmellType, Set<Smell>> detectedSmells) throws Exception {
+	public String getConfigurationId() throws Exception {
+		File pmdConfigFile = new File(getClass().getClassLoader().getResource("pmd-bin-6.37.0/bin/pmd-config.xml").toURI());
+		return "pmd-6.37.0:" + ProjectSnapshot.hashContent(Files.readAllBytes(pmdConfigFile.toPath()));
+	}
+	
+	@Override
+	public void findSmells(SmellType smellType, SmellStore detectedSmells) throws Exception {
 	  
-		detectPMDSmells(smellType, detectedSmells);
-        detectCPDDuplicates(detectedSmells);
+		boolean detectRuleSmells = getAnalysisScope() == null || !getAnalysisScope().isEmpty();
+		
+		if(executionMode == ToolExecutionMode.EMBEDDED) {
+			if(detectRuleSmells)
+				detectPMDSmellsEmbedded(smellType, detectedSmells);
+			if(isCrossFileAnalysisEnabled() && duplicateDetectionEnabled)
+				detectCPDDuplicatesEmbedded(detectedSmells);
+		} else {
+			if(detectRuleSmells)
+				detectPMDSmells(smellType, detectedSmells);
+			if(isCrossFileAnalysisEnabled() && duplicateDetectionEnabled)
+				detectCPDDuplicates(detectedSmells);
+		}
                 
         this.detectedSmells = detectedSmells;
         System.out.println("End PMD");
@@ -57,16 +119,14 @@ public class PMDSmellDetector extends SmellDetector {
 	 * A method responsible to find and extract the duplicate code smells for the selected
 	 * project using CPD.
 	 * 
-	 * @param detectedSmells a {@code Map} from smellType to a {@code Set} of detected smells
+	 * @param detectedSmells the {@code SmellStore} of the detected smells
 	 * @throws Exception
 	 */
-	private void detectCPDDuplicates(Map<SmellType, Set<Smell>> detectedSmells) throws Exception {
+	private void detectCPDDuplicates(SmellStore detectedSmells) throws Exception {
 		File cpdBatFile = new File(getClass().getClassLoader().getResource("pmd-bin-6.37.0/bin/cpd.bat").toURI());
 		
-		String cpdOutput = Utils.runCommand(buildDuplicateCodeToolCommand(cpdBatFile), null, true);
-		Document cpdXmlDoc = Utils.getXmlDocument(cpdOutput);
-		
-		extractDuplicates(cpdXmlDoc, detectedSmells, projectDirectory);
+		getProcessSupervisor().run(buildDuplicateCodeToolCommand(cpdBatFile), null,
+				output -> extractDuplicates(Utils.createXmlStreamReader(output), detectedSmells), PMDSmellDetector::isSuccessfulExit);
 	}
 	
 	/**
@@ -98,43 +158,68 @@ public class PMDSmellDetector extends SmellDetector {
 
 	
 	/**
-	 * Extracts Duplicate Code smells and returns a set that contains all of them.
+	 * Extracts Duplicate Code smells from the report of CPD while it is being read. The
+	 * {@code <codefragment>} of every duplication, which holds the duplicated source code,
+	 * is skipped without being kept in memory.
 	 * 
-	 * @param xmlDoc an XML {@code Document} that contains the results of the detection
-	 * @param detectedSmells a {@code Map} from smellType to a {@code Set} of detected smells
+	 * @param reader a streaming reader over the report of the detection
+	 * @param detectedSmells the {@code SmellStore} of the detected smells
 	 * @throws Exception 
 	 */
-	private void extractDuplicates(Document xmlDoc, Map<SmellType, Set<Smell>> detectedSmells, 
-			String projectDirectory) throws Exception {
-	    int duplicationGroupId = Utils.getGreatestDuplicationGroupId(detectedSmells);
+	private void extractDuplicates(XMLStreamReader reader, SmellStore detectedSmells) throws Exception {
+	    int duplicationGroupId = 0;
 	    
-	    NodeList duplicationNodes = xmlDoc.getDocumentElement().getElementsByTagName("duplication");
-	    for (int i = 0; i < duplicationNodes.getLength(); i++) {
-	        
-	        NodeList fileEntries = duplicationNodes.item(i).getChildNodes();
-	        for (int j = 0; j < fileEntries.getLength(); j++) {
-	            Node fileEntry = fileEntries.item(j);
-	            // Each duplication has a <codefragment> element which only contains the duplicate code
-	            // and doesn't have any attributes. So this is recognized this way and is ignored
-	            if (!fileEntry.hasAttributes())
-	                continue;
-	            
-	            NamedNodeMap fileEntryAttributes = fileEntry.getAttributes();
-	            int startLine = Integer.parseInt(fileEntryAttributes.getNamedItem("line").getNodeValue());
-	            int endLine = Integer.parseInt(fileEntryAttributes.getNamedItem("endline").getNodeValue());
-	            String path = fileEntryAttributes.getNamedItem("path").getNodeValue();
-	            String className = path.substring(path.lastIndexOf("\\") + 1);
-	            String filePath = path.substring(path.indexOf("\\", path.indexOf(projectDirectory)));
-	            File targetFile = new File(filePath);
-	            
-	            Utils.addSmell(SmellType.DUPLICATE_CODE, detectedSmells, getDetectorName(),
-	                    Utils.createSmellObject(SmellType.DUPLICATE_CODE, duplicationGroupId, className,
-	                    		targetFile, startLine, endLine));
+	    while (Utils.nextStartElement(reader, "pmd-cpd")) {
+	        switch (reader.getLocalName()) {
+	            case "duplication":
+	                duplicationGroupId = detectedSmells.createDuplicationGroupId();
+	                break;
+	            case "codefragment":
+	                Utils.skipXmlElement(reader);
+	                break;
+	            case "file":
+	                int startLine = Integer.parseInt(reader.getAttributeValue(null, "line"));
+	                int endLine = Integer.parseInt(reader.getAttributeValue(null, "endline"));
+	                File targetFile = new File(reader.getAttributeValue(null, "path"));
+	                
+	                detectedSmells.add(getDetectorName(),
+	                        Utils.createSmellObject(SmellType.DUPLICATE_CODE, duplicationGroupId, targetFile.getName(),
+	                        		targetFile, startLine, endLine));
+	                break;
+	            default:
+	                break;
 	        }
-	        
-	        duplicationGroupId++;
 	    }
 	}
+	
+	/**
+	 * Finds the duplicate code smells of the selected project by running CPD inside the
+	 * current JVM, and adds every match directly to the detected smells.
+	 * 
+	 * @param detectedSmells the {@code SmellStore} of the detected smells
+	 * @throws Exception
+	 */
+	private void detectCPDDuplicatesEmbedded(SmellStore detectedSmells) throws Exception {
+		CPDConfiguration cpdConfiguration = new CPDConfiguration();
+		cpdConfiguration.setMinimumTileSize(100);
+		cpdConfiguration.setLanguage(LanguageFactory.createLanguage("java"));
+		
+		CPD cpd = new CPD(cpdConfiguration);
+		cpd.addRecursively(new File(projectDirectory));
+		cpd.go();
+		
+		Iterator<Match> matches = cpd.getMatches();
+		while(matches.hasNext()) {
+			int duplicationGroupId = detectedSmells.createDuplicationGroupId();
+			for(Mark mark : matches.next()) {
+				File targetFile = new File(mark.getFilename());
+				
+				detectedSmells.add(getDetectorName(),
+						Utils.createSmellObject(SmellType.DUPLICATE_CODE, duplicationGroupId, targetFile.getName(),
+								targetFile, mark.getBeginLine(), mark.getEndLine()));
+			}
+		}
+	}
 
 	
 	/**
@@ -142,18 +227,40 @@ public class PMDSmellDetector extends SmellDetector {
 	 * by PMD.
 	 * 
 	 * @param smellType the type of smells to be detected
-	 * @param detectedSmells a {@code Map} from smellType to a {@code Set} of detected smells
+	 * @param detectedSmells the {@code SmellStore} of the detected smells
 	 * @throws Exception
 	 */
-	private void detectPMDSmells(SmellType smellType, Map<SmellType, Set<Smell>> detectedSmells) throws Exception {
+	private void detectPMDSmells(SmellType smellType, SmellStore detectedSmells) throws Exception {
 		File pmdBatFile = new File(getClass().getClassLoader().getResource("pmd-bin-6.37.0/bin/pmd.bat").toURI());
 		File pmdConfigFile = new File(getClass().getClassLoader().getResource("pmd-bin-6.37.0/bin/pmd-config.xml").toURI());
-		File pmdCacheFile = new File(getClass().getClassLoader().getResource("pmd-bin-6.37.0/bin/pmd-cache.txt").toURI());
+		//The analysis cache of PMD holds absolute paths, so it belongs to the current user and not to the application
+		File pmdCacheFile = new File(Utils.getApplicationDataDirectory(), "pmd-cache.bin");
 		
-		String pmdOutput = Utils.runCommand(buildMainToolCommand(pmdBatFile, pmdConfigFile, pmdCacheFile), null, true);
-		Document pmdXmlDoc = Utils.getXmlDocument(pmdOutput);
+		File fileListFile = null;
+		if(getAnalysisScope() != null) {
+			//Only the files of the scope are analysed, and they are given to PMD through a file list
+			fileListFile = File.createTempFile("pmd-files-", ".txt");
+			Files.write(fileListFile.toPath(), getAnalysisScope().stream().map(File::getAbsolutePath).collect(Collectors.toList()));
+		}
 		
-		extractSmells(smellType, pmdXmlDoc, detectedSmells);
+		try {
+			getProcessSupervisor().run(buildMainToolCommand(pmdBatFile, pmdConfigFile, pmdCacheFile, fileListFile), null,
+					output -> extractSmells(smellType, Utils.createXmlStreamReader(output), detectedSmells), PMDSmellDetector::isSuccessfulExit);
+		} finally {
+			if(fileListFile != null)
+				fileListFile.delete();
+		}
+	}
+	
+	/**
+	 * PMD and CPD exit with 0 when they find nothing and with 4 when they find violations or
+	 * duplicates; every other code means that they failed.
+	 * 
+	 * @param exitCode the exit code of the tool
+	 * @return true if the tool did its work; false otherwise
+	 */
+	private static boolean isSuccessfulExit(int exitCode) {
+		return exitCode == 0 || exitCode == 4;
 	}
 	
 	/**
@@ -170,47 +277,110 @@ public class PMDSmellDetector extends SmellDetector {
 	}
 
 	/**
-	 * Extracts God Class, Long Method and Long Parameter List code smells and adds them
-	 * to the {@code Map} of detected smells.
+	 * Extracts God Class, Long Method and Long Parameter List code smells from the report of
+	 * PMD while it is being read, and adds them to the {@code Map} of detected smells.
 	 * 
 	 * @param smellType the type of smell to be detected
-	 * @param xmlDoc an XML {@code Document} that contains the results of the detection
-	 * @param detectedSmells a {@code Map} from smellType to a {@code Set} of detected smells
+	 * @param reader a streaming reader over the report of the detection
+	 * @param detectedSmells the {@code SmellStore} of the detected smells
 	 * @throws Exception
 	 */
-	private void extractSmells(SmellType smellType, Document xmlDoc, Map<SmellType, Set<Smell>> detectedSmells) throws Exception {
-	    NodeList fileNodes = xmlDoc.getDocumentElement().getElementsByTagName("file");
-	    for (int fileIndex = 0; fileIndex < fileNodes.getLength(); fileIndex++) {
-	        Node fileNode = fileNodes.item(fileIndex);
-	        String fileName = fileNode.getAttributes().getNamedItem("name").getNodeValue();
-	        String filePath = fileName.substring(fileName.indexOf("\\", fileName.indexOf("\\", projectDirectory.length())));
-	        File targetFile = new File(filePath); // Create a java.io.File object here
-	        
-	        NodeList violationNodes = fileNode.getChildNodes();
-	        for (int i = 0; i < violationNodes.getLength(); i++) {
-	            Node violationNode = violationNodes.item(i);
-	            // This is needed because there are unexpected children, e.g. #text
-	            if (!violationNode.getNodeName().equals("violation"))
-	                continue;
-	            
-	            SmellType detectedSmellType = MAP_FROM_DECTECTED_SMELLS_TO_SMELLTYPE.get(violationNode.getAttributes().getNamedItem("rule").getNodeValue());
-	            if (smellType != SmellType.ALL_SMELLS && smellType != detectedSmellType)
-	                continue;
-	            
-	            int startLine = Integer.parseInt(violationNode.getAttributes().getNamedItem("beginline").getNodeValue());
-	            String className = violationNode.getAttributes().getNamedItem("class").getNodeValue();
+	private void extractSmells(SmellType smellType, XMLStreamReader reader, SmellStore detectedSmells) throws Exception {
+	    File targetFile = null;
+	    
+	    while (Utils.nextStartElement(reader, "pmd")) {
+	        if (reader.getLocalName().equals("file")) {
+	            targetFile = new File(reader.getAttributeValue(null, "name"));
+	        } else if (reader.getLocalName().equals("error")) {
+	            //A file that PMD could not analyse, e.g. because it could not parse it
+	            reportFileFailed(new File(reader.getAttributeValue(null, "filename")));
+	        } else if (reader.getLocalName().equals("violation")) {
+	            String ruleName = reader.getAttributeValue(null, "rule");
+	            int startLine = Integer.parseInt(reader.getAttributeValue(null, "beginline"));
+	            String className = reader.getAttributeValue(null, "class");
+	            String methodName = reader.getAttributeValue(null, "method");
 	            
-	            if (detectedSmellType == SmellType.GOD_CLASS) {
-	                Utils.addSmell(detectedSmellType, detectedSmells, getDetectorName(),
-	                        Utils.createSmellObject(SmellType.GOD_CLASS, className, targetFile, startLine));
-	            } else {
-	                String methodName = violationNode.getAttributes().getNamedItem("method").getNodeValue();
-	                Utils.addSmell(detectedSmellType, detectedSmells, getDetectorName(),
-	                        Utils.createSmellObject(detectedSmellType, className, methodName, targetFile, startLine));
-	            }
+	            addViolation(smellType, ruleName, className, methodName, targetFile, startLine, detectedSmells);
 	        }
 	    }
 	}
+	
+	/**
+	 * Adds the smell that corresponds to a single PMD violation to the detected smells, if the
+	 * violated rule maps to the smell type that is being detected.
+	 * 
+	 * @param smellType the type of smell to be detected
+	 * @param ruleName the name of the violated PMD rule
+	 * @param className the name of the class in which the violation was found
+	 * @param methodName the name of the method in which the violation was found, if any
+	 * @param targetFile the file that contains the violation
+	 * @param startLine the line in which the violation starts
+	 * @param detectedSmells the {@code SmellStore} of the detected smells
+	 * @throws Exception
+	 */
+	private void addViolation(SmellType smellType, String ruleName, String className, String methodName,
+			File targetFile, int startLine, SmellStore detectedSmells) throws Exception {
+		SmellType detectedSmellType = MAP_FROM_DECTECTED_SMELLS_TO_SMELLTYPE.get(ruleName);
+		if (detectedSmellType == null || (smellType != SmellType.ALL_SMELLS && smellType != detectedSmellType))
+			return;
+		
+		if (detectedSmellType == SmellType.GOD_CLASS) {
+			detectedSmells.add(getDetectorName(),
+					Utils.createSmellObject(SmellType.GOD_CLASS, className, targetFile, startLine));
+		} else {
+			detectedSmells.add(getDetectorName(),
+					Utils.createSmellObject(detectedSmellType, className, methodName, targetFile, startLine));
+		}
+	}
+	
+	/**
+	 * Finds the God Class, Long Method and Long Parameter List smells of the selected project
+	 * by running PMD inside the current JVM with the rule set of {@code pmd-config.xml}. The
+	 * violations are turned into smells by a renderer as soon as each file is analysed.
+	 * 
+	 * @param smellType the type of smells to be detected
+	 * @param detectedSmells the {@code SmellStore} of the detected smells
+	 * @throws Exception
+	 */
+	private void detectPMDSmellsEmbedded(SmellType smellType, SmellStore detectedSmells) throws Exception {
+		File pmdConfigFile = new File(getClass().getClassLoader().getResource("pmd-bin-6.37.0/bin/pmd-config.xml").toURI());
+		
+		PMDConfiguration configuration = new PMDConfiguration();
+		configuration.setRuleSets(pmdConfigFile.getPath());
+		configuration.setMinimumPriority(RulePriority.LOW);
+		configuration.setIgnoreIncrementalAnalysis(true);
+		configuration.setThreads(Runtime.getRuntime().availableProcessors());
+		
+		RuleSet ruleSet = LOADED_RULE_SETS.computeIfAbsent(pmdConfigFile.getPath(),
+				path -> RuleSetLoader.fromPmdConfig(configuration).loadFromResource(path));
+		
+		SmellRenderer renderer = new SmellRenderer(smellType, detectedSmells);
+		renderer.setWriter(Writer.nullWriter());
+		List<Renderer> renderers = Collections.singletonList(renderer);
+		
+		PMD.processFiles(configuration, Collections.singletonList(ruleSet), collectJavaFiles(), renderers);
+		
+		if(renderer.failure != null)
+			throw renderer.failure;
+	}
+	
+	/**
+	 * Collects the java files that should be analysed, i.e. the files of the analysis scope or
+	 * all the java files of the selected project, so that they can be given to the embedded engine.
+	 * 
+	 * @return a list with a {@code DataSource} for every java file to be analysed
+	 * @throws IOException
+	 */
+	private List<DataSource> collectJavaFiles() throws IOException {
+		if(getAnalysisScope() != null)
+			return getAnalysisScope().stream().map(FileDataSource::new).collect(Collectors.toList());
+		
+		try(Stream<Path> paths = Files.walk(Path.of(projectDirectory))) {
+			return paths.filter(path -> path.toString().endsWith(".java") && Files.isRegularFile(path))
+						.map(path -> new FileDataSource(path.toFile()))
+						.collect(Collectors.toList());
+		}
+	}
 
 	
 	/**
@@ -220,17 +390,23 @@ public class PMDSmellDetector extends SmellDetector {
 	 * @param mainToolBatFile the file of the main tool
 	 * @param configFile the configuration file of the main tool
 	 * @param cacheFile the file which contains cache details for the tool
+	 * @param fileListFile a file that lists the files to be analysed, or {@code null} to analyse the whole project
 	 * @return a list with the needed command
 	 */
-	private List<String> buildMainToolCommand(File mainToolBatFile, File configFile, File cacheFile) {
+	private List<String> buildMainToolCommand(File mainToolBatFile, File configFile, File cacheFile, File fileListFile) {
 		List<String> mainToolCmdList = new ArrayList<String>();
 		
 		try {
 			mainToolCmdList.add("cmd");
 			mainToolCmdList.add("/c");
 			mainToolCmdList.add(mainToolBatFile.getPath());
-			mainToolCmdList.add("-d");
-			mainToolCmdList.add(projectDirectory);
+			if(fileListFile == null) {
+				mainToolCmdList.add("-d");
+				mainToolCmdList.add(projectDirectory);
+			} else {
+				mainToolCmdList.add("-filelist");
+				mainToolCmdList.add(fileListFile.getPath());
+			}
 			mainToolCmdList.add("-cache");
 			mainToolCmdList.add(cacheFile.getPath());
 			mainToolCmdList.add("-f");
@@ -245,9 +421,54 @@ public class PMDSmellDetector extends SmellDetector {
 	}
 
 	@Override
-	public Map<SmellType, Set<Smell>> getDetectedSmells() {
+	public SmellStore getDetectedSmells() {
 		// TODO Auto-generated method stub
 		return this.detectedSmells;
 	}
+	
+	
+	/**
+	 * A PMD renderer that turns the violations of every analysed file into smells, instead
+	 * of writing a report.
+	 */
+	private class SmellRenderer extends AbstractIncrementingRenderer {
+		
+		private final SmellType smellType;
+		private final SmellStore detectedSmells;
+		private Exception failure;
+		
+		SmellRenderer(SmellType smellType, SmellStore detectedSmells) {
+			super("smells", "Adds the violations to the detected smells");
+			this.smellType = smellType;
+			this.detectedSmells = detectedSmells;
+		}
+		
+		@Override
+		public String defaultFileExtension() {
+			return null;
+		}
+		
+		@Override
+		public void end() throws IOException {
+			//The files that PMD could not analyse, e.g. because it could not parse them
+			for(Report.ProcessingError error : errors) {
+				reportFileFailed(new File(error.getFile()));
+			}
+		}
+		
+		@Override
+		public synchronized void renderFileViolations(Iterator<RuleViolation> violations) throws IOException {
+			while(violations.hasNext()) {
+				RuleViolation violation = violations.next();
+				try {
+					addViolation(smellType, violation.getRule().getName(), violation.getClassName(), violation.getMethodName(),
+							new File(violation.getFilename()), violation.getBeginLine(), detectedSmells);
+				} catch (Exception e) {
+					if(failure == null)
+						failure = e;
+				}
+			}
+		}
+	}
 		
 }
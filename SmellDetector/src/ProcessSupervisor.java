@@ -0,0 +1,410 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntPredicate;
+
+/**
+ * Runs the external tools of a detector. The standard output of a tool is handed to a reader
+ * while the tool is running, and its error output is drained on a thread of its own. All the
+ * tools of the detector share a deadline: a tool that is still running when the deadline
+ * passes is stopped, and so are the tools that are running when the supervisor is cancelled.
+ * A stopped tool does not make the run fail; whatever the tool reported up to then is kept,
+ * and the outcome of every tool is recorded with its exit code and its run time. A tool that
+ * cannot be started, or that exits with a code that it only uses for errors, makes the run fail.
+ *
+ * Nothing waits on a timer: a run returns as soon as its tool exits.
+ */
+public class ProcessSupervisor {
+
+	private static final int ERROR_TAIL_LINES = 20;
+	private static final long FORCED_STOP_DELAY_SECONDS = 5;
+
+	//A single thread is enough for the deadlines of all the tools, since it only stops processes
+	private static final ScheduledExecutorService DEADLINES = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "tool-deadlines");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final String detectorName;
+	private final long deadlineNanos;
+	private final Set<Process> runningProcesses = ConcurrentHashMap.newKeySet();
+	private final List<ProcessResult> results = Collections.synchronizedList(new ArrayList<>());
+	private volatile boolean cancelled;
+
+	/**
+	 * Creates the supervisor of the tools of a detector.
+	 *
+	 * @param detectorName the name of the detector that runs the tools
+	 * @param timeout the time from now after which the tools are stopped, or {@code null} for no deadline
+	 */
+	public ProcessSupervisor(String detectorName, Duration timeout) {
+		this.detectorName = detectorName;
+		this.deadlineNanos = timeout == null ? Long.MAX_VALUE : System.nanoTime() + timeout.toNanos();
+	}
+
+	/**
+	 * Runs the given command, which is expected to exit with code 0, and hands its standard
+	 * output to the given reader while the process is still running.
+	 *
+	 * @param commandList a list that contains the parts of the command to be processed
+	 * @param directory the working directory of the process, or {@code null}
+	 * @param outputReader the reader that consumes the standard output of the process
+	 * @return the outcome of the process
+	 * @throws CancellationException if the supervisor was cancelled or its deadline passed before the process started
+	 * @throws Exception if the process cannot be started or fails, or the reader fails on a complete output
+	 * @see #run(List, File, ToolOutputReader, IntPredicate)
+	 */
+	public ProcessResult run(List<String> commandList, File directory, ToolOutputReader outputReader) throws Exception {
+		return run(commandList, directory, outputReader, exitCode -> exitCode == 0);
+	}
+
+	/**
+	 * Runs the given command and hands its standard output to the given reader while the
+	 * process is still running. If the process is stopped, the reader may see the output end
+	 * early; what it read until then is kept.
+	 *
+	 * @param commandList a list that contains the parts of the command to be processed
+	 * @param directory the working directory of the process, or {@code null}
+	 * @param outputReader the reader that consumes the standard output of the process
+	 * @param successfulExit whether an exit code means that the tool did its work, e.g. PMD exits with 4 when it finds violations
+	 * @return the outcome of the process
+	 * @throws CancellationException if the supervisor was cancelled or its deadline passed before the process started
+	 * @throws IOException if the process cannot be started, or it exits with an unsuccessful code
+	 * @throws Exception if the reader fails on a complete output
+	 */
+	public ProcessResult run(List<String> commandList, File directory, ToolOutputReader outputReader,
+			IntPredicate successfulExit) throws Exception {
+		long startTime = System.nanoTime();
+		Process process = start(new ProcessBuilder(commandList), directory, commandList);
+		ErrorDrainer errorDrainer = new ErrorDrainer(process.getErrorStream());
+		AtomicBoolean timedOut = new AtomicBoolean();
+		ScheduledFuture<?> deadline = scheduleDeadline(process, timedOut);
+
+		try(InputStream output = process.getInputStream()) {
+			try {
+				outputReader.read(output);
+				//Whatever follows the report is read as well, so that the process can exit
+				output.transferTo(OutputStream.nullOutputStream());
+			} catch (Exception e) {
+				//A stopped tool leaves its report unfinished, which is expected
+				if(!timedOut.get() && !cancelled)
+					throw e;
+			}
+			process.waitFor();
+		} finally {
+			if(deadline != null)
+				deadline.cancel(false);
+			runningProcesses.remove(process);
+			stop(process);
+		}
+
+		errorDrainer.join();
+		return record(commandList, process, startTime, timedOut.get(), errorDrainer.getTail(), successfulExit);
+	}
+
+	/**
+	 * Runs the given command and waits until the process exits, or until it is stopped. The
+	 * output of the process is written to the given file, so that the process is never blocked
+	 * on a full output pipe. The process is expected to exit with code 0.
+	 *
+	 * @param commandList a list that contains the parts of the command to be processed
+	 * @param directory the working directory of the process, or {@code null}
+	 * @param outputFile the file in which the output of the process is written
+	 * @param maxRunTime the longest time the tool may run, besides the deadline of the supervisor
+	 * @return the outcome of the process
+	 * @throws CancellationException if the supervisor was cancelled or its deadline passed before the process started
+	 * @throws InterruptedException
+	 * @throws IOException if the process cannot be started, or it exits with a code other than 0
+	 */
+	public ProcessResult runUntilExit(List<String> commandList, File directory, File outputFile, Duration maxRunTime)
+			throws InterruptedException, IOException {
+		long startTime = System.nanoTime();
+		ProcessBuilder processBuilder = new ProcessBuilder(commandList)
+				.redirectErrorStream(true)
+				.redirectOutput(outputFile);
+		Process process = start(processBuilder, directory, commandList);
+
+		long remainingNanos = Math.min(getRemainingNanos(), maxRunTime.toNanos());
+		boolean timedOut = false;
+		try {
+			if(!process.waitFor(remainingNanos, TimeUnit.NANOSECONDS)) {
+				timedOut = !cancelled;
+				stop(process);
+				process.waitFor();
+			}
+		} catch (InterruptedException e) {
+			process.destroyForcibly();
+			throw e;
+		} finally {
+			runningProcesses.remove(process);
+		}
+
+		return record(commandList, process, startTime, timedOut, Collections.emptyList(), exitCode -> exitCode == 0);
+	}
+
+	/**
+	 * Stops the running tools of the supervisor, and keeps it from starting others.
+	 */
+	public void cancel() {
+		cancelled = true;
+		runningProcesses.forEach(ProcessSupervisor::stop);
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Whether a tool of the supervisor was stopped, i.e. whether the results of the detector
+	 * may be incomplete.
+	 *
+	 * @return true if a tool was stopped or the supervisor was cancelled; false otherwise
+	 */
+	public boolean wasStopped() {
+		if(cancelled)
+			return true;
+		synchronized (results) {
+			return results.stream().anyMatch(result -> result.getStatus() == ProcessResult.Status.TIMED_OUT
+					|| result.getStatus() == ProcessResult.Status.CANCELLED);
+		}
+	}
+
+	/**
+	 * Whether a tool of the supervisor could not be started or exited with an unsuccessful code.
+	 *
+	 * @return true if a tool failed; false otherwise
+	 */
+	public boolean hasFailed() {
+		synchronized (results) {
+			return results.stream().anyMatch(result -> result.getStatus() == ProcessResult.Status.FAILED);
+		}
+	}
+
+	/**
+	 * Returns the outcome of every tool that the supervisor ran, in the order in which they ended.
+	 *
+	 * @return a list with the results of the tools
+	 */
+	public List<ProcessResult> getResults() {
+		synchronized (results) {
+			return new ArrayList<>(results);
+		}
+	}
+
+	private Process start(ProcessBuilder processBuilder, File directory, List<String> commandList) throws IOException {
+		if(directory != null)
+			processBuilder.directory(directory);
+
+		//The later tools of a detector, e.g. the next batch of files, are not started once the deadline has passed
+		if(getRemainingNanos() <= 0) {
+			ProcessResult result = new ProcessResult(detectorName, new File(commandList.get(0)).getName(),
+					ProcessResult.Status.TIMED_OUT, -1, 0, Collections.emptyList());
+			results.add(result);
+			throw new CancellationException("The deadline of " + detectorName + " has passed");
+		}
+
+		//Registering and checking happen in this order, so that a concurrent cancel either sees the process or is seen here
+		Process process;
+		try {
+			process = processBuilder.start();
+		} catch (IOException e) {
+			results.add(new ProcessResult(detectorName, new File(commandList.get(0)).getName(),
+					ProcessResult.Status.FAILED, -1, 0, List.of(String.valueOf(e.getMessage()))));
+			throw e;
+		}
+		runningProcesses.add(process);
+		if(cancelled) {
+			runningProcesses.remove(process);
+			stop(process);
+			throw new CancellationException("The detection was cancelled before " + detectorName + " could run its tool");
+		}
+		return process;
+	}
+
+	private ScheduledFuture<?> scheduleDeadline(Process process, AtomicBoolean timedOut) {
+		if(deadlineNanos == Long.MAX_VALUE)
+			return null;
+
+		long remainingNanos = getRemainingNanos();
+		return DEADLINES.schedule(() -> {
+			if(process.isAlive()) {
+				timedOut.set(true);
+				stop(process);
+			}
+		}, Math.max(0, remainingNanos), TimeUnit.NANOSECONDS);
+	}
+
+	private long getRemainingNanos() {
+		return deadlineNanos == Long.MAX_VALUE ? Long.MAX_VALUE : deadlineNanos - System.nanoTime();
+	}
+
+	/**
+	 * Asks the given process and the processes it started to end, e.g. the java process of a
+	 * batch file, and forces them if they are still running a few seconds later.
+	 */
+	private static void stop(Process process) {
+		if(!process.isAlive())
+			return;
+
+		List<ProcessHandle> descendants = process.descendants().toList();
+		descendants.forEach(ProcessHandle::destroy);
+		process.destroy();
+		DEADLINES.schedule(() -> {
+			descendants.forEach(ProcessHandle::destroyForcibly);
+			process.destroyForcibly();
+		}, FORCED_STOP_DELAY_SECONDS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Records the outcome of a process that ended.
+	 *
+	 * @throws IOException if the process exited by itself with an unsuccessful code
+	 */
+	private ProcessResult record(List<String> commandList, Process process, long startTime, boolean timedOut,
+			List<String> errorTail, IntPredicate successfulExit) throws IOException {
+		int exitCode = process.exitValue();
+		ProcessResult.Status status = cancelled ? ProcessResult.Status.CANCELLED
+				: timedOut ? ProcessResult.Status.TIMED_OUT
+				: successfulExit.test(exitCode) ? ProcessResult.Status.EXITED : ProcessResult.Status.FAILED;
+		ProcessResult result = new ProcessResult(detectorName, new File(commandList.get(0)).getName(), status,
+				exitCode, (System.nanoTime() - startTime) / 1_000_000, errorTail);
+		results.add(result);
+
+		if(status != ProcessResult.Status.EXITED)
+			System.err.println(result);
+		if(status == ProcessResult.Status.FAILED)
+			throw new IOException(result + (errorTail.isEmpty() ? "" : ": " + errorTail.get(errorTail.size() - 1)));
+		return result;
+	}
+
+
+	/**
+	 * Prints every line of the error output of a process, and keeps the last ones for the result.
+	 */
+	private static class ErrorDrainer {
+		private final Thread thread;
+		private final Deque<String> tail = new ArrayDeque<>();
+
+		ErrorDrainer(InputStream errorStream) {
+			thread = new Thread(() -> drain(errorStream), "tool-stderr");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		private void drain(InputStream errorStream) {
+			try(BufferedReader reader = new BufferedReader(new InputStreamReader(errorStream))) {
+				String line;
+				while((line = reader.readLine()) != null) {
+					System.err.println(line);
+					synchronized (tail) {
+						if(tail.size() == ERROR_TAIL_LINES)
+							tail.removeFirst();
+						tail.addLast(line);
+					}
+				}
+			} catch (IOException e) {
+				//The process was stopped, there is nothing left to print
+			}
+		}
+
+		/**
+		 * Waits for the end of the error output, which closes right after the process exits.
+		 * Children of the process may keep it open, so the wait is short.
+		 */
+		void join() throws InterruptedException {
+			thread.join(1000);
+		}
+
+		List<String> getTail() {
+			synchronized (tail) {
+				return new ArrayList<>(tail);
+			}
+		}
+	}
+
+
+	/**
+	 * The outcome of a single run of an external tool. The tools use their exit codes in
+	 * different ways, e.g. PMD and CheckStyle exit with a non-zero code when they find
+	 * violations, so every detector tells which exit codes of its tools are successful.
+	 */
+	public static class ProcessResult {
+
+		public enum Status {
+			EXITED,
+			TIMED_OUT,
+			CANCELLED,
+			/** The tool could not be started, or it exited with a code that it uses for errors. */
+			FAILED
+		}
+
+		private final String detectorName;
+		private final String toolName;
+		private final Status status;
+		private final int exitCode;
+		private final long elapsedMillis;
+		private final List<String> errorTail;
+
+		ProcessResult(String detectorName, String toolName, Status status, int exitCode, long elapsedMillis, List<String> errorTail) {
+			this.detectorName = detectorName;
+			this.toolName = toolName;
+			this.status = status;
+			this.exitCode = exitCode;
+			this.elapsedMillis = elapsedMillis;
+			this.errorTail = Collections.unmodifiableList(errorTail);
+		}
+
+		public String getDetectorName() {
+			return detectorName;
+		}
+
+		public String getToolName() {
+			return toolName;
+		}
+
+		public Status getStatus() {
+			return status;
+		}
+
+		public int getExitCode() {
+			return exitCode;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		/**
+		 * Returns the last lines of the error output of the tool.
+		 *
+		 * @return a list with at most the last 20 lines of the error output
+		 */
+		public List<String> getErrorTail() {
+			return errorTail;
+		}
+
+		@Override
+		public String toString() {
+			return detectorName + " (" + toolName + "): " + status + " with exit code " + exitCode + " after " + elapsedMillis + " ms";
+		}
+	}
+
+}
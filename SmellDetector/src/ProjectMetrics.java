@@ -0,0 +1,284 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+
+/**
+ * The metrics table of a set of java files: the size, complexity and coupling metrics of every
+ * type and method declared in them. Every file is read and parsed only once, the files are
+ * parsed in parallel, and the syntax trees are dropped as soon as their metrics are collected.
+ * The content of every file is also handed to the {@code SourceIndex.Cache} of the run, so the
+ * other detectors do not need to read the file again.
+ *
+ * The files are parsed without resolving bindings, which keeps the parsing independent of the
+ * classpath of the project, so metrics about other types (e.g. ATFD) are approximated from the
+ * syntax alone.
+ */
+public class ProjectMetrics {
+
+	//Building the options reads all the settings of JDT, so it is done once instead of for every file
+	private static final Map<String, String> COMPILER_OPTIONS = createCompilerOptions();
+
+	private final List<TypeMetrics> typeMetrics;
+	private final List<MethodMetrics> methodMetrics;
+
+	private ProjectMetrics(List<TypeMetrics> typeMetrics, List<MethodMetrics> methodMetrics) {
+		this.typeMetrics = Collections.unmodifiableList(typeMetrics);
+		this.methodMetrics = Collections.unmodifiableList(methodMetrics);
+	}
+
+	/**
+	 * Parses the given files and collects the metrics of all their types and methods.
+	 *
+	 * @param sourceFiles the java files to be measured
+	 * @param sourceIndexes the source indexes of the run, which get the content of every file
+	 * @return the {@code ProjectMetrics} of the files, in the order of the files
+	 * @throws IOException
+	 */
+	public static ProjectMetrics collect(List<File> sourceFiles, SourceIndex.Cache sourceIndexes) throws IOException {
+		List<MetricsCollector> collectors;
+		try {
+			collectors = sourceFiles.parallelStream()
+									.map(sourceFile -> {
+										try {
+											return collect(sourceFile, sourceIndexes);
+										} catch (IOException e) {
+											throw new UncheckedIOException(e);
+										}
+									})
+									.collect(Collectors.toList());
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		List<TypeMetrics> typeMetrics = new ArrayList<>();
+		List<MethodMetrics> methodMetrics = new ArrayList<>();
+		//The first file that names a type, and the names that more than one file has
+		Map<String, File> namingFiles = new HashMap<>();
+		Set<String> namesOfSeveralFiles = new HashSet<>();
+		for(MetricsCollector collector : collectors) {
+			typeMetrics.addAll(collector.getTypeMetrics());
+			methodMetrics.addAll(collector.getMethodMetrics());
+			for(String typeName : collector.getReferencedTypeNames()) {
+				if(namingFiles.putIfAbsent(typeName, collector.getSourceFile()) != null)
+					namesOfSeveralFiles.add(typeName);
+			}
+		}
+
+		for(TypeMetrics metrics : typeMetrics) {
+			File namingFile = namingFiles.get(metrics.className);
+			metrics.isReferencedElsewhere = namesOfSeveralFiles.contains(metrics.className)
+					|| (namingFile != null && !namingFile.equals(metrics.sourceFile));
+		}
+
+		return new ProjectMetrics(typeMetrics, methodMetrics);
+	}
+
+	private static Map<String, String> createCompilerOptions() {
+		Map<String, String> compilerOptions = JavaCore.getOptions();
+		JavaCore.setComplianceOptions(JavaCore.latestSupportedJavaVersion(), compilerOptions);
+		//The parsers copy the options, which must not be changed afterwards
+		return Collections.unmodifiableMap(compilerOptions);
+	}
+
+	private static MetricsCollector collect(File sourceFile, SourceIndex.Cache sourceIndexes) throws IOException {
+		String source = new String(Files.readAllBytes(sourceFile.toPath()), Charset.defaultCharset());
+		sourceIndexes.get(sourceFile, source);
+
+		ASTParser parser = ASTParser.newParser(AST.getJLSLatest());
+		parser.setKind(ASTParser.K_COMPILATION_UNIT);
+		parser.setCompilerOptions(COMPILER_OPTIONS);
+		parser.setResolveBindings(false);
+		parser.setSource(source.toCharArray());
+
+		CompilationUnit compilationUnit = (CompilationUnit) parser.createAST(null);
+		MetricsCollector collector = new MetricsCollector(sourceFile, compilationUnit);
+		compilationUnit.accept(collector);
+
+		return collector;
+	}
+
+	public List<TypeMetrics> getTypeMetrics() {
+		return typeMetrics;
+	}
+
+	public List<MethodMetrics> getMethodMetrics() {
+		return methodMetrics;
+	}
+
+
+	/**
+	 * The metrics of a class, as defined by Lanza and Marinescu in "Object-Oriented Metrics
+	 * in Practice".
+	 */
+	public static class TypeMetrics {
+		File sourceFile;
+		String className;
+		int startLine;
+		boolean isInterface;
+		boolean isAbstract;
+		boolean isThrowable;
+		boolean isReferencedElsewhere;
+		int linesOfCode;
+		int numberOfMethods;
+		int numberOfAttributes;
+		int numberOfPublicAttributes;
+		int numberOfAccessorMethods;
+		int weightedMethodCount;
+		int accessToForeignData;
+		double tightClassCohesion;
+		double weightOfClass;
+
+		public File getSourceFile() {
+			return sourceFile;
+		}
+
+		public String getClassName() {
+			return className;
+		}
+
+		public int getStartLine() {
+			return startLine;
+		}
+
+		public boolean isInterface() {
+			return isInterface;
+		}
+
+		public boolean isAbstract() {
+			return isAbstract;
+		}
+
+		/**
+		 * Whether the class is an exception or an error. Without bindings, only the name of its
+		 * direct superclass is known, so subclasses of other exceptions are not recognised.
+		 */
+		public boolean isThrowable() {
+			return isThrowable;
+		}
+
+		/**
+		 * Whether another of the measured files names the class. Without bindings, a class of
+		 * the same name in another package counts as well.
+		 */
+		public boolean isReferencedElsewhere() {
+			return isReferencedElsewhere;
+		}
+
+		/** LOC: the number of lines from the declaration of the class to its end. */
+		public int getLinesOfCode() {
+			return linesOfCode;
+		}
+
+		/** NOM: the number of methods and constructors declared in the class. */
+		public int getNumberOfMethods() {
+			return numberOfMethods;
+		}
+
+		/** NOA: the number of attributes declared in the class. */
+		public int getNumberOfAttributes() {
+			return numberOfAttributes;
+		}
+
+		/** NOPA: the number of public attributes that are not constants. */
+		public int getNumberOfPublicAttributes() {
+			return numberOfPublicAttributes;
+		}
+
+		/** NOAM: the number of getters and setters. */
+		public int getNumberOfAccessorMethods() {
+			return numberOfAccessorMethods;
+		}
+
+		/** WMC: the sum of the cyclomatic complexity of all the methods. */
+		public int getWeightedMethodCount() {
+			return weightedMethodCount;
+		}
+
+		/** ATFD: the number of distinct attributes of other classes that are used. */
+		public int getAccessToForeignData() {
+			return accessToForeignData;
+		}
+
+		/** TCC: the share of pairs of public methods that use a common attribute of the class. */
+		public double getTightClassCohesion() {
+			return tightClassCohesion;
+		}
+
+		/** WOC: the share of the public members that provide functionality instead of data. */
+		public double getWeightOfClass() {
+			return weightOfClass;
+		}
+	}
+
+	/**
+	 * The metrics of a method or constructor.
+	 */
+	public static class MethodMetrics {
+		File sourceFile;
+		String className;
+		String methodName;
+		int startLine;
+		int linesOfCode;
+		int numberOfParameters;
+		int cyclomaticComplexity;
+		int maxNesting;
+		int accessToForeignData;
+
+		public File getSourceFile() {
+			return sourceFile;
+		}
+
+		public String getClassName() {
+			return className;
+		}
+
+		public String getMethodName() {
+			return methodName;
+		}
+
+		public int getStartLine() {
+			return startLine;
+		}
+
+		/** LOC: the number of lines from the name of the method to its end. */
+		public int getLinesOfCode() {
+			return linesOfCode;
+		}
+
+		/** NOP: the number of parameters. */
+		public int getNumberOfParameters() {
+			return numberOfParameters;
+		}
+
+		/** CYCLO: the number of decisions in the method plus one. */
+		public int getCyclomaticComplexity() {
+			return cyclomaticComplexity;
+		}
+
+		/** MAXNESTING: the deepest nesting of blocks inside the body of the method. */
+		public int getMaxNesting() {
+			return maxNesting;
+		}
+
+		/** ATFD: the number of distinct attributes of other classes that are used. */
+		public int getAccessToForeignData() {
+			return accessToForeignData;
+		}
+	}
+
+}
@@ -0,0 +1,192 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The state of all the java files of a project at a certain moment, i.e. a content hash for
+ * every file. Two snapshots of the same project can be compared to find out which files were
+ * added, changed or deleted between two runs.
+ */
+public class ProjectSnapshot {
+	
+	private final Map<String, FileState> fileStates;
+	
+	private ProjectSnapshot(Map<String, FileState> fileStates) {
+		this.fileStates = fileStates;
+	}
+	
+	/**
+	 * Takes a snapshot of the java files of the given project. The hash of a file is reused
+	 * from the previous snapshot when its size and modification time have not changed, so
+	 * only new and touched files are read.
+	 * 
+	 * @param projectDirectory the directory of the project
+	 * @param previousSnapshot the last snapshot of the project, or {@code null} if there is none
+	 * @return the new {@code ProjectSnapshot}
+	 * @throws IOException
+	 */
+	public static ProjectSnapshot take(String projectDirectory, ProjectSnapshot previousSnapshot) throws IOException {
+		List<Path> javaFiles;
+		try(Stream<Path> paths = Files.walk(Path.of(projectDirectory))) {
+			javaFiles = paths.filter(path -> path.toString().endsWith(".java") && Files.isRegularFile(path))
+							 .collect(Collectors.toList());
+		}
+		
+		try {
+			Map<String, FileState> fileStates = javaFiles.parallelStream()
+					.collect(Collectors.toConcurrentMap(path -> Utils.getNormalisedPath(path.toFile()),
+							path -> readFileState(path, previousSnapshot)));
+			
+			return new ProjectSnapshot(fileStates);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+	
+	private static FileState readFileState(Path path, ProjectSnapshot previousSnapshot) {
+		try {
+			long size = Files.size(path);
+			long lastModified = Files.getLastModifiedTime(path).toMillis();
+			
+			if(previousSnapshot != null) {
+				FileState previousState = previousSnapshot.fileStates.get(Utils.getNormalisedPath(path.toFile()));
+				if(previousState != null && previousState.size == size && previousState.lastModified == lastModified)
+					return previousState;
+			}
+			
+			return new FileState(size, lastModified, hashContent(Files.readAllBytes(path)));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	/**
+	 * Calculates the content hash of a file.
+	 * 
+	 * @param content the bytes of the file
+	 * @return the hash of the content as a hexadecimal {@code String}
+	 */
+	public static String hashContent(byte[] content) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(content);
+			StringBuilder hash = new StringBuilder(digest.length * 2);
+			for(byte digestByte : digest) {
+				hash.append(Character.forDigit((digestByte >> 4) & 0xF, 16));
+				hash.append(Character.forDigit(digestByte & 0xF, 16));
+			}
+			
+			return hash.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is not supported by the JVM", e);
+		}
+	}
+	
+	/**
+	 * Compares this snapshot with an older snapshot of the same project.
+	 * 
+	 * @param previousSnapshot the older snapshot
+	 * @return the changes between the two snapshots
+	 */
+	public FileChanges getChangesSince(ProjectSnapshot previousSnapshot) {
+		Set<String> addedFiles = new HashSet<>();
+		Set<String> changedFiles = new HashSet<>();
+		Set<String> deletedFiles = new HashSet<>(previousSnapshot.fileStates.keySet());
+		
+		for(Map.Entry<String, FileState> entry : fileStates.entrySet()) {
+			FileState previousState = previousSnapshot.fileStates.get(entry.getKey());
+			deletedFiles.remove(entry.getKey());
+			
+			if(previousState == null)
+				addedFiles.add(entry.getKey());
+			else if(!previousState.contentHash.equals(entry.getValue().contentHash))
+				changedFiles.add(entry.getKey());
+		}
+		
+		return new FileChanges(addedFiles, changedFiles, deletedFiles);
+	}
+	
+	public Set<String> getFilePaths() {
+		return Collections.unmodifiableSet(fileStates.keySet());
+	}
+	
+	/**
+	 * Returns the content hash of the given file, or {@code null} if the file is not part of
+	 * the snapshot.
+	 * 
+	 * @param filePath the normalised path of the file
+	 * @return the content hash of the file
+	 */
+	public String getContentHash(String filePath) {
+		FileState fileState = fileStates.get(filePath);
+		return fileState == null ? null : fileState.contentHash;
+	}
+	
+	
+	private static class FileState {
+		private final long size;
+		private final long lastModified;
+		private final String contentHash;
+		
+		FileState(long size, long lastModified, String contentHash) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.contentHash = contentHash;
+		}
+	}
+	
+	/**
+	 * The files that were added, changed or deleted between two snapshots. All the files are
+	 * described by their normalised paths.
+	 */
+	public static class FileChanges {
+		private final Set<String> addedFiles;
+		private final Set<String> changedFiles;
+		private final Set<String> deletedFiles;
+		
+		FileChanges(Set<String> addedFiles, Set<String> changedFiles, Set<String> deletedFiles) {
+			this.addedFiles = addedFiles;
+			this.changedFiles = changedFiles;
+			this.deletedFiles = deletedFiles;
+		}
+		
+		public boolean isEmpty() {
+			return addedFiles.isEmpty() && changedFiles.isEmpty() && deletedFiles.isEmpty();
+		}
+		
+		/**
+		 * Returns the files that have to be analysed again, i.e. the added and the changed ones.
+		 * 
+		 * @return a list with the added and changed files
+		 */
+		public List<File> getFilesToAnalyse() {
+			List<File> filesToAnalyse = new ArrayList<>(addedFiles.size() + changedFiles.size());
+			addedFiles.forEach(path -> filesToAnalyse.add(new File(path)));
+			changedFiles.forEach(path -> filesToAnalyse.add(new File(path)));
+			
+			return filesToAnalyse;
+		}
+		
+		/**
+		 * A convenience method which checks if the results of the given file are outdated.
+		 * 
+		 * @param filePath the normalised path of the file
+		 * @return true if the file was added, changed or deleted; false otherwise
+		 */
+		public boolean affects(String filePath) {
+			return addedFiles.contains(filePath) || changedFiles.contains(filePath) || deletedFiles.contains(filePath);
+		}
+	}
+
+}
@@ -0,0 +1,259 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches the directory tree of a project and runs the detection again whenever java files
+ * change, e.g. while the results are open next to the editor. A burst of events, like the
+ * ones of a save or a checkout, is coalesced into a single run once the tree has been quiet
+ * for {@link #DEBOUNCE_MILLIS}. The runs are incremental, so only the changed files are
+ * analysed, and the listener is given the smells that appeared and disappeared since the
+ * previous run.
+ *
+ * The watching thread sleeps in the {@code WatchService} while nothing changes. Hidden
+ * directories, e.g. {@code .git}, and the usual build output directories are not watched, so
+ * that commits and builds do not start a run.
+ */
+public class ProjectWatcher {
+
+	public static final long DEBOUNCE_MILLIS = 300;
+
+	//The directories that hold build output rather than sources
+	private static final Set<String> IGNORED_DIRECTORY_NAMES = Set.of("target", "build", "bin", "out", "node_modules");
+
+	private final SmellType smellType;
+	private final String projectDirectory;
+	private final DetectionOptions options;
+	private final Consumer<SmellChanges> changesListener;
+	private final WatchService watchService;
+	private final Map<WatchKey, Path> watchedDirectories = new LinkedHashMap<>();
+	private Map<String, Smell> currentSmells;
+	private Thread watchingThread;
+
+	/**
+	 * Creates a watcher of the given project. The detection options are expected to be
+	 * incremental; otherwise every change makes the whole project be analysed again.
+	 *
+	 * @param smellType the smell type to be detected
+	 * @param projectDirectory the directory of the project
+	 * @param options the options of the detection
+	 * @param initialSmells the smells of the last run of the project, or {@code null} if there is none
+	 * @param changesListener called from the watching thread with the changes of every run
+	 * @throws IOException if the directories of the project cannot be watched
+	 */
+	public ProjectWatcher(SmellType smellType, String projectDirectory, DetectionOptions options,
+			SmellStore initialSmells, Consumer<SmellChanges> changesListener) throws IOException {
+		this.smellType = smellType;
+		this.projectDirectory = projectDirectory;
+		this.options = options;
+		this.changesListener = changesListener;
+		this.currentSmells = initialSmells == null ? Collections.emptyMap() : indexSmells(initialSmells);
+		this.watchService = FileSystems.getDefault().newWatchService();
+		registerTree(Path.of(projectDirectory));
+	}
+
+	public synchronized void start() {
+		if(watchingThread != null)
+			return;
+
+		watchingThread = new Thread(this::watch, "ProjectWatcher-" + new File(projectDirectory).getName());
+		watchingThread.setDaemon(true);
+		watchingThread.start();
+	}
+
+	/**
+	 * Stops watching the project. A run that has already started is allowed to end, but its
+	 * changes are not reported.
+	 */
+	public synchronized void stop() {
+		if(watchingThread != null)
+			watchingThread.interrupt();
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void watch() {
+		try {
+			while(!Thread.currentThread().isInterrupted()) {
+				//Blocks until something changes in the project
+				boolean javaFilesChanged = processEvents(watchService.take());
+
+				//Waits for the end of the burst, taking every event that follows
+				WatchKey nextKey;
+				while((nextKey = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+					javaFilesChanged |= processEvents(nextKey);
+				}
+
+				if(javaFilesChanged)
+					detectChanges();
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			//The watcher was stopped
+		}
+	}
+
+	/**
+	 * Takes the events of the given key, and starts watching the directories that were created.
+	 *
+	 * @return true if a java file changed, or a watched directory was created or deleted; false otherwise
+	 */
+	private boolean processEvents(WatchKey key) {
+		Path directory = watchedDirectories.get(key);
+		boolean javaFilesChanged = false;
+
+		for(WatchEvent<?> event : key.pollEvents()) {
+			if(event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+				//Events were lost, so the snapshot of the project has to find the changes
+				javaFilesChanged = true;
+				continue;
+			}
+
+			Path path = directory.resolve((Path) event.context());
+			if(event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+				if(isIgnoredDirectory(path))
+					continue;
+				try {
+					registerTree(path);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				javaFilesChanged = true;
+			} else if(path.toString().endsWith(".java")) {
+				javaFilesChanged = true;
+			} else if(event.kind() == StandardWatchEventKinds.ENTRY_DELETE && watchedDirectories.containsValue(path)) {
+				//A deleted or renamed directory takes its java files with it
+				javaFilesChanged = true;
+			}
+		}
+
+		//A watched directory that is gone, whichever of its events came first
+		if(!key.reset() && watchedDirectories.remove(key) != null)
+			javaFilesChanged = true;
+		return javaFilesChanged;
+	}
+
+	private void registerTree(Path root) throws IOException {
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) throws IOException {
+				if(!directory.equals(root) && isIgnoredDirectory(directory))
+					return FileVisitResult.SKIP_SUBTREE;
+
+				WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+				watchedDirectories.put(key, directory);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private static boolean isIgnoredDirectory(Path directory) {
+		String name = directory.getFileName().toString();
+		return name.startsWith(".") || IGNORED_DIRECTORY_NAMES.contains(name);
+	}
+
+	private void detectChanges() {
+		long startTime = System.nanoTime();
+		SmellDetectionManager smellDetectionManager = new SmellDetectionManager(smellType, projectDirectory, options);
+		SmellStore detectedSmells = smellDetectionManager.getDetectedSmells();
+		if(detectedSmells == null || Thread.currentThread().isInterrupted())
+			return;
+
+		Map<String, Smell> newSmells = indexSmells(detectedSmells);
+		List<Smell> removedSmells = new ArrayList<>();
+		List<Smell> addedSmells = new ArrayList<>();
+		currentSmells.forEach((key, smell) -> {
+			if(!newSmells.containsKey(key))
+				removedSmells.add(smell);
+		});
+		newSmells.forEach((key, smell) -> {
+			if(!currentSmells.containsKey(key))
+				addedSmells.add(smell);
+		});
+		//The listeners know the smells that did not change by their first instance, e.g. a row of the
+		//results table, so that instance has to be the one that is reported when the smell is removed
+		newSmells.replaceAll((key, smell) -> currentSmells.getOrDefault(key, smell));
+		currentSmells = newSmells;
+
+		changesListener.accept(new SmellChanges(detectedSmells, addedSmells, removedSmells,
+				(System.nanoTime() - startTime) / 1_000_000));
+	}
+
+	/**
+	 * Indexes the smells by everything that is shown of them, so that a smell that moved to
+	 * another line or was found by another detector is reported as removed and added again.
+	 */
+	private static Map<String, Smell> indexSmells(SmellStore smells) {
+		Map<String, Smell> smellsByKey = new LinkedHashMap<>();
+		smells.stream().forEach(smell -> smellsByKey.put(smell.getSmellType() + "|" + smell.getClassName() + "|"
+				+ smell.getMethodName() + "|" + (smell.getTargetFile() == null ? "" : Utils.getNormalisedPath(smell.getTargetFile())) + "|"
+				+ smell.getTargetStartLine() + "|" + smell.getTargetEndLine() + "|" + smell.getDuplicationGroupId() + "|"
+				+ smell.getDetectorNames(), smell));
+		return smellsByKey;
+	}
+
+
+	/**
+	 * The difference between the smells of two consecutive runs of a watched project.
+	 */
+	public static class SmellChanges {
+		private final SmellStore detectedSmells;
+		private final List<Smell> addedSmells;
+		private final List<Smell> removedSmells;
+		private final long elapsedMillis;
+
+		SmellChanges(SmellStore detectedSmells, List<Smell> addedSmells, List<Smell> removedSmells, long elapsedMillis) {
+			this.detectedSmells = detectedSmells;
+			this.addedSmells = Collections.unmodifiableList(addedSmells);
+			this.removedSmells = Collections.unmodifiableList(removedSmells);
+			this.elapsedMillis = elapsedMillis;
+		}
+
+		/**
+		 * Returns all the smells of the new run.
+		 *
+		 * @return the {@code SmellStore} of the new run
+		 */
+		public SmellStore getDetectedSmells() {
+			return detectedSmells;
+		}
+
+		public List<Smell> getAddedSmells() {
+			return addedSmells;
+		}
+
+		public List<Smell> getRemovedSmells() {
+			return removedSmells;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		public boolean isEmpty() {
+			return addedSmells.isEmpty() && removedSmells.isEmpty();
+		}
+	}
+
+}
@@ -0,0 +1,496 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A detector for the smells that only need counting: long files, long methods and long
+ * parameter lists. Instead of building a syntax tree, every file is memory-mapped and read once
+ * by a small lexer that only follows the braces and the method signatures, so the whole project
+ * is scanned long before the full detectors end. The files are scanned in parallel, one file per
+ * worker thread.
+ *
+ * The thresholds are the lowest ones of the CheckStyle and PMD rules that report the same smells,
+ * so the quick scan reports everything that one of the two tools will report.
+ */
+public class QuickScanSmellDetector extends SmellDetector {
+
+	//Changing the scanner or a threshold must change the version, so that cached results are not reused
+	private static final String SCAN_VERSION = "quick-scan:1";
+
+	//CheckStyle's FileLength reports files of more than 2000 lines
+	private static final int MAX_FILE_LINES = 2000;
+	//PMD's ExcessiveMethodLength reports methods of 100 lines, before CheckStyle's MethodLength does at 150
+	private static final int LONG_METHOD_LINES = 100;
+	//CheckStyle's ParameterNumber reports more than 7 parameters, before PMD's ExcessiveParameterList does at 10
+	private static final int MAX_PARAMETERS = 7;
+
+	private String projectDirectory;
+	private SmellStore detectedSmells;
+
+	public QuickScanSmellDetector(String projectDirectory) {
+		this.projectDirectory = projectDirectory;
+		this.detectedSmells = new SmellStore();
+	}
+
+	private static final Set<SmellType> SUPPORTED_SMELL_TYPES = Collections.unmodifiableSet(
+			new HashSet<>(Arrays.asList(SmellType.GOD_CLASS, SmellType.LONG_METHOD, SmellType.LONG_PARAMETER_LIST)));
+
+	@Override
+	public Set<SmellType> getSupportedSmellTypes() {
+		return SUPPORTED_SMELL_TYPES;
+	}
+
+	@Override
+	public String getDetectorName() {
+		return "QuickScan";
+	}
+
+	@Override
+	public String getConfigurationId() {
+		return SCAN_VERSION;
+	}
+
+	@Override
+	public void findSmells(SmellType smellType, SmellStore detectedSmells) throws Exception {
+		List<File> javaFiles = getAnalysisScope() != null ? getAnalysisScope() : collectJavaFiles();
+
+		List<List<Finding>> fileFindings;
+		AtomicInteger scannedFiles = new AtomicInteger();
+		try {
+			fileFindings = javaFiles.parallelStream()
+									.map(javaFile -> {
+										try {
+											List<Finding> findings = scanFile(javaFile);
+											reportFilesAnalysed(scannedFiles.incrementAndGet(), javaFiles.size());
+											return findings;
+										} catch (IOException e) {
+											throw new UncheckedIOException(e);
+										}
+									})
+									.collect(Collectors.toList());
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		//The findings are added in the order of the files, so every run gives the same order
+		for(int i = 0; i < javaFiles.size(); i++) {
+			File targetFile = javaFiles.get(i);
+			String className = targetFile.getName().replace(".java", "");
+
+			for(Finding finding : fileFindings.get(i)) {
+				if(finding.smellType == SmellType.GOD_CLASS) {
+					detectedSmells.add(getDetectorName(),
+							Utils.createSmellObject(finding.smellType, className, targetFile, finding.line));
+				} else {
+					detectedSmells.add(getDetectorName(),
+							Utils.createSmellObject(finding.smellType, className, finding.methodName, targetFile, finding.line));
+				}
+			}
+		}
+
+		this.detectedSmells = detectedSmells;
+	}
+
+	private List<File> collectJavaFiles() throws IOException {
+		try(Stream<Path> paths = Files.walk(Path.of(projectDirectory))) {
+			return paths.filter(path -> path.toString().endsWith(".java") && Files.isRegularFile(path))
+						.sorted()
+						.map(Path::toFile)
+						.collect(Collectors.toList());
+		}
+	}
+
+	private static List<Finding> scanFile(File javaFile) throws IOException {
+		try(FileChannel channel = FileChannel.open(javaFile.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer source = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			return new FileScanner(source).scan();
+		}
+	}
+
+	@Override
+	public SmellStore getDetectedSmells() {
+		return this.detectedSmells;
+	}
+
+
+	/**
+	 * A smell that the scanner found in a file.
+	 */
+	private static class Finding {
+		private final SmellType smellType;
+		private final String methodName;
+		private final int line;
+
+		Finding(SmellType smellType, String methodName, int line) {
+			this.smellType = smellType;
+			this.methodName = methodName;
+			this.line = line;
+		}
+	}
+
+	/**
+	 * A single pass over the bytes of a file. The scanner keeps a stack of the open braces and
+	 * what each one opened (a type, a method or any other block), and follows the tokens of the
+	 * current member of the innermost type until its first {@code ;} or {@code {}, which is all
+	 * that is needed to recognise a method signature and count its parameters. Comments and
+	 * literals are skipped, and no objects are created except for the findings.
+	 */
+	private static class FileScanner {
+		private static final int TYPE_BODY = 0;
+		private static final int METHOD_BODY = 1;
+		private static final int OTHER_BLOCK = 2;
+
+		private static final int IDENTIFIER = -1;
+		private static final int LITERAL = -2;
+		private static final int NONE = -3;
+
+		private static final byte[][] TYPE_KEYWORDS = {"class".getBytes(StandardCharsets.US_ASCII),
+				"interface".getBytes(StandardCharsets.US_ASCII), "enum".getBytes(StandardCharsets.US_ASCII),
+				"record".getBytes(StandardCharsets.US_ASCII)};
+
+		private final ByteBuffer source;
+		private final int length;
+		private final List<Finding> findings = new ArrayList<>(0);
+		private int position;
+		private int line = 1;
+
+		//The stack of the open braces: their kind, and for types and methods the name and the lines
+		private int depth;
+		private int[] braceKinds = new int[16];
+		private int[] braceNameStarts = new int[16];
+		private int[] braceNameEnds = new int[16];
+		private int[] braceStartLines = new int[16];
+		private int[] braceNameLines = new int[16];
+
+		//The member of the innermost type that is being read
+		private int memberStartLine;
+		private boolean memberIsType;
+		private boolean memberHasAssignment;
+		private int typeNameStart;
+		private int typeNameEnd;
+		private int methodNameStart;
+		private int methodNameEnd;
+		private int methodNameLine;
+		private boolean inParameters;
+		private boolean signatureClosed;
+		private boolean parametersEmpty;
+		private int parameterCount;
+		private int parenDepth;
+		private int angleDepth;
+
+		//The last two tokens, as IDENTIFIER, LITERAL, NONE or the character of a symbol
+		private int previousToken = NONE;
+		private int previousStart;
+		private int previousEnd;
+		private int previousLine;
+		private int tokenBeforePrevious = NONE;
+
+		FileScanner(ByteBuffer source) {
+			this.source = source;
+			this.length = source.limit();
+			resetMember();
+		}
+
+		List<Finding> scan() {
+			while(position < length) {
+				int current = source.get(position);
+				int next = position + 1 < length ? source.get(position + 1) : 0;
+
+				if(current == '\n' || (current == '\r' && next != '\n')) {
+					line++;
+					position++;
+				} else if(current == ' ' || current == '\t' || current == '\r' || current == '\f') {
+					position++;
+				} else if(current == '/' && next == '/') {
+					while(position < length && source.get(position) != '\n' && source.get(position) != '\r')
+						position++;
+				} else if(current == '/' && next == '*') {
+					skipBlockComment();
+				} else if(current == '"' || current == '\'') {
+					int tokenLine = line;
+					skipLiteral(current);
+					onToken(LITERAL, 0, 0, tokenLine);
+				} else if(isIdentifierPart(current)) {
+					int start = position;
+					do {
+						position++;
+					} while(position < length && isIdentifierPart(source.get(position)));
+					onToken(IDENTIFIER, start, position, line);
+				} else {
+					position++;
+					onToken(current, 0, 0, line);
+				}
+			}
+
+			//A last line without a line break is still a line
+			int fileLines = length == 0 ? 0 : (source.get(length - 1) == '\n' || source.get(length - 1) == '\r' ? line - 1 : line);
+			if(fileLines > MAX_FILE_LINES)
+				findings.add(0, new Finding(SmellType.GOD_CLASS, null, 1));
+
+			return findings;
+		}
+
+		private void onToken(int token, int start, int end, int tokenLine) {
+			if(depth == 0 || braceKinds[depth - 1] == TYPE_BODY)
+				onMemberToken(token, start, end, tokenLine);
+			else if(token == '{')
+				openBrace(OTHER_BLOCK);
+			else if(token == '}')
+				closeBrace();
+
+			tokenBeforePrevious = previousToken;
+			previousToken = token;
+			previousStart = start;
+			previousEnd = end;
+			previousLine = tokenLine;
+		}
+
+		private void onMemberToken(int token, int start, int end, int tokenLine) {
+			if(memberStartLine == 0)
+				memberStartLine = tokenLine;
+
+			switch(token) {
+			case IDENTIFIER:
+				if(inParameters && parenDepth == 1) {
+					parametersEmpty = false;
+				} else if(parenDepth == 0 && !signatureClosed) {
+					if(isTypeKeyword(start, end) && previousToken != '.') {
+						memberIsType = true;
+					} else if(memberIsType && typeNameStart == -1) {
+						typeNameStart = start;
+						typeNameEnd = end;
+					}
+				}
+				break;
+			case '(':
+				//A contextual keyword without a type name after it, e.g. a method named record
+				if(parenDepth == 0 && memberIsType && typeNameStart == -1)
+					memberIsType = false;
+				if(parenDepth == 0 && !memberIsType && !memberHasAssignment && !signatureClosed && isMethodName()) {
+					methodNameStart = previousStart;
+					methodNameEnd = previousEnd;
+					methodNameLine = previousLine;
+					inParameters = true;
+					parametersEmpty = true;
+					parameterCount = 1;
+				}
+				parenDepth++;
+				break;
+			case ')':
+				parenDepth = Math.max(0, parenDepth - 1);
+				if(parenDepth == 0 && inParameters) {
+					inParameters = false;
+					signatureClosed = true;
+					if(parametersEmpty)
+						parameterCount = 0;
+				}
+				break;
+			case ',':
+				if(inParameters && parenDepth == 1 && angleDepth == 0)
+					parameterCount++;
+				break;
+			case '<':
+				if(inParameters && parenDepth == 1)
+					angleDepth++;
+				break;
+			case '>':
+				if(inParameters && parenDepth == 1)
+					angleDepth = Math.max(0, angleDepth - 1);
+				break;
+			case '=':
+				if(parenDepth == 0 && !signatureClosed)
+					memberHasAssignment = true;
+				break;
+			case ';':
+				if(parenDepth == 0) {
+					//A method without a body, e.g. an abstract method or a method of an interface
+					if(signatureClosed)
+						checkParameters();
+					resetMember();
+				}
+				break;
+			case '{':
+				if(memberIsType) {
+					openBrace(TYPE_BODY);
+					braceNameStarts[depth - 1] = typeNameStart;
+					braceNameEnds[depth - 1] = typeNameEnd;
+				} else if(signatureClosed) {
+					checkParameters();
+					openBrace(METHOD_BODY);
+					braceNameStarts[depth - 1] = methodNameStart;
+					braceNameEnds[depth - 1] = methodNameEnd;
+					braceStartLines[depth - 1] = memberStartLine;
+					braceNameLines[depth - 1] = methodNameLine;
+				} else {
+					openBrace(OTHER_BLOCK);
+				}
+				resetMember();
+				break;
+			case '}':
+				closeBrace();
+				break;
+			default:
+				break;
+			}
+		}
+
+		/**
+		 * Checks if the identifier before a '(' is the name of a method that is being declared,
+		 * i.e. it follows a type (an identifier, or the end of a generic or array type), or it is
+		 * the name of the enclosing type, which makes it a constructor.
+		 */
+		private boolean isMethodName() {
+			if(previousToken != IDENTIFIER || tokenBeforePrevious == '@' || tokenBeforePrevious == '.')
+				return false;
+			if(tokenBeforePrevious == IDENTIFIER || tokenBeforePrevious == '>' || tokenBeforePrevious == ']')
+				return true;
+
+			return depth > 0 && braceNameStarts[depth - 1] != -1
+					&& sameBytes(previousStart, previousEnd, braceNameStarts[depth - 1], braceNameEnds[depth - 1]);
+		}
+
+		private void checkParameters() {
+			if(parameterCount > MAX_PARAMETERS)
+				findings.add(new Finding(SmellType.LONG_PARAMETER_LIST, getText(methodNameStart, methodNameEnd), memberStartLine));
+		}
+
+		private void openBrace(int kind) {
+			if(depth == braceKinds.length) {
+				braceKinds = Arrays.copyOf(braceKinds, depth * 2);
+				braceNameStarts = Arrays.copyOf(braceNameStarts, depth * 2);
+				braceNameEnds = Arrays.copyOf(braceNameEnds, depth * 2);
+				braceStartLines = Arrays.copyOf(braceStartLines, depth * 2);
+				braceNameLines = Arrays.copyOf(braceNameLines, depth * 2);
+			}
+
+			braceKinds[depth] = kind;
+			braceNameStarts[depth] = -1;
+			depth++;
+		}
+
+		private void closeBrace() {
+			//An unbalanced brace, e.g. in code that does not compile, is ignored
+			if(depth == 0)
+				return;
+
+			depth--;
+			if(braceKinds[depth] == METHOD_BODY && line - braceNameLines[depth] + 1 >= LONG_METHOD_LINES)
+				findings.add(new Finding(SmellType.LONG_METHOD, getText(braceNameStarts[depth], braceNameEnds[depth]), braceStartLines[depth]));
+			if(depth == 0 || braceKinds[depth - 1] == TYPE_BODY)
+				resetMember();
+		}
+
+		private void resetMember() {
+			memberStartLine = 0;
+			memberIsType = false;
+			memberHasAssignment = false;
+			typeNameStart = -1;
+			inParameters = false;
+			signatureClosed = false;
+			parenDepth = 0;
+			angleDepth = 0;
+		}
+
+		private void skipBlockComment() {
+			position += 2;
+			while(position < length) {
+				int current = source.get(position);
+				if(current == '*' && position + 1 < length && source.get(position + 1) == '/') {
+					position += 2;
+					return;
+				}
+				countLineBreak(current);
+				position++;
+			}
+		}
+
+		private void skipLiteral(int quote) {
+			boolean textBlock = quote == '"' && position + 2 < length && source.get(position + 1) == '"' && source.get(position + 2) == '"';
+			position += textBlock ? 3 : 1;
+
+			while(position < length) {
+				int current = source.get(position);
+				if(current == '\\') {
+					position += 2;
+					continue;
+				}
+				if(textBlock) {
+					if(current == '"' && position + 2 < length && source.get(position + 1) == '"' && source.get(position + 2) == '"') {
+						position += 3;
+						return;
+					}
+					countLineBreak(current);
+				} else if(current == quote || current == '\n' || current == '\r') {
+					//An unterminated literal ends at the end of its line
+					if(current == quote)
+						position++;
+					return;
+				}
+				position++;
+			}
+		}
+
+		private void countLineBreak(int current) {
+			if(current == '\n' || (current == '\r' && (position + 1 >= length || source.get(position + 1) != '\n')))
+				line++;
+		}
+
+		private static boolean isIdentifierPart(int current) {
+			//Bytes of multi-byte characters are negative, and can only be part of identifiers outside literals and comments
+			return (current >= 'a' && current <= 'z') || (current >= 'A' && current <= 'Z') || (current >= '0' && current <= '9')
+					|| current == '_' || current == '$' || current < 0;
+		}
+
+		private boolean isTypeKeyword(int start, int end) {
+			for(byte[] keyword : TYPE_KEYWORDS) {
+				if(end - start == keyword.length) {
+					int i = 0;
+					while(i < keyword.length && source.get(start + i) == keyword[i])
+						i++;
+					if(i == keyword.length)
+						return true;
+				}
+			}
+
+			return false;
+		}
+
+		private boolean sameBytes(int start, int end, int otherStart, int otherEnd) {
+			if(end - start != otherEnd - otherStart)
+				return false;
+
+			for(int i = 0; i < end - start; i++) {
+				if(source.get(start + i) != source.get(otherStart + i))
+					return false;
+			}
+
+			return true;
+		}
+
+		private String getText(int start, int end) {
+			byte[] text = new byte[end - start];
+			for(int i = 0; i < text.length; i++) {
+				text[i] = source.get(start + i);
+			}
+
+			return new String(text, StandardCharsets.UTF_8);
+		}
+	}
+
+}
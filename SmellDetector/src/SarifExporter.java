@@ -0,0 +1,98 @@
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes the smells as a SARIF 2.1.0 log with a single run, which code review tools can
+ * show next to the code. Every smell is a result whose rule is the smell type; the class, the
+ * method, the duplication group and the detectors of the smell are kept in the properties of
+ * the result. The log is written while the smells arrive, and its closing brackets are
+ * written when the exporter is closed.
+ *
+ * Every result has a {@value #FINGERPRINT_NAME} partial fingerprint (see
+ * {@link SmellExporter#createFingerprint(Smell)}), so that tools can follow a smell across
+ * runs, and can tell the copies of a smell apart from other smells when logs of several runs
+ * or exports are combined.
+ */
+public class SarifExporter implements SmellStreamExporter {
+
+	private static final String SCHEMA = "https://json.schemastore.org/sarif-2.1.0.json";
+	private static final String TOOL_NAME = "SmellDetector";
+	static final String FINGERPRINT_NAME = "smellIdentity/v1";
+
+	private final Writer writer;
+	private boolean firstResult = true;
+
+	/**
+	 * Creates the exporter and writes the start of the log.
+	 *
+	 * @param writer the writer of the log
+	 * @throws IOException if the start of the log cannot be written
+	 */
+	public SarifExporter(Writer writer) throws IOException {
+		this.writer = writer;
+		writer.write("{\"$schema\":\"" + SCHEMA + "\",\"version\":\"2.1.0\",\"runs\":[{\"tool\":{\"driver\":{\"name\":\""
+				+ TOOL_NAME + "\"}},\"results\":[\n");
+	}
+
+	@Override
+	public void writeSmell(Smell smell) throws IOException {
+		StringBuilder result = new StringBuilder(512);
+		result.append(firstResult ? "" : ",\n")
+			.append("{\"ruleId\":").append(SmellExporter.toJsonString(smell.getSmellType().name()))
+			.append(",\"level\":\"warning\"")
+			.append(",\"message\":{\"text\":").append(SmellExporter.toJsonString(smell.getSmellType().getName()
+					+ " in " + smell.getAffectedElementName())).append('}')
+			.append(",\"locations\":[{");
+
+		if(smell.getTargetFile() != null) {
+			result.append("\"physicalLocation\":{\"artifactLocation\":{\"uri\":")
+				.append(SmellExporter.toJsonString(smell.getTargetFile().getAbsoluteFile().toURI().toString())).append('}');
+			//SARIF lines start at 1, so a smell without a known line only points to its file
+			if(smell.getTargetStartLine() > 0) {
+				result.append(",\"region\":{\"startLine\":").append(smell.getTargetStartLine());
+				if(smell.getTargetEndLine() >= smell.getTargetStartLine())
+					result.append(",\"endLine\":").append(smell.getTargetEndLine());
+				result.append('}');
+			}
+			result.append("},");
+		}
+		String qualifiedName = smell.getMethodName() == null ? smell.getClassName() : smell.getClassName() + "." + smell.getMethodName();
+		result.append("\"logicalLocations\":[{\"fullyQualifiedName\":").append(SmellExporter.toJsonString(qualifiedName))
+			.append(",\"kind\":").append(smell.getMethodName() == null ? "\"type\"" : "\"function\"").append("}]}]");
+
+		result.append(",\"partialFingerprints\":{").append(SmellExporter.toJsonString(FINGERPRINT_NAME)).append(':')
+			.append(SmellExporter.toJsonString(SmellExporter.createFingerprint(smell))).append('}');
+
+		result.append(",\"properties\":{\"className\":").append(SmellExporter.toJsonString(smell.getClassName()))
+			.append(",\"methodName\":").append(SmellExporter.toJsonString(smell.getMethodName()))
+			.append(",\"startLine\":").append(smell.getTargetStartLine())
+			.append(",\"endLine\":").append(smell.getTargetEndLine())
+			.append(",\"duplicationGroupId\":").append(smell.getSmellType() == SmellType.DUPLICATE_CODE
+					? String.valueOf(smell.getDuplicationGroupId()) : "null")
+			.append(",\"detectors\":[");
+		boolean firstDetector = true;
+		for(String detectorName : smell.getDetectorNameSet()) {
+			result.append(firstDetector ? "" : ",").append(SmellExporter.toJsonString(detectorName));
+			firstDetector = false;
+		}
+		result.append("]}}");
+
+		writer.write(result.toString());
+		firstResult = false;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			writer.write("\n]}]}\n");
+		} finally {
+			writer.close();
+		}
+	}
+
+}
@@ -1,5 +1,6 @@
 
 import java.io.File;
+import java.util.Collections;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
@@ -44,6 +45,10 @@ public class Smell {
 		return className;
 	}
 	
+	public String getMethodName() {
+		return methodName;
+	}
+	
 	public SmellType getSmellType() {
 		return smellType;
 	}
@@ -64,10 +69,52 @@ public class Smell {
 		return duplicationGroupId;
 	}
 	
+	/**
+	 * Creates a copy of this duplicate that belongs to the given duplication group. The
+	 * detector names are copied as well.
+	 * 
+	 * @param newDuplicationGroupId the duplication group of the copy
+	 * @return a new {@code Smell} that only differs in its duplication group id
+	 */
+	public Smell withDuplicationGroupId(int newDuplicationGroupId) {
+		Smell copy = new Builder(smellType)
+							.setDuplicationGroupId(newDuplicationGroupId)
+							.setClassName(className)
+							.setMethodName(methodName)
+							.setTargetFile(targetFile)
+							.setStartLine(startLine)
+							.setEndLine(endLine)
+							.build();
+		copy.detectorNamesSet.addAll(detectorNamesSet);
+		
+		return copy;
+	}
+	
+	/**
+	 * Creates a copy of this smell, including the detector names.
+	 * 
+	 * @return a new {@code Smell} that is equal to this one
+	 */
+	public Smell copy() {
+		return withDuplicationGroupId(duplicationGroupId);
+	}
+	
 	public void addDetectorName(String detectorName) {
 		detectorNamesSet.add(detectorName);
 	}
 	
+	public boolean isDetectedBy(String detectorName) {
+		return detectorNamesSet.contains(detectorName);
+	}
+	
+	public int getDetectorCount() {
+		return detectorNamesSet.size();
+	}
+	
+	public Set<String> getDetectorNameSet() {
+		return Collections.unmodifiableSet(detectorNamesSet);
+	}
+	
 	public String getDetectorNames() {
 		StringBuilder builder = new StringBuilder();
 		detectorNamesSet.forEach( detectorName -> {
@@ -0,0 +1,443 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * A cache that keeps the file-local smells that a detector found in a file, so that a file
+ * whose content was already analysed does not have to be analysed again, even in another
+ * project or branch. An entry is found by the content hash of the file, the name of the
+ * detector and the configuration of the detector (tool version and configuration file).
+ *
+ * The cache is kept in a binary file of the data directory of the application. The file is
+ * memory-mapped when the cache is loaded and an entry is only decoded when it is asked for.
+ * When the cache is saved, entries that were not used for a long time are dropped, and the
+ * least recently used ones are dropped until the file fits in its size limit.
+ *
+ * The directory is shared by every process of the user, e.g. the command line, the daemon and
+ * the workers, so loading and saving hold a lock on it. A save first takes the entries that
+ * other processes saved since the cache was loaded, so that none of them is lost.
+ */
+public class SmellCache {
+
+	private static final int MAGIC_NUMBER = 0x534D4331;
+	private static final int FORMAT_VERSION = 1;
+	private static final int KEY_LENGTH = 20;
+	private static final String CACHE_FILE_PREFIX = "smell-cache-";
+	private static final String CACHE_FILE_SUFFIX = ".bin";
+	private static final String LOCK_FILE_NAME = "smell-cache.lock";
+
+	//The size limit of the cache file in bytes
+	private static final long DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+	//Entries that were not used for longer than this are dropped when the cache is saved
+	private static final long MAX_ENTRY_AGE_MILLIS = TimeUnit.DAYS.toMillis(30);
+	//A use of an entry only makes the cache be saved again when the saved use is older than this,
+	//so that runs that only hit the cache do not rewrite the whole file
+	private static final long LAST_USED_PRECISION_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+	private static SmellCache defaultCache;
+
+	private final File cacheDirectory;
+	private final long maxSize;
+	private final Map<CacheKey, CacheEntry> entries = new HashMap<>();
+	private File loadedCacheFile;
+	private boolean modified;
+
+	private SmellCache(File cacheDirectory, long maxSize) {
+		this.cacheDirectory = cacheDirectory;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Returns the cache of the current user, which is loaded the first time it is asked for.
+	 * If the cache file cannot be read, an empty cache is returned.
+	 *
+	 * @return the {@code SmellCache} of the application
+	 */
+	public static synchronized SmellCache getDefault() {
+		if(defaultCache == null) {
+			try {
+				defaultCache = load(Utils.getApplicationDataDirectory(), DEFAULT_MAX_SIZE);
+			} catch (IOException e) {
+				e.printStackTrace();
+				defaultCache = new SmellCache(new File(System.getProperty("user.home"), ".smelldetector"), DEFAULT_MAX_SIZE);
+			}
+		}
+
+		return defaultCache;
+	}
+
+	/**
+	 * Loads the newest cache file of the given directory. A file that is damaged or has an
+	 * older format is ignored and will be replaced on the next save.
+	 *
+	 * @param cacheDirectory the directory of the cache files
+	 * @param maxSize the size limit of the cache file in bytes
+	 * @return the loaded {@code SmellCache}
+	 * @throws IOException
+	 */
+	public static SmellCache load(File cacheDirectory, long maxSize) throws IOException {
+		SmellCache cache = new SmellCache(cacheDirectory, maxSize);
+		Files.createDirectories(cacheDirectory.toPath());
+		synchronized (SmellCache.class) {
+			try(FileChannel lockChannel = openLockFile(cacheDirectory); FileLock lock = lockChannel.lock()) {
+				cache.loadedCacheFile = findNewestCacheFile(cacheDirectory);
+				if(cache.loadedCacheFile != null)
+					readEntries(cache.loadedCacheFile, cache.entries);
+			}
+		}
+
+		return cache;
+	}
+
+	/**
+	 * Reads the entries of the given cache file into the given map. The records of the entries
+	 * stay in the mapped file until they are asked for.
+	 */
+	private static void readEntries(File cacheFile, Map<CacheKey, CacheEntry> entries) throws IOException {
+		MappedByteBuffer buffer;
+		try(FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		Map<CacheKey, CacheEntry> fileEntries = new HashMap<>();
+		try {
+			if(buffer.getInt() != MAGIC_NUMBER || buffer.getInt() != FORMAT_VERSION)
+				return;
+
+			int entryCount = buffer.getInt();
+			for(int i = 0; i < entryCount; i++) {
+				byte[] key = new byte[KEY_LENGTH];
+				buffer.get(key);
+				long lastUsed = buffer.getLong();
+				int recordsLength = buffer.getInt();
+
+				ByteBuffer records = buffer.slice(buffer.position(), recordsLength);
+				buffer.position(buffer.position() + recordsLength);
+				fileEntries.put(new CacheKey(key), new CacheEntry(lastUsed, records));
+			}
+		} catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+			System.err.println("The smell cache file " + cacheFile + " is damaged and will be replaced");
+			return;
+		}
+
+		entries.putAll(fileEntries);
+	}
+
+	/**
+	 * Returns the finished cache files of the given directory, from the oldest to the newest.
+	 * The temporary files of saves that are still being written are left out.
+	 */
+	private static List<File> findCacheFiles(File cacheDirectory) {
+		File[] cacheFiles = cacheDirectory.listFiles((directory, name) -> name.startsWith(CACHE_FILE_PREFIX) && name.endsWith(CACHE_FILE_SUFFIX));
+		if(cacheFiles == null)
+			return Collections.emptyList();
+
+		List<File> sortedCacheFiles = new ArrayList<>(Arrays.asList(cacheFiles));
+		sortedCacheFiles.sort(Comparator.comparing(File::getName));
+		return sortedCacheFiles;
+	}
+
+	private static File findNewestCacheFile(File cacheDirectory) {
+		List<File> cacheFiles = findCacheFiles(cacheDirectory);
+		return cacheFiles.isEmpty() ? null : cacheFiles.get(cacheFiles.size() - 1);
+	}
+
+	/**
+	 * Opens the file on which the processes of the user lock the cache directory. A lock that
+	 * is held by the same JVM cannot be taken again, so the callers also hold the lock of the class.
+	 */
+	private static FileChannel openLockFile(File cacheDirectory) throws IOException {
+		return FileChannel.open(new File(cacheDirectory, LOCK_FILE_NAME).toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Creates the key of an entry of the cache.
+	 *
+	 * @param contentHash the content hash of the file
+	 * @param detectorName the name of the detector
+	 * @param detectorConfiguration the identity of the tool version and configuration of the detector
+	 * @return the key of the entry
+	 */
+	public static CacheKey createKey(String contentHash, String detectorName, String detectorConfiguration) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			for(String part : new String[] {contentHash, detectorName, detectorConfiguration}) {
+				digest.update(part.getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) 0);
+			}
+
+			return new CacheKey(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is not supported by the JVM", e);
+		}
+	}
+
+	/**
+	 * Returns the smells that are cached for the given key, or {@code null} if the file was
+	 * never analysed with the same detector configuration. The smells are created for the
+	 * given file, since the same content may be found in more than one file. An entry that
+	 * cannot be decoded, e.g. one that another version of the application wrote, is dropped.
+	 *
+	 * @param key the key of the entry
+	 * @param targetFile the file that has the content of the entry
+	 * @param detectorName the name of the detector that found the smells
+	 * @return a list with the cached smells, which is empty for a file without smells, or {@code null}
+	 */
+	public synchronized List<Smell> get(CacheKey key, File targetFile, String detectorName) {
+		CacheEntry entry = entries.get(key);
+		if(entry == null)
+			return null;
+
+		ByteBuffer records = entry.records.duplicate();
+		List<Smell> smells = new ArrayList<>();
+		try {
+			while(records.hasRemaining()) {
+				SmellType smellType = SmellType.valueOf(readString(records));
+				Smell smell = new Smell.Builder(smellType)
+									.setClassName(readString(records))
+									.setMethodName(readString(records))
+									.setTargetFile(targetFile)
+									.setStartLine(records.getInt())
+									.setEndLine(records.getInt())
+									.build();
+				smell.addDetectorName(detectorName);
+				smells.add(smell);
+			}
+		} catch (BufferUnderflowException | IllegalArgumentException | NullPointerException e) {
+			System.err.println("Dropping a damaged entry of the smell cache: " + e);
+			entries.remove(key);
+			modified = true;
+			return null;
+		}
+
+		long now = System.currentTimeMillis();
+		if(now - entry.lastUsed > LAST_USED_PRECISION_MILLIS)
+			modified = true;
+		entry.lastUsed = now;
+
+		return smells;
+	}
+
+	/**
+	 * Caches the file-local smells that a detector found in a file. The path of the file is
+	 * not kept, so the entry also serves files with the same content.
+	 *
+	 * @param key the key of the entry
+	 * @param smells the smells of the file, which may be empty
+	 */
+	public synchronized void put(CacheKey key, List<Smell> smells) {
+		ByteBuffer records = ByteBuffer.allocate(getRecordsLength(smells));
+		for(Smell smell : smells) {
+			writeString(records, smell.getSmellType().name());
+			writeString(records, smell.getClassName());
+			writeString(records, smell.getMethodName());
+			records.putInt(smell.getTargetStartLine());
+			records.putInt(smell.getTargetEndLine());
+		}
+		records.flip();
+
+		entries.put(key, new CacheEntry(System.currentTimeMillis(), records));
+		modified = true;
+	}
+
+	private static int getRecordsLength(List<Smell> smells) {
+		int length = 0;
+		for(Smell smell : smells) {
+			length += getStringLength(smell.getSmellType().name()) + getStringLength(smell.getClassName())
+					+ getStringLength(smell.getMethodName()) + 2 * Integer.BYTES;
+		}
+
+		return length;
+	}
+
+	private static int getStringLength(String value) {
+		return Short.BYTES + (value == null ? 0 : value.getBytes(StandardCharsets.UTF_8).length);
+	}
+
+	//Strings are kept as their length followed by their UTF-8 bytes, and null as a length of -1
+	private static void writeString(ByteBuffer buffer, String value) {
+		if(value == null) {
+			buffer.putShort((short) -1);
+			return;
+		}
+
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		buffer.putShort((short) bytes.length);
+		buffer.put(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		short length = buffer.getShort();
+		if(length < 0)
+			return null;
+
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes the cache to a new cache file, if anything changed since it was loaded. The entries
+	 * that other processes saved in the meantime are merged in first, and the most recently used
+	 * entries are kept until the size limit is reached. Since a mapped file cannot be replaced on
+	 * every platform, every save creates a new file and the older files are deleted once they are
+	 * no longer mapped.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void save() throws IOException {
+		if(!modified)
+			return;
+
+		Files.createDirectories(cacheDirectory.toPath());
+		synchronized (SmellCache.class) {
+			try(FileChannel lockChannel = openLockFile(cacheDirectory); FileLock lock = lockChannel.lock()) {
+				File newestCacheFile = findNewestCacheFile(cacheDirectory);
+				if(newestCacheFile != null && !newestCacheFile.equals(loadedCacheFile))
+					mergeEntries(newestCacheFile);
+
+				loadedCacheFile = writeCacheFile(newestCacheFile);
+				modified = false;
+				deleteOlderCacheFiles(loadedCacheFile);
+			}
+		}
+	}
+
+	/**
+	 * Adds the entries of a cache file that another process saved after this cache was loaded.
+	 * An entry that both have keeps the more recent use.
+	 */
+	private void mergeEntries(File cacheFile) throws IOException {
+		Map<CacheKey, CacheEntry> savedEntries = new HashMap<>();
+		readEntries(cacheFile, savedEntries);
+		savedEntries.forEach((key, savedEntry) -> entries.merge(key, savedEntry,
+				(entry, otherEntry) -> entry.lastUsed >= otherEntry.lastUsed ? entry : otherEntry));
+	}
+
+	/**
+	 * Writes the entries to a new cache file, whose name sorts after the newest existing one.
+	 *
+	 * @param newestCacheFile the newest cache file of the directory, or {@code null}
+	 * @return the new cache file
+	 */
+	private File writeCacheFile(File newestCacheFile) throws IOException {
+		long now = System.currentTimeMillis();
+		List<Map.Entry<CacheKey, CacheEntry>> entriesToSave = new ArrayList<>(entries.entrySet());
+		entriesToSave.removeIf(entry -> now - entry.getValue().lastUsed > MAX_ENTRY_AGE_MILLIS);
+		entriesToSave.sort(Comparator.comparingLong((Map.Entry<CacheKey, CacheEntry> entry) -> entry.getValue().lastUsed).reversed());
+
+		long size = 3 * Integer.BYTES;
+		int entryCount = 0;
+		for(Map.Entry<CacheKey, CacheEntry> entry : entriesToSave) {
+			long entrySize = KEY_LENGTH + Long.BYTES + Integer.BYTES + entry.getValue().records.remaining();
+			if(size + entrySize > maxSize)
+				break;
+
+			size += entrySize;
+			entryCount++;
+		}
+		entriesToSave = entriesToSave.subList(0, entryCount);
+
+		File cacheFile = new File(cacheDirectory, String.format("%s%019d%s", CACHE_FILE_PREFIX, now, CACHE_FILE_SUFFIX));
+		//Another process may have saved in the same millisecond, or with a clock that is ahead
+		for(long fileNumber = now + 1; newestCacheFile != null && cacheFile.getName().compareTo(newestCacheFile.getName()) <= 0; fileNumber++)
+			cacheFile = new File(cacheDirectory, String.format("%s%019d%s", CACHE_FILE_PREFIX, fileNumber, CACHE_FILE_SUFFIX));
+		File temporaryFile = new File(cacheDirectory, cacheFile.getName() + ".tmp");
+
+		try(DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)))) {
+			output.writeInt(MAGIC_NUMBER);
+			output.writeInt(FORMAT_VERSION);
+			output.writeInt(entriesToSave.size());
+
+			byte[] copyBuffer = new byte[8192];
+			for(Map.Entry<CacheKey, CacheEntry> entry : entriesToSave) {
+				ByteBuffer records = entry.getValue().records.duplicate();
+				output.write(entry.getKey().digest);
+				output.writeLong(entry.getValue().lastUsed);
+				output.writeInt(records.remaining());
+				while(records.hasRemaining()) {
+					int length = Math.min(copyBuffer.length, records.remaining());
+					records.get(copyBuffer, 0, length);
+					output.write(copyBuffer, 0, length);
+				}
+			}
+		}
+		Files.move(temporaryFile.toPath(), cacheFile.toPath());
+
+		entries.keySet().retainAll(entriesToSave.stream().map(Map.Entry::getKey).collect(Collectors.toSet()));
+		return cacheFile;
+	}
+
+	/**
+	 * Deletes the finished cache files that are older than the given one. The temporary files
+	 * are left alone, since they may belong to a save that is still running.
+	 */
+	private void deleteOlderCacheFiles(File currentCacheFile) {
+		for(File cacheFile : findCacheFiles(cacheDirectory)) {
+			//A file that is still mapped cannot be deleted on Windows, it is deleted on a later save
+			if(cacheFile.getName().compareTo(currentCacheFile.getName()) < 0)
+				cacheFile.delete();
+		}
+	}
+
+
+	/**
+	 * The key of an entry of the cache, i.e. a SHA-1 digest over the content hash of the file
+	 * and the detector and its configuration.
+	 */
+	public static class CacheKey {
+		private final byte[] digest;
+
+		private CacheKey(byte[] digest) {
+			this.digest = digest;
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(digest);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null || getClass() != obj.getClass())
+				return false;
+
+			return Arrays.equals(digest, ((CacheKey) obj).digest);
+		}
+	}
+
+	private static class CacheEntry {
+		private long lastUsed;
+		private final ByteBuffer records;
+
+		CacheEntry(long lastUsed, ByteBuffer records) {
+			this.lastUsed = lastUsed;
+			this.records = records;
+		}
+	}
+
+}
@@ -1,106 +1,581 @@
 
-import java.net.URISyntaxException;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.Collections;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 
 public class SmellDetectionManager {
-	
+
 	private SmellType smellTypeToBeDetected;
 	private List<SmellDetector> smellDetectors;
 	private String projectDirectory;
-	private Map<SmellType, Set<Smell>> detectedSmells;
+	private DetectionOptions options;
+	private DetectionListener listener;
+	private SmellStore detectedSmells;
+	
+	//Every state holds the snapshot and the smells of a whole project
+	private static final int MAX_INCREMENTAL_STATES = 16;
 
+	/**
+	 * The state of the last incremental run of the projects, smell types and options that were analysed
+	 * most recently. A long-lived application, e.g. the daemon, analyses many projects, so the
+	 * state that was not used the longest is dropped, and the next run of its project is a full one.
+	 */
+	private static final Map<String, IncrementalAnalysisState> INCREMENTAL_STATES = Collections.synchronizedMap(
+			new LinkedHashMap<String, IncrementalAnalysisState>(MAX_INCREMENTAL_STATES, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
 
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, IncrementalAnalysisState> eldest) {
+					return size() > MAX_INCREMENTAL_STATES;
+				}
+			});
 	
+	private IncrementalAnalysisState incrementalState;
+	private ProjectSnapshot currentSnapshot;
+	private ProjectSnapshot.FileChanges fileChanges;
+	private final CloneGroupUnifier cloneGroups = new CloneGroupUnifier();
+	private final List<ProcessSupervisor> processSupervisors = Collections.synchronizedList(new ArrayList<>());
+	private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+	private volatile boolean cancelled;
+
+
+
 	public SmellDetectionManager(SmellType smellType, String projectDirectory) {
+		this(smellType, projectDirectory, DetectionOptions.defaults());
+	}
+
+	public SmellDetectionManager(SmellType smellType, String projectDirectory, DetectionOptions options) {
+		this(smellType, projectDirectory, options, null);
+	}
+
+	/**
+	 * Creates the manager and runs the detection, reporting its progress to the given listener.
+	 *
+	 * @param smellType the smell type to be detected
+	 * @param projectDirectory the directory of the project
+	 * @param options the options of the detection
+	 * @param listener the listener of the progress of the detection, or {@code null}
+	 */
+	public SmellDetectionManager(SmellType smellType, String projectDirectory, DetectionOptions options,
+			DetectionListener listener) {
+		this(smellType, projectDirectory, options, listener, true);
+	}
+
+	private SmellDetectionManager(SmellType smellType, String projectDirectory, DetectionOptions options,
+			DetectionListener listener, boolean detectNow) {
 		this.smellTypeToBeDetected = smellType;
         this.projectDirectory = projectDirectory;
-        try {
+        this.options = options;
+        this.listener = listener;
+        if (detectNow)
+        	detect();
+	}
+
+	/**
+	 * Creates a manager without running the detection, so that the detection can be started
+	 * with {@link #detect()} on one thread and cancelled with {@link #cancel()} from another.
+	 *
+	 * @param smellType the smell type to be detected
+	 * @param projectDirectory the directory of the project
+	 * @param options the options of the detection
+	 * @param listener the listener of the progress of the detection, or {@code null}
+	 * @return the manager, which has not detected anything yet
+	 */
+	public static SmellDetectionManager prepare(SmellType smellType, String projectDirectory, DetectionOptions options,
+			DetectionListener listener) {
+		return new SmellDetectionManager(smellType, projectDirectory, options, listener, false);
+	}
+
+	/**
+	 * Runs the detection. Managers that were created with a constructor have already run it.
+	 */
+	public void detect() {
+		try {
 			initialiseNecessaryClassFields();
 		} catch (Exception e) {
-			// TODO Auto-generated catch block
 			e.printStackTrace();
+			failures.add("The detection failed: " + e);
 		}
 	}
-	
-	private void initialiseNecessaryClassFields() throws URISyntaxException {
 
-		detectedSmells = new HashMap<>();
-        
-        smellDetectors = new ArrayList<>(6);
+	/**
+	 * Stops the detection: the running external tools are stopped, and the detectors that
+	 * have not started yet are skipped. A detector that runs inside the application is allowed
+	 * to end. The smells found until then are still reported, but they are not kept for the
+	 * next incremental run or in the result cache.
+	 */
+	public void cancel() {
+		cancelled = true;
+		synchronized (processSupervisors) {
+			processSupervisors.forEach(ProcessSupervisor::cancel);
+		}
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Returns what went wrong in the detection, e.g. a detector whose tool could not be started
+	 * or crashed. The smells of a detector that failed are missing or incomplete.
+	 *
+	 * @return a list with a message for every failure, which is empty if the detection succeeded
+	 */
+	public List<String> getFailures() {
+		synchronized (failures) {
+			return new ArrayList<>(failures);
+		}
+	}
+
+	/**
+	 * Returns the outcome of every external tool that was run, with its exit code and run time.
+	 *
+	 * @return a list with the results of the tools, in the order of the detectors
+	 */
+	public List<ProcessSupervisor.ProcessResult> getToolRuns() {
+		synchronized (processSupervisors) {
+			return processSupervisors.stream()
+					.flatMap(processSupervisor -> processSupervisor.getResults().stream())
+					.collect(Collectors.toList());
+		}
+	}
+
+	private void initialiseNecessaryClassFields() throws IOException {
+
+		detectedSmells = new SmellStore();
+        smellDetectors = createSmellDetectors();
+
+        //A run with a scope only covers part of the project, so it must not replace the incremental state
+        if (!options.isIncremental() || options.getAnalysisScope() != null) {
+        	if (options.isResultCacheEnabled())
+        		currentSnapshot = ProjectSnapshot.take(projectDirectory, null);
+        	runDetectors();
+        	saveResultCache();
+        	return;
+        }
+
+        //The options that change what a detector reports, e.g. whether PMD runs CPD, get states of their own
+        String stateKey = Utils.getNormalisedPath(new File(projectDirectory)) + "|" + smellTypeToBeDetected
+        		+ "|" + options.isNativeCloneDetection() + "|" + options.isCrossFileAnalysisEnabled();
+        incrementalState = INCREMENTAL_STATES.computeIfAbsent(stateKey, key -> new IncrementalAnalysisState());
+        //Runs of the same project, smell type and options share their state, so they are not allowed to overlap
+        synchronized (incrementalState) {
+        	ProjectSnapshot previousSnapshot = incrementalState.getSnapshot();
+        	currentSnapshot = ProjectSnapshot.take(projectDirectory, previousSnapshot);
+        	if (previousSnapshot != null)
+        		fileChanges = currentSnapshot.getChangesSince(previousSnapshot);
+
+        	runDetectors();
+        	incrementalState.setSnapshot(currentSnapshot);
+        }
+        saveResultCache();
+	}
+
+	private void runDetectors() {
+		if (listener != null) {
+			List<String> detectorNames = smellDetectors.stream().map(SmellDetector::getDetectorName).collect(Collectors.toList());
+			notifyListener(() -> listener.detectionStarted(detectorNames));
+		}
+
+		if (options.isConcurrent() && smellDetectors.size() > 1) {
+        	runDetectorsConcurrently();
+        } else {
+        	runDetectorsSequentially();
+        }
+
+		//The duplicates of all the detectors are merged into a single set of clone groups
+		cloneGroups.unifyInto(detectedSmells);
+
+		if (listener != null)
+			notifyListener(() -> listener.detectionFinished(detectedSmells));
+	}
+
+	/**
+	 * Creates the detectors that are needed for the selected smell type. The order of the
+	 * returned list is the order in which the results of the detectors are merged.
+	 *
+	 * @return a list with the detectors to be run
+	 */
+	private List<SmellDetector> createSmellDetectors() {
+		List<SmellDetector> detectors = new ArrayList<>(4);
+		SourceIndex.Cache sourceIndexes = new SourceIndex.Cache();
         boolean useAllDetectors = (smellTypeToBeDetected == SmellType.ALL_SMELLS);
-        
+
+        boolean nativeCloneDetection = options.isNativeCloneDetection();
+        //Without the cross-file smells there are no duplicates to find
+        boolean duplicateDetection = options.isCrossFileAnalysisEnabled();
+
+        //The quick scan comes first, so that its results are the first ones of a sequential run
+        if (options.isQuickScanEnabled() && (useAllDetectors || smellTypeToBeDetected == SmellType.PMD
+        		|| smellTypeToBeDetected == SmellType.CHECKSTYLE))
+        	detectors.add(new QuickScanSmellDetector(projectDirectory));
+
         if (useAllDetectors || smellTypeToBeDetected == SmellType.PMD) {
-        	 PMDSmellDetector pmdDetector = new PMDSmellDetector(projectDirectory);
-        	 try {
-				pmdDetector.findSmells(smellTypeToBeDetected, detectedSmells);
-				updateDetectedSmells(pmdDetector);
-			} catch (Exception e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-             smellDetectors.add(pmdDetector);
+        	PMDSmellDetector pmdDetector = new PMDSmellDetector(projectDirectory, options.getToolExecutionMode());
+        	pmdDetector.setDuplicateDetectionEnabled(duplicateDetection && !nativeCloneDetection);
+        	detectors.add(pmdDetector);
         }
-        
-        if (useAllDetectors || smellTypeToBeDetected == SmellType.CHECKSTYLE) {
-            CheckStyleSmellDetector checkStyleDetector = new CheckStyleSmellDetector(projectDirectory);
-            checkStyleDetector.findSmells(smellTypeToBeDetected, detectedSmells);
-            updateDetectedSmells(checkStyleDetector);
-            smellDetectors.add(checkStyleDetector);
+
+        if (useAllDetectors || smellTypeToBeDetected == SmellType.CHECKSTYLE)
+        	detectors.add(new CheckStyleSmellDetector(projectDirectory, options.getToolExecutionMode()));
+
+        //The in-process clone detector takes the place of both CPD and DuDe
+        if (duplicateDetection && nativeCloneDetection
+        		&& (useAllDetectors || smellTypeToBeDetected == SmellType.PMD || smellTypeToBeDetected == SmellType.DUDE))
+        	detectors.add(new TokenCloneSmellDetector(projectDirectory));
+        else if (duplicateDetection && (useAllDetectors || smellTypeToBeDetected == SmellType.DUDE))
+        	detectors.add(new DuDeSmellDetector(projectDirectory));
+
+        if (useAllDetectors || smellTypeToBeDetected == SmellType.ORGANIC) {
+        	OrganicSmellDetector organicDetector = new OrganicSmellDetector(projectDirectory);
+        	organicDetector.setParallelism(options.getOrganicParallelism());
+        	detectors.add(organicDetector);
         }
-        
-        if (useAllDetectors || smellTypeToBeDetected == SmellType.DUDE) {
-            DuDeSmellDetector dudeDetector = new DuDeSmellDetector(projectDirectory);
-            try {
-				dudeDetector.findSmells(smellTypeToBeDetected, detectedSmells);
-				updateDetectedSmells(dudeDetector);
-			} catch (Exception e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+
+        if (options.isMetricRulesEnabled() && (useAllDetectors || smellTypeToBeDetected == SmellType.ORGANIC))
+        	detectors.add(new MetricRuleSmellDetector(projectDirectory));
+
+        //Another run covers the whole-project detectors, e.g. the central pass of a distributed run
+        if (options.getAnalysisScope() != null && options.getWholeProjectDetectors() == DetectionOptions.WholeProjectDetectors.SKIPPED)
+        	detectors.removeIf(SmellDetector::analysesWholeProject);
+
+        //All the detectors of the run share the line tables of the files
+        detectors.forEach(detector -> detector.setSourceIndexes(sourceIndexes));
+        return detectors;
+	}
+
+	private void runDetectorsSequentially() {
+		for (SmellDetector detector : smellDetectors) {
+			mergeDetectorResults(detector, runDetectorAndNotify(detector));
+		}
+	}
+
+	/**
+	 * Runs every detector on its own thread of a bounded pool. Each detector writes into
+	 * its own {@code SmellStore}, and the results are merged in the same order as in a sequential
+	 * run, so the merged smells and their detector names do not depend on which tool
+	 * finishes first.
+	 */
+	private void runDetectorsConcurrently() {
+		int poolSize = Math.min(smellDetectors.size(), options.getMaxConcurrentDetectors());
+		ExecutorService executor = Executors.newFixedThreadPool(poolSize, new DetectorThreadFactory());
+
+		try {
+			List<Future<SmellStore>> results = new ArrayList<>(smellDetectors.size());
+			for (SmellDetector detector : smellDetectors) {
+				results.add(executor.submit(() -> runDetectorAndNotify(detector)));
 			}
-            smellDetectors.add(dudeDetector);
-        }
-               
-        if (useAllDetectors || smellTypeToBeDetected == SmellType.ORGANIC) {
-            OrganicSmellDetector organicDetector = new OrganicSmellDetector(projectDirectory);
-            try {
-				organicDetector.findSmells(smellTypeToBeDetected, detectedSmells);
-				updateDetectedSmells(organicDetector);
-			} catch (Exception e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+
+			for (int i = 0; i < smellDetectors.size(); i++) {
+				try {
+					mergeDetectorResults(smellDetectors.get(i), results.get(i).get());
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace();
+					failures.add(smellDetectors.get(i).getDetectorName() + " failed: " + e.getCause());
+				}
 			}
-            smellDetectors.add(organicDetector);
-        }
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdownNow();
+		}
 	}
-	
-	
-	private void updateDetectedSmells(SmellDetector detector) {
-	    if (detector != null) {
-	        Map<SmellType, Set<Smell>> detectedSmells = detector.getDetectedSmells();
-	        
-	        // Check if the map is empty
-	        if (detectedSmells == null || detectedSmells.isEmpty()) {
-	            return; // Exit early if there are no smells to process
-	        }
-
-	        for (Map.Entry<SmellType, Set<Smell>> entry : detectedSmells.entrySet()) {
-	            SmellType smellType = entry.getKey();
-	            Set<Smell> smells = entry.getValue();
-	            detectedSmells.merge(smellType, smells, (existingSmells, newSmells) -> {
-	                existingSmells.addAll(newSmells);
-	                return existingSmells;
-	            });
-	        }
-	    }
+
+	private SmellStore runDetectorAndNotify(SmellDetector detector) {
+		if (listener == null)
+			return runDetector(detector);
+
+		String detectorName = detector.getDetectorName();
+		notifyListener(() -> listener.detectorStarted(detectorName));
+		detector.setProgressListener((analysedFiles, totalFiles) ->
+				notifyListener(() -> listener.filesAnalysed(detectorName, analysedFiles, totalFiles)));
+		SmellStore detectorSmells = runDetector(detector);
+		notifyListener(() -> listener.detectorFinished(detectorName, detectorSmells));
+
+		return detectorSmells;
 	}
-	
-	public Map<SmellType, Set<Smell>> getDetectedSmells() {
+
+	/**
+	 * A failing listener must not stop the detection, so its failures are only reported.
+	 */
+	private static void notifyListener(Runnable notification) {
+		try {
+			notification.run();
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Runs the given detector and returns the smells it found. Failures are reported but
+	 * they do not stop the rest of the detectors.
+	 *
+	 * In an incremental run only the files that changed since the last run of the project are
+	 * analysed, and the results are completed with the ones of the last run. If nothing
+	 * changed, the detector is not run at all. A detector that analyses the whole project
+	 * anyway, i.e. Organic, is run on the whole project when something changed, since
+	 * restricting it saves no work and the smells of its unchanged files may depend on the
+	 * changed ones. When the result cache is enabled, the files whose smells are already cached
+	 * are not analysed either.
+	 *
+	 * @param detector the detector to be run
+	 * @return the {@code SmellStore} of the smells found by the detector
+	 */
+	private SmellStore runDetector(SmellDetector detector) {
+		IncrementalAnalysisState.DetectorResults previousResults = null;
+		if (incrementalState != null && fileChanges != null)
+			previousResults = incrementalState.getResults(detector.getDetectorName());
+
+		if (previousResults != null && fileChanges.isEmpty())
+			return previousResults.toSmellStore(detector.getDetectorName());
+
+		//null means that the whole project is analysed
+		boolean restrictedToChanges = previousResults != null && !detector.analysesWholeProject();
+		List<File> filesToAnalyse = restrictedToChanges ? fileChanges.getFilesToAnalyse() : getAnalysisScope(detector);
+		SmellStore detectorSmells = new SmellStore();
+		Map<String, SmellCache.CacheKey> filesToCache = null;
+
+		String configurationId = getCacheConfigurationId(detector);
+		if (configurationId != null) {
+			List<File> filesToLookUp = filesToAnalyse != null ? filesToAnalyse
+					: currentSnapshot.getFilePaths().stream().map(File::new).collect(Collectors.toList());
+
+			filesToCache = new HashMap<>();
+			List<File> uncachedFiles = takeCachedSmells(detector, configurationId, filesToLookUp, detectorSmells, filesToCache);
+			//A tool that is given a list of files may be much slower than one that analyses the
+			//project directory, so the whole project is only restricted when the cache saves some of it
+			if (filesToAnalyse != null || uncachedFiles.size() < filesToLookUp.size())
+				filesToAnalyse = uncachedFiles;
+		}
+
+		boolean detectorNeeded = filesToAnalyse == null || !filesToAnalyse.isEmpty()
+				|| (options.isCrossFileAnalysisEnabled() && detector.getSupportedSmellTypes().stream().anyMatch(Utils::isCrossFileSmell));
+		SmellStore foundSmells = new SmellStore();
+		try {
+			if (cancelled)
+				throw new CancellationException("The detection was cancelled before " + detector.getDetectorName() + " started");
+
+			if (detectorNeeded) {
+				if (filesToAnalyse != null)
+					detector.restrictAnalysis(filesToAnalyse, options.isCrossFileAnalysisEnabled());
+
+				//Other runs that share the options may be using the same detector
+				DetectorPermits detectorPermits = options.getDetectorPermits();
+				if (detectorPermits != null)
+					detectorPermits.acquire(detector.getDetectorName());
+				try {
+					//The deadline of the detector starts once it may run
+					detector.setProcessSupervisor(createProcessSupervisor(detector));
+					detector.findSmells(smellTypeToBeDetected, foundSmells);
+				} finally {
+					if (detectorPermits != null)
+						detectorPermits.release(detector.getDetectorName());
+				}
+
+				if (detector.getProcessSupervisor().wasStopped())
+					throw new CancellationException(detector.getDetectorName() + " was stopped before its tools ended");
+				//A detector must not hide a failed tool, since its missing smells would be cached
+				if (detector.getProcessSupervisor().hasFailed())
+					throw new IOException("A tool of " + detector.getDetectorName() + " failed");
+				if (filesToCache != null)
+					putSmellsInCache(detector, foundSmells, filesToCache);
+				detectorSmells.addAll(foundSmells);
+			}
+		} catch (CancellationException e) {
+			System.err.println(e.getMessage());
+			//Whatever the tools reported until they were stopped is still shown
+			detectorSmells.addAll(foundSmells);
+			if (incrementalState != null)
+				incrementalState.removeResults(detector.getDetectorName());
+			return detectorSmells;
+		} catch (Exception e) {
+			if (e instanceof InterruptedException)
+				Thread.currentThread().interrupt();
+			e.printStackTrace();
+			failures.add(detector.getDetectorName() + " failed: " + e);
+			if (incrementalState != null) {
+				//The results are incomplete, so the next run of the detector has to be a full one
+				incrementalState.removeResults(detector.getDetectorName());
+			}
+			return detectorSmells;
+		}
+
+		if (incrementalState == null)
+			return detectorSmells;
+
+		IncrementalAnalysisState.DetectorResults results = new IncrementalAnalysisState.DetectorResults(detectorSmells);
+		if (restrictedToChanges)
+			results.carryOver(previousResults, fileChanges, detectorNeeded && options.isCrossFileAnalysisEnabled());
+		incrementalState.setResults(detector.getDetectorName(), results);
+
+		return results.toSmellStore(detector.getDetectorName());
+	}
+
+	/**
+	 * Returns the scope of the options for the given detector, which is the whole project for
+	 * the whole-project detectors when they are not restricted.
+	 */
+	private List<File> getAnalysisScope(SmellDetector detector) {
+		if (detector.analysesWholeProject() && options.getWholeProjectDetectors() == DetectionOptions.WholeProjectDetectors.UNRESTRICTED)
+			return null;
+		return options.getAnalysisScope();
+	}
+
+	/**
+	 * Creates the supervisor of the external tools of the given detector, with the deadline of
+	 * the options. The supervisor is cancelled right away if the detection already was.
+	 */
+	private ProcessSupervisor createProcessSupervisor(SmellDetector detector) {
+		ProcessSupervisor processSupervisor = new ProcessSupervisor(detector.getDetectorName(), options.getToolTimeout());
+		processSupervisors.add(processSupervisor);
+		if (cancelled)
+			processSupervisor.cancel();
+		return processSupervisor;
+	}
+
+	/**
+	 * Returns what identifies the cached results of the given detector in this run, or
+	 * {@code null} if the result cache should not be used for the detector.
+	 *
+	 * @param detector the detector to be run
+	 * @return the identity of the detector configuration and the selected smell type, or {@code null}
+	 */
+	private String getCacheConfigurationId(SmellDetector detector) {
+		//The smells of a file of a whole-project detector depend on the other files as well
+		if (!options.isResultCacheEnabled() || detector.analysesWholeProject())
+			return null;
+
+		try {
+			String configurationId = detector.getConfigurationId();
+			return configurationId == null ? null : configurationId + "|" + smellTypeToBeDetected;
+		} catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Adds the cached smells of the given files to the smells of the detector, and returns the
+	 * files that are not cached and have to be analysed. The cache keys of these files are
+	 * kept, so that their smells can be cached once they are found.
+	 *
+	 * @param detector the detector to be run
+	 * @param configurationId the identity of the detector configuration
+	 * @param files the files that should be analysed
+	 * @param detectorSmells the {@code SmellStore} of the smells of the detector
+	 * @param filesToCache a {@code Map} from the normalised path of every file that is not cached to its cache key
+	 * @return the files that are not cached
+	 */
+	private List<File> takeCachedSmells(SmellDetector detector, String configurationId, List<File> files,
+			SmellStore detectorSmells, Map<String, SmellCache.CacheKey> filesToCache) {
+		SmellCache smellCache = SmellCache.getDefault();
+		List<File> uncachedFiles = new ArrayList<>();
+
+		for (File file : files) {
+			String filePath = Utils.getNormalisedPath(file);
+			String contentHash = currentSnapshot.getContentHash(filePath);
+			if (contentHash == null) {
+				uncachedFiles.add(file);
+				continue;
+			}
+
+			SmellCache.CacheKey key = SmellCache.createKey(contentHash, detector.getDetectorName(), configurationId);
+			List<Smell> cachedSmells = smellCache.get(key, file, detector.getDetectorName());
+			if (cachedSmells == null) {
+				uncachedFiles.add(file);
+				filesToCache.put(filePath, key);
+			} else {
+				cachedSmells.forEach(smell -> detectorSmells.add(detector.getDetectorName(), smell));
+			}
+		}
+
+		return uncachedFiles;
+	}
+
+	/**
+	 * Caches the file-local smells that a detector found in the analysed files. Files without
+	 * smells are cached as well, so that they are not analysed again either, but files that the
+	 * detector did not analyse completely are not.
+	 *
+	 * @param detector the detector that found the smells, after a successful run
+	 * @param foundSmells the {@code SmellStore} of the smells found by the detector
+	 * @param filesToCache a {@code Map} from the normalised path of every analysed file to its cache key
+	 */
+	private void putSmellsInCache(SmellDetector detector, SmellStore foundSmells, Map<String, SmellCache.CacheKey> filesToCache) {
+		SmellCache smellCache = SmellCache.getDefault();
+		filesToCache.forEach((filePath, key) -> {
+			File file = new File(filePath);
+			if (!detector.wasFileAnalysed(file))
+				return;
+
+			smellCache.put(key, foundSmells.query()
+					.inFile(file)
+					.stream()
+					.filter(smell -> !Utils.isCrossFileSmell(smell.getSmellType()))
+					.collect(Collectors.toList()));
+		});
+	}
+
+	private void saveResultCache() {
+		if (!options.isResultCacheEnabled())
+			return;
+
+		try {
+			SmellCache.getDefault().save();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Adds the smells found by a detector to the merged results. Duplicates are kept aside
+	 * until all the detectors are merged, since their groups are unified afterwards. The merged
+	 * results hold copies of the smells, so the smells of the detector never get the names of
+	 * other detectors.
+	 *
+	 * @param detector the detector that found the smells
+	 * @param detectorSmells the {@code SmellStore} of the smells found by the detector
+	 */
+	private void mergeDetectorResults(SmellDetector detector, SmellStore detectorSmells) {
+		detectorSmells.stream().forEach(smell -> {
+			if (smell.getSmellType() == SmellType.DUPLICATE_CODE)
+				cloneGroups.add(detector.getDetectorName(), smell);
+			else
+				detectedSmells.add(detector.getDetectorName(), smell.copy());
+		});
+	}
+
+	public SmellStore getDetectedSmells() {
         return detectedSmells;
     }
-}
 
+
+	/**
+	 * Creates daemon threads, so that a detector that never returns cannot keep the
+	 * application alive.
+	 */
+	private static class DetectorThreadFactory implements ThreadFactory {
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "smell-detector-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
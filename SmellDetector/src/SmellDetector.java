@@ -1,9 +1,180 @@
 
-import java.util.Map;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 public abstract class SmellDetector {
 	
+	private List<File> analysisScope;
+	private Set<String> analysisScopePaths;
+	private boolean crossFileAnalysisEnabled = true;
+	private SourceIndex.Cache sourceIndexes = new SourceIndex.Cache();
+	private ProcessSupervisor processSupervisor;
+	private ProgressListener progressListener;
+	private final Set<String> failedFilePaths = ConcurrentHashMap.newKeySet();
+	
+	/**
+	 * Limits the next run of the detector. Smells that only depend on a single file are
+	 * searched for in the given files only, while smells that depend on more files (see
+	 * {@link Utils#isCrossFileSmell(SmellType)}) are searched for in the whole project, or
+	 * not at all.
+	 * 
+	 * @param filesToAnalyse the files in which to look for file-local smells
+	 * @param includeCrossFileSmells whether the cross-file smells should be detected as well
+	 */
+	public void restrictAnalysis(Collection<File> filesToAnalyse, boolean includeCrossFileSmells) {
+		this.analysisScope = List.copyOf(filesToAnalyse);
+		this.analysisScopePaths = analysisScope.stream()
+										.map(Utils::getNormalisedPath)
+										.collect(Collectors.toCollection(HashSet::new));
+		this.crossFileAnalysisEnabled = includeCrossFileSmells;
+	}
+	
+	/**
+	 * Returns the files in which file-local smells should be searched for, or {@code null}
+	 * if the whole project should be analysed.
+	 * 
+	 * @return a list of files or {@code null} for the whole project
+	 */
+	protected List<File> getAnalysisScope() {
+		return analysisScope;
+	}
+	
+	/**
+	 * A convenience method which checks if file-local smells of the given file should be
+	 * reported in the current run.
+	 * 
+	 * @param file the file to be checked
+	 * @return true if the file is part of the analysis; false otherwise
+	 */
+	protected boolean isInAnalysisScope(File file) {
+		return analysisScopePaths == null || analysisScopePaths.contains(Utils.getNormalisedPath(file));
+	}
+	
+	/**
+	 * Whether the detector analyses the whole project even when its analysis is restricted, so
+	 * that a restriction only filters its smells and saves no work. Such detectors are best run
+	 * once for the whole project (see {@link DetectionOptions#getWholeProjectDetectors()}).
+	 * 
+	 * @return true if the detector always analyses the whole project; false otherwise
+	 */
+	public boolean analysesWholeProject() {
+		return false;
+	}
+	
+	protected boolean isCrossFileAnalysisEnabled() {
+		return crossFileAnalysisEnabled;
+	}
+	
+	/**
+	 * Sets the source indexes of the current run, so that the detectors of the run read every
+	 * file only once.
+	 * 
+	 * @param sourceIndexes the source indexes of the run
+	 */
+	public void setSourceIndexes(SourceIndex.Cache sourceIndexes) {
+		this.sourceIndexes = sourceIndexes;
+	}
+	
+	/**
+	 * Returns the line table of the given file, which is read the first time it is asked for
+	 * in the current run.
+	 * 
+	 * @param sourceFile the file for which to get the index
+	 * @return the {@code SourceIndex} of the file
+	 * @throws IOException
+	 */
+	protected SourceIndex getSourceIndex(File sourceFile) throws IOException {
+		return sourceIndexes.get(sourceFile);
+	}
+	
+	protected SourceIndex.Cache getSourceIndexes() {
+		return sourceIndexes;
+	}
+	
+	/**
+	 * Sets the supervisor of the external tools of the next run of the detector, which holds
+	 * the deadline of the run and stops the tools when the run is cancelled.
+	 * 
+	 * @param processSupervisor the supervisor of the tools of the run
+	 */
+	public void setProcessSupervisor(ProcessSupervisor processSupervisor) {
+		this.processSupervisor = processSupervisor;
+	}
+	
+	/**
+	 * Returns the supervisor through which the external tools of the detector are run. A
+	 * detector that is run on its own gets a supervisor without a deadline.
+	 * 
+	 * @return the {@code ProcessSupervisor} of the current run
+	 */
+	protected ProcessSupervisor getProcessSupervisor() {
+		if(processSupervisor == null)
+			processSupervisor = new ProcessSupervisor(getDetectorName(), null);
+		return processSupervisor;
+	}
+	
+	/**
+	 * Sets what is told about the files that the next run of the detector has analysed.
+	 * 
+	 * @param progressListener the listener of the progress of the detector, or {@code null}
+	 */
+	public void setProgressListener(ProgressListener progressListener) {
+		this.progressListener = progressListener;
+	}
+	
+	/**
+	 * A method that detectors call whenever they have analysed more files. It may be called
+	 * from any thread.
+	 * 
+	 * @param analysedFiles the number of files analysed so far
+	 * @param totalFiles the number of files to be analysed, or -1 if it is not known
+	 */
+	protected void reportFilesAnalysed(int analysedFiles, int totalFiles) {
+		if(progressListener != null)
+			progressListener.filesAnalysed(analysedFiles, totalFiles);
+	}
+	
+	/**
+	 * A method that detectors call for a file that their tool could not analyse, e.g. a file
+	 * that it could not parse, so that the missing smells of the file are not cached. It may be
+	 * called from any thread.
+	 * 
+	 * @param file the file that was not analysed
+	 */
+	protected void reportFileFailed(File file) {
+		failedFilePaths.add(Utils.getNormalisedPath(file));
+	}
+	
+	/**
+	 * A method that checks if the last run of the detector analysed the given file, i.e. if the
+	 * smells it found in the file are all the smells of the file. Detectors whose tools list
+	 * every analysed file also leave out the files that the tools did not list.
+	 * 
+	 * @param file the file to be checked
+	 * @return true if the file was analysed; false otherwise
+	 */
+	public boolean wasFileAnalysed(File file) {
+		return !failedFilePaths.contains(Utils.getNormalisedPath(file));
+	}
+	
+	/**
+	 * A method that returns what identifies the tool version and the configuration of the
+	 * detector, so that cached results of the detector are only reused when both are the
+	 * same. Detectors whose results cannot be cached per file return {@code null}.
+	 * 
+	 * @return the identity of the configuration of the detector, or {@code null}
+	 * @throws Exception
+	 */
+	public String getConfigurationId() throws Exception {
+		return null;
+	}
+	
 	/**
 	 * A method that returns all the code smell types that can be found from the
 	 * detector.
@@ -25,10 +196,18 @@ public abstract class SmellDetector {
 	 * given smell type.
 	 * 
 	 * @param smellType the smell type to check for
-	 * @param detectedSmells a {@code Map} from smellType to a {@code Set} of detected smells
+	 * @param detectedSmells the {@code SmellStore} of the detected smells
 	 */
-	public abstract void findSmells(SmellType smellType, Map<SmellType, Set<Smell>> detectedSmells) throws Exception;
+	public abstract void findSmells(SmellType smellType, SmellStore detectedSmells) throws Exception;
+	
+	public abstract SmellStore getDetectedSmells();
 	
-	public abstract Map<SmellType, Set<Smell>> getDetectedSmells();
+	
+	/**
+	 * Receives the number of files that a detector has analysed while it runs.
+	 */
+	public interface ProgressListener {
+		void filesAnalysed(int analysedFiles, int totalFiles);
+	}
 
 }
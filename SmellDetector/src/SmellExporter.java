@@ -1,203 +1,268 @@
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 public class SmellExporter {
 
+    // The detectors that have a column of their own in the detector-specific file, in the order of the columns;
+    // new detectors are added at the end, so that the columns of the older ones stay where they were
+    private static final String[] DETECTOR_COLUMNS = {"Organic", "PMD", "CheckStyle", "DuDe", "TokenClone", "MetricRules", "QuickScan"};
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
     // Updated method to accept the export directory and file name as parameters
-    public static void exportSmellsToCSV(Map<SmellType, Set<Smell>> detectedSmells, String exportDirectory) {
-        // Structure to store the aggregated data
-        Map<String, AggregatedSmells> aggregatedData = new HashMap<>();
-        Set<String> allDetectorNames = new HashSet<>();
+    public static void exportSmellsToCSV(SmellStore detectedSmells, String exportDirectory) throws IOException {
+        // Structure to store the aggregated data, one entry per class, in the order in which the classes are first seen
+        Map<ClassKey, AggregatedSmells> aggregatedData = new LinkedHashMap<>();
+
+        // Aggregate data in a single pass
+        detectedSmells.stream().forEach(smell -> {
+            ClassKey key = new ClassKey(smell.getClassName(), smell.getTargetFile());
+            AggregatedSmells aggregatedSmells = aggregatedData.get(key);
+            if (aggregatedSmells == null) {
+                aggregatedSmells = new AggregatedSmells(key);
+                aggregatedData.put(key, aggregatedSmells);
+            }
+            aggregatedSmells.addSmell(smell.getSmellType(), smell.getDetectorNameSet());
+        });
+
+        // Construct full file paths using the export directory and base file name
+        String csvFilePath = exportDirectory + File.separator +  "Detected_smells.csv";
+        String detectorSpecificCsvFilePath = exportDirectory + File.separator +  "Detected_smells_detector_specific.csv";
 
-        // Aggregate data
-        for (Map.Entry<SmellType, Set<Smell>> entry : detectedSmells.entrySet()) {
-            SmellType smellType = entry.getKey();
-            Set<Smell> smells = entry.getValue();
+        // Both CSV files are written from the same aggregates, in a single pass
+        writeCSVFiles(csvFilePath, detectorSpecificCsvFilePath, aggregatedData.values());
+    }
 
-            for (Smell smell : smells) {
-                String affectedElement = smell.getClassName();
-                String classPath = smell.getTargetFile().getAbsolutePath();
+    /**
+     * Writes the given smell as a single line of JSON, e.g. for the clients of the daemon.
+     *
+     * @param smell the smell to be written
+     * @return the JSON object of the smell, without a line break
+     */
+    public static String toJsonLine(Smell smell) {
+        StringBuilder json = new StringBuilder(256);
+        json.append("{\"id\":").append(toJsonString(createFingerprint(smell)))
+            .append(",\"type\":").append(toJsonString(smell.getSmellType().name()))
+            .append(",\"className\":").append(toJsonString(smell.getClassName()))
+            .append(",\"methodName\":").append(toJsonString(smell.getMethodName()))
+            .append(",\"file\":").append(toJsonString(smell.getTargetFile() == null ? null : smell.getTargetFile().getAbsolutePath()))
+            .append(",\"startLine\":").append(smell.getTargetStartLine())
+            .append(",\"endLine\":").append(smell.getTargetEndLine())
+            // Every record has the same fields, the group is null for the smells that are not duplicates
+            .append(",\"duplicationGroupId\":").append(smell.getSmellType() == SmellType.DUPLICATE_CODE
+                    ? String.valueOf(smell.getDuplicationGroupId()) : "null");
 
-                // Split the string by commas to get the detector names
-                String[] detectorNames = smell.getDetectorNames().split(",");
+        json.append(",\"detectors\":[");
+        boolean first = true;
+        for (String detectorName : smell.getDetectorNameSet()) {
+            json.append(first ? "" : ",").append(toJsonString(detectorName));
+            first = false;
+        }
+        return json.append("]}").toString();
+    }
 
-                String key = affectedElement + "::" + classPath; // Combination of class and path
+    /**
+     * Creates the stable identity of the given smell, e.g. the id of a JSON record or the
+     * fingerprint of a SARIF result. It hashes what identifies a smell in the application (see
+     * {@link Smell#equals(Object)}): the type, the class, the method and the file, and the lines
+     * for duplicates only, since the detectors do not agree on the lines of the other smells.
+     *
+     * @param smell the smell to be identified
+     * @return the identity of the smell as a hexadecimal {@code String}
+     */
+    public static String createFingerprint(Smell smell) {
+        StringBuilder identity = new StringBuilder(256)
+            .append(smell.getSmellType().name()).append('\0')
+            .append(smell.getClassName()).append('\0')
+            .append(smell.getMethodName()).append('\0')
+            .append(smell.getTargetFile() == null ? "" : Utils.getNormalisedPath(smell.getTargetFile()));
+        if (smell.getSmellType() == SmellType.DUPLICATE_CODE)
+            identity.append('\0').append(smell.getTargetStartLine()).append('\0').append(smell.getTargetEndLine());
+        return ProjectSnapshot.hashContent(identity.toString().getBytes(StandardCharsets.UTF_8));
+    }
 
-                AggregatedSmells aggregatedSmells = aggregatedData.computeIfAbsent(key, k -> new AggregatedSmells(affectedElement, classPath));
-                aggregatedSmells.addSmell(smellType.toString(), detectorNames);
+    /**
+     * Quotes the given text as a JSON string.
+     *
+     * @param text the text to be quoted
+     * @return the JSON string, or {@code null} for a {@code null} text
+     */
+    public static String toJsonString(String text) {
+        if (text == null)
+            return "null";
 
-                // Add all detectors to a set
-                for (String detectorName : detectorNames) {
-                    allDetectorNames.add(detectorName.trim());  // Trim to remove any leading or trailing whitespace
-                }
+        StringBuilder json = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
             }
         }
+        return json.append('"').toString();
+    }
 
-        // Construct full file paths using the export directory and base file name
-        String csvFilePath = exportDirectory + File.separator +  "Detected_smells.csv";
-        String detectorSpecificCsvFilePath = exportDirectory + File.separator +  "Detected_smells_detector_specific.csv";
+    private static void writeCSVFiles(String filePath, String detectorSpecificFilePath, Collection<AggregatedSmells> aggregatedData)
+            throws IOException {
+        try (Writer writer = openBufferedWriter(filePath);
+             Writer detectorSpecificWriter = openBufferedWriter(detectorSpecificFilePath)) {
+            // Write the headers
+            writer.write("class_name;class_path;SmellType;DetectorNames;Count\n");
+            detectorSpecificWriter.write("class_name;class_path;SmellType");
+            for (String detectorName : DETECTOR_COLUMNS) {
+                detectorSpecificWriter.write(";Detector");
+                detectorSpecificWriter.write(detectorName);
+            }
+            detectorSpecificWriter.write('\n');
 
-        // Write the first CSV file
-        writeCSV(csvFilePath, aggregatedData);
+            // Write the data rows of both files
+            for (AggregatedSmells aggregatedSmells : aggregatedData) {
+                String rowStart = aggregatedSmells.getRowStart();
 
-        // Write the second CSV file with detector-specific counts
-        writeDetectorSpecificCSV(detectorSpecificCsvFilePath, aggregatedData);
-    }
+                writer.write(rowStart);
+                writer.write(';');
+                writer.write(aggregatedSmells.getDetectorNames());
+                writer.write(';');
+                writer.write(Integer.toString(aggregatedSmells.getCount()));
+                writer.write('\n');
 
-    private static void writeCSV(String filePath, Map<String, AggregatedSmells> aggregatedData) {
-        try (FileWriter writer = new FileWriter(filePath)) {
-            // Write the header
-            writer.append("class_name")
-                  .append(';')
-                  .append("class_path")
-                  .append(';')
-                  .append("SmellType")
-                  .append(';')
-                  .append("DetectorNames")
-                  .append(';')
-                  .append("Count")
-                  .append('\n');
-
-            // Write the data rows
-            for (AggregatedSmells aggregatedSmells : aggregatedData.values()) {
-                writer.append(aggregatedSmells.getAffectedElement())
-                      .append(';')
-                      .append(aggregatedSmells.getClassPath())
-                      .append(';')
-                      .append(String.join(" | ", aggregatedSmells.getSmellTypes()))  // Updated to get all smell types
-                      .append(';')
-                      .append(aggregatedSmells.getDetectorNames())
-                      .append(';')
-                      .append(String.valueOf(aggregatedSmells.getCount()))
-                      .append('\n');
+                detectorSpecificWriter.write(rowStart);
+                for (int detectorColumn = 0; detectorColumn < DETECTOR_COLUMNS.length; detectorColumn++) {
+                    detectorSpecificWriter.write(';');
+                    detectorSpecificWriter.write(Integer.toString(aggregatedSmells.getDetectorCount(detectorColumn)));
+                }
+                detectorSpecificWriter.write('\n');
             }
-        } catch (IOException e) {
-            System.err.println("Error writing CSV file: " + e.getMessage());
         }
     }
 
-    private static void writeDetectorSpecificCSV(String filePath, Map<String, AggregatedSmells> aggregatedData) {
-        try (FileWriter writer = new FileWriter(filePath)) {
-            // Write the header
-            writer.append("class_name")
-                  .append(';')
-                  .append("class_path")
-                  .append(';')
-                  .append("SmellType")
-                  .append(';')
-                  .append("DetectorOrganic")
-                  .append(';')
-                  .append("DetectorPMD")
-                  .append(';')
-                  .append("DetectorCheckStyle")
-                  .append(';')
-                  .append("DetectorDuDe")
-                  .append('\n');
-
-            // Write the data rows
-            for (AggregatedSmells aggregatedSmells : aggregatedData.values()) {
-                writer.append(aggregatedSmells.getAffectedElement())
-                      .append(';')
-                      .append(aggregatedSmells.getClassPath())
-                      .append(';')
-                      .append(String.join(" | ", aggregatedSmells.getSmellTypes()))  // Updated to get all smell types
-                      .append(';')
-                      .append(String.valueOf(aggregatedSmells.getDetectorOrganicCount()))
-                      .append(';')
-                      .append(String.valueOf(aggregatedSmells.getDetectorPMDCount()))
-                      .append(';')
-                      .append(String.valueOf(aggregatedSmells.getDetectorCheckStyleCount()))
-                      .append(';')
-                      .append(String.valueOf(aggregatedSmells.getDetectorDuDeCount()))
-                      .append('\n');
-            }
-        } catch (IOException e) {
-            System.err.println("Error writing CSV file: " + e.getMessage());
+    /**
+     * Opens the given file for writing through a large buffer, so that the rows reach the file
+     * in a few large writes instead of one per value.
+     *
+     * @param filePath the path of the file, which is replaced if it exists
+     * @return a {@code Writer} of the file, in the default charset like a {@code FileWriter}
+     * @throws IOException if the file cannot be opened
+     */
+    private static Writer openBufferedWriter(String filePath) throws IOException {
+        return openBufferedWriter(filePath, Charset.defaultCharset());
+    }
+
+    /**
+     * Opens the given file for writing in the given charset through a large buffer.
+     *
+     * @param filePath the path of the file, which is replaced if it exists
+     * @param charset the charset of the file
+     * @return a {@code Writer} of the file
+     * @throws IOException if the file cannot be opened
+     */
+    static Writer openBufferedWriter(String filePath, Charset charset) throws IOException {
+        FileChannel channel = FileChannel.open(Path.of(filePath), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        return new BufferedWriter(Channels.newWriter(channel, charset.newEncoder(), WRITE_BUFFER_SIZE), WRITE_BUFFER_SIZE);
+    }
+
+    /**
+     * Identifies a class by its name and its file, without building a combined string for every smell.
+     */
+    private static final class ClassKey {
+        private final String className;
+        private final File targetFile;
+
+        ClassKey(String className, File targetFile) {
+            this.className = className;
+            this.targetFile = targetFile;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other)
+                return true;
+            if (!(other instanceof ClassKey))
+                return false;
+            ClassKey otherKey = (ClassKey) other;
+            return Objects.equals(className, otherKey.className) && Objects.equals(targetFile, otherKey.targetFile);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hashCode(className) + Objects.hashCode(targetFile);
         }
     }
 
     private static class AggregatedSmells {
-        private final String affectedElement;
-        private final String classPath;
-        private final Set<String> smellTypes = new HashSet<>();  // Store all detected smell types
-        private int detectorOrganicCount;
-        private int detectorPMDCount;
-        private int detectorCheckStyleCount;
-        private int detectorDuDeCount;
+        private final ClassKey key;
+        private final EnumSet<SmellType> smellTypes = EnumSet.noneOf(SmellType.class);  // Store all detected smell types
+        private final int[] detectorCounts = new int[DETECTOR_COLUMNS.length];
         private int count = 0;
 
-        AggregatedSmells(String affectedElement, String classPath) {
-            this.affectedElement = affectedElement;
-            this.classPath = classPath;
+        AggregatedSmells(ClassKey key) {
+            this.key = key;
         }
 
-        void addSmell(String smellType, String[] detectorNames) {
+        void addSmell(SmellType smellType, Set<String> detectorNames) {
             smellTypes.add(smellType);  // Add smell type to the set
             for (String detectorName : detectorNames) {
-                if (detectorName.equals("Organic")) {
-                    detectorOrganicCount++;
-                } else if (detectorName.equals("PMD")) {
-                    detectorPMDCount++;
-                } else if (detectorName.equals("CheckStyle")) {
-                    detectorCheckStyleCount++;
-                } else if (detectorName.equals("DuDe")) {
-                    detectorDuDeCount++;
+                int detectorColumn = getDetectorColumn(detectorName);
+                if (detectorColumn >= 0) {
+                    detectorCounts[detectorColumn]++;
                 }
                 count++;
             }
         }
 
-        String getAffectedElement() {
-            return affectedElement;
-        }
-
-        String getClassPath() {
-            return classPath;
-        }
-
-        Set<String> getSmellTypes() {  // Return all smell types
-            return smellTypes;
-        }
-
-        int getDetectorOrganicCount() {
-            return detectorOrganicCount;
+        private static int getDetectorColumn(String detectorName) {
+            for (int detectorColumn = 0; detectorColumn < DETECTOR_COLUMNS.length; detectorColumn++) {
+                if (DETECTOR_COLUMNS[detectorColumn].equals(detectorName))
+                    return detectorColumn;
+            }
+            return -1;
         }
 
-        int getDetectorPMDCount() {
-            return detectorPMDCount;
+        /**
+         * Returns the columns that both CSV files start with: the class, its path and its smell types.
+         */
+        String getRowStart() {
+            StringBuilder rowStart = new StringBuilder(128)
+                    .append(key.className)
+                    .append(';')
+                    .append(key.targetFile == null ? "" : key.targetFile.getAbsolutePath())
+                    .append(';');
+            boolean first = true;
+            for (SmellType smellType : smellTypes) {
+                rowStart.append(first ? "" : " | ").append(smellType.toString());
+                first = false;
+            }
+            return rowStart.toString();
         }
 
-        int getDetectorCheckStyleCount() {
-            return detectorCheckStyleCount;
+        int getDetectorCount(int detectorColumn) {
+            return detectorCounts[detectorColumn];
         }
 
-        int getDetectorDuDeCount() {
-            return detectorDuDeCount;
-        }
-        
         int getCount() {
             return count;
         }
-        
-        String getDetectorNames() {
-            List<String> detectors = new ArrayList<>();
 
-            if (detectorOrganicCount > 0) {
-                detectors.add("Organic");
-            }
-            if (detectorPMDCount > 0) {
-                detectors.add("PMD");
-            }
-            if (detectorCheckStyleCount > 0) {
-                detectors.add("CheckStyle");
-            }
-            if (detectorDuDeCount > 0) {
-                detectors.add("DuDe");
+        String getDetectorNames() {
+            StringJoiner detectors = new StringJoiner(",");
+            for (int detectorColumn = 0; detectorColumn < DETECTOR_COLUMNS.length; detectorColumn++) {
+                if (detectorCounts[detectorColumn] > 0) {
+                    detectors.add(DETECTOR_COLUMNS[detectorColumn]);
+                }
             }
-
-            return String.join(",", detectors);
+            return detectors.toString();
         }
     }
 }
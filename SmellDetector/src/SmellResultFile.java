@@ -0,0 +1,369 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Saves detected smells in a compact binary file, so that they can be shown again without
+ * running the detectors. The file has four parts:
+ * <ul>
+ * <li>a header with the number of smells and the positions of the other parts,</li>
+ * <li>a record of fixed width for every smell, optionally compressed,</li>
+ * <li>a dictionary with every distinct path, class name and method name, and</li>
+ * <li>the names of the smell types and of the detectors.</li>
+ * </ul>
+ * A record refers to its strings by their index in the dictionary, and to its detectors with
+ * a bitmask, so every string is stored once. The records are written while the smells are
+ * streamed, and the dictionary follows them, so saving needs no copy of the smells.
+ *
+ * Opening maps the file into memory and reads only the dictionary; the records are decoded
+ * straight from the mapping when they are asked for.
+ */
+public class SmellResultFile {
+
+	public static final String FILE_EXTENSION = ".smells";
+
+	private static final int MAGIC_NUMBER = 0x534D5231;
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_LENGTH = 4 * Integer.BYTES + 3 * Long.BYTES;
+	private static final int FLAG_COMPRESSED = 1;
+	private static final int NO_STRING = -1;
+	//The type, the class, the method, the file, the lines, the duplication group and the detectors of a smell
+	private static final int RECORD_LENGTH = 7 * Integer.BYTES + Long.BYTES;
+	private static final int MAX_DETECTORS = Long.SIZE;
+	private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+	private final ByteBuffer records;
+	private final int smellCount;
+	private final String[] strings;
+	private final SmellType[] smellTypes;
+	private final String[] detectorNames;
+	private final File[] files;
+
+	private SmellResultFile(ByteBuffer records, int smellCount, String[] strings, SmellType[] smellTypes, String[] detectorNames) {
+		this.records = records;
+		this.smellCount = smellCount;
+		this.strings = strings;
+		this.smellTypes = smellTypes;
+		this.detectorNames = detectorNames;
+		this.files = new File[strings.length];
+	}
+
+	/**
+	 * Saves the given smells in the given file. The file is first written under another name,
+	 * so an existing file is only replaced by a complete one.
+	 *
+	 * @param detectedSmells the smells to be saved
+	 * @param resultFile the file in which the smells are saved
+	 * @param compressed whether the records of the smells should be compressed
+	 * @throws IOException if the file cannot be written, or the smells were found by more than 64 detectors
+	 */
+	public static void save(SmellStore detectedSmells, File resultFile, boolean compressed) throws IOException {
+		save(detectedSmells.stream(), resultFile, compressed);
+	}
+
+	/**
+	 * Saves the given smells in the given file, e.g. the smells of another result file.
+	 *
+	 * @param smells the smells to be saved, which are read once
+	 * @param resultFile the file in which the smells are saved
+	 * @param compressed whether the records of the smells should be compressed
+	 * @throws IOException if the file cannot be written, or the smells were found by more than 64 detectors
+	 */
+	public static void save(Stream<Smell> smells, File resultFile, boolean compressed) throws IOException {
+		File temporaryFile = new File(resultFile.getPath() + ".tmp");
+
+		try(FileChannel channel = FileChannel.open(temporaryFile.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			//The header is written last, once the positions of the parts are known
+			channel.position(HEADER_LENGTH);
+
+			Dictionary strings = new Dictionary();
+			Dictionary smellTypes = new Dictionary();
+			Dictionary detectors = new Dictionary();
+			int smellCount = 0;
+
+			Deflater deflater = compressed ? new Deflater(Deflater.BEST_SPEED) : null;
+			try {
+				//The streams over the channel are only flushed, the channel is closed with the file
+				OutputStream channelOutput = Channels.newOutputStream(channel);
+				DeflaterOutputStream deflaterOutput = compressed
+						? new DeflaterOutputStream(channelOutput, deflater, WRITE_BUFFER_SIZE) : null;
+				DataOutputStream records = new DataOutputStream(new BufferedOutputStream(
+						compressed ? deflaterOutput : channelOutput, WRITE_BUFFER_SIZE));
+
+				Iterator<Smell> smellIterator = smells.iterator();
+				while(smellIterator.hasNext()) {
+					writeRecord(records, smellIterator.next(), strings, smellTypes, detectors);
+					smellCount++;
+				}
+				records.flush();
+				if(deflaterOutput != null)
+					deflaterOutput.finish();
+			} finally {
+				if(deflater != null)
+					deflater.end();
+			}
+
+			long recordsEnd = channel.position();
+			DataOutputStream dictionaries = new DataOutputStream(new BufferedOutputStream(
+					Channels.newOutputStream(channel), WRITE_BUFFER_SIZE));
+			strings.write(dictionaries);
+			smellTypes.write(dictionaries);
+			detectors.write(dictionaries);
+			dictionaries.flush();
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH)
+					.putInt(MAGIC_NUMBER)
+					.putInt(FORMAT_VERSION)
+					.putInt(compressed ? FLAG_COMPRESSED : 0)
+					.putInt(smellCount)
+					.putLong(HEADER_LENGTH)
+					.putLong(recordsEnd - HEADER_LENGTH)
+					.putLong(recordsEnd)
+					.flip();
+			channel.write(header, 0);
+		}
+
+		Files.move(temporaryFile.toPath(), resultFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static void writeRecord(DataOutputStream records, Smell smell, Dictionary strings, Dictionary smellTypes,
+			Dictionary detectors) throws IOException {
+		long detectorMask = 0;
+		for(String detectorName : smell.getDetectorNameSet()) {
+			int detectorIndex = detectors.indexOf(detectorName);
+			if(detectorIndex >= MAX_DETECTORS)
+				throw new IOException("A result file holds at most " + MAX_DETECTORS + " detectors");
+			detectorMask |= 1L << detectorIndex;
+		}
+
+		records.writeInt(smellTypes.indexOf(smell.getSmellType().name()));
+		records.writeInt(strings.indexOf(smell.getClassName()));
+		records.writeInt(strings.indexOf(smell.getMethodName()));
+		records.writeInt(strings.indexOf(smell.getTargetFile() == null ? null : smell.getTargetFile().getPath()));
+		records.writeInt(smell.getTargetStartLine());
+		records.writeInt(smell.getTargetEndLine());
+		records.writeInt(smell.getDuplicationGroupId());
+		records.writeLong(detectorMask);
+	}
+
+	/**
+	 * Opens the given file. Only the header and the dictionary are read; the records stay in
+	 * the mapped file and a smell is decoded when it is asked for, so opening takes about as
+	 * long as reading the distinct strings. Compressed records are inflated into memory first.
+	 *
+	 * @param resultFile a file that was written by {@link #save(Stream, File, boolean)}
+	 * @return the opened {@code SmellResultFile}
+	 * @throws IOException if the file cannot be read, or it is not a result file of this version
+	 */
+	public static SmellResultFile open(File resultFile) throws IOException {
+		MappedByteBuffer buffer;
+		try(FileChannel channel = FileChannel.open(resultFile.toPath(), StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		try {
+			if(buffer.getInt() != MAGIC_NUMBER)
+				throw new IOException(resultFile + " is not a result file");
+			int version = buffer.getInt();
+			if(version != FORMAT_VERSION)
+				throw new IOException(resultFile + " has the unsupported format version " + version);
+
+			boolean compressed = (buffer.getInt() & FLAG_COMPRESSED) != 0;
+			int smellCount = buffer.getInt();
+			int recordsPosition = Math.toIntExact(buffer.getLong());
+			int recordsLength = Math.toIntExact(buffer.getLong());
+			int dictionariesPosition = Math.toIntExact(buffer.getLong());
+
+			buffer.position(dictionariesPosition);
+			String[] strings = readDictionary(buffer);
+			String[] smellTypeNames = readDictionary(buffer);
+			String[] detectorNames = readDictionary(buffer);
+
+			ByteBuffer records = buffer.slice(recordsPosition, recordsLength);
+			if(compressed)
+				records = inflate(records, Math.multiplyExact(smellCount, RECORD_LENGTH));
+			if(records.remaining() < (long) smellCount * RECORD_LENGTH)
+				throw new IOException(resultFile + " is damaged");
+
+			SmellType[] smellTypes = new SmellType[smellTypeNames.length];
+			for(int i = 0; i < smellTypeNames.length; i++) {
+				smellTypes[i] = SmellType.valueOf(smellTypeNames[i]);
+			}
+			return new SmellResultFile(records, smellCount, strings, smellTypes, detectorNames);
+		} catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | ArithmeticException e) {
+			throw new IOException(resultFile + " is damaged", e);
+		}
+	}
+
+	/**
+	 * Loads all the smells of the given file.
+	 *
+	 * @param resultFile a file that was written by {@link #save(Stream, File, boolean)}
+	 * @return a {@code SmellStore} with the saved smells and the detectors that found them
+	 * @throws IOException if the file cannot be read, or it is not a result file of this version
+	 */
+	public static SmellStore load(File resultFile) throws IOException {
+		return open(resultFile).toSmellStore();
+	}
+
+	public int getSmellCount() {
+		return smellCount;
+	}
+
+	/**
+	 * Decodes the smell of the given record. Every call returns a new {@code Smell}.
+	 *
+	 * @param index the index of the record, from 0 to the number of smells
+	 * @return the {@code Smell} of the record, with the detectors that found it
+	 */
+	public Smell getSmell(int index) {
+		int position = Math.multiplyExact(Objects.checkIndex(index, smellCount), RECORD_LENGTH);
+		int fileIndex = records.getInt(position + 3 * Integer.BYTES);
+
+		Smell smell = new Smell.Builder(smellTypes[records.getInt(position)])
+				.setClassName(getString(records.getInt(position + Integer.BYTES)))
+				.setMethodName(getString(records.getInt(position + 2 * Integer.BYTES)))
+				.setTargetFile(getFile(fileIndex))
+				.setStartLine(records.getInt(position + 4 * Integer.BYTES))
+				.setEndLine(records.getInt(position + 5 * Integer.BYTES))
+				.setDuplicationGroupId(records.getInt(position + 6 * Integer.BYTES))
+				.build();
+
+		long detectorMask = records.getLong(position + 7 * Integer.BYTES);
+		while(detectorMask != 0) {
+			smell.addDetectorName(detectorNames[Long.numberOfTrailingZeros(detectorMask)]);
+			detectorMask &= detectorMask - 1;
+		}
+		return smell;
+	}
+
+	/**
+	 * Decodes the smells of the file in the order of their records.
+	 *
+	 * @return a {@code Stream} of the smells
+	 */
+	public Stream<Smell> stream() {
+		return IntStream.range(0, smellCount).mapToObj(this::getSmell);
+	}
+
+	/**
+	 * Decodes all the smells of the file into a {@code SmellStore}.
+	 *
+	 * @return a {@code SmellStore} with the saved smells and the detectors that found them
+	 */
+	public SmellStore toSmellStore() {
+		SmellStore detectedSmells = new SmellStore();
+		for(int i = 0; i < smellCount; i++) {
+			Smell smell = getSmell(i);
+			for(String detectorName : smell.getDetectorNameSet()) {
+				detectedSmells.add(detectorName, smell);
+			}
+		}
+		return detectedSmells;
+	}
+
+	private String getString(int index) {
+		return index == NO_STRING ? null : strings[index];
+	}
+
+	/**
+	 * Returns the file of the given path of the dictionary. Every distinct path becomes a
+	 * single {@code File}, which all the smells of the file share.
+	 */
+	private File getFile(int index) {
+		if(index == NO_STRING)
+			return null;
+
+		File file = files[index];
+		if(file == null) {
+			//Two threads may both create the file, which does no harm
+			file = new File(strings[index]);
+			files[index] = file;
+		}
+		return file;
+	}
+
+	private static ByteBuffer inflate(ByteBuffer compressedRecords, int length) throws IOException {
+		ByteBuffer records = ByteBuffer.allocate(length);
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressedRecords);
+			while(records.hasRemaining() && !inflater.finished()) {
+				if(inflater.inflate(records) == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					throw new IOException("The records of the result file are incomplete");
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("The records of the result file are damaged", e);
+		} finally {
+			inflater.end();
+		}
+		return records.flip();
+	}
+
+	private static String[] readDictionary(ByteBuffer buffer) {
+		String[] strings = new String[buffer.getInt()];
+		for(int i = 0; i < strings.length; i++) {
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			strings[i] = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return strings;
+	}
+
+
+	/**
+	 * Gives every distinct string an index, in the order in which the strings are first seen.
+	 */
+	private static class Dictionary {
+		private final Map<String, Integer> indexes = new HashMap<>();
+		private final List<String> strings = new ArrayList<>();
+
+		int indexOf(String string) {
+			if(string == null)
+				return NO_STRING;
+
+			Integer index = indexes.get(string);
+			if(index == null) {
+				index = strings.size();
+				indexes.put(string, index);
+				strings.add(string);
+			}
+			return index;
+		}
+
+		void write(DataOutputStream output) throws IOException {
+			output.writeInt(strings.size());
+			for(String string : strings) {
+				byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+				output.writeInt(bytes.length);
+				output.write(bytes);
+			}
+		}
+	}
+
+
+}
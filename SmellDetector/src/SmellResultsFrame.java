@@ -1,29 +1,56 @@
 import java.awt.BorderLayout;
+import java.awt.FlowLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.util.Map;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Set;
-import java.util.TreeSet;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
 
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.SwingWorker;
+import javax.swing.filechooser.FileNameExtensionFilter;
 
 public class SmellResultsFrame extends JFrame {
     private JFrame frame;
-    private DefaultTableModel model;
+    private SmellTableModel model;
     private JTable table;
-    private Map<SmellType, Set<Smell>> detectedSmells;
+    private SmellStore detectedSmells;
+    // The result file whose smells are shown, if they were not detected in this window
+    private SmellResultFile resultFile;
     private JComboBox<Integer> filterComboBox;
     private JComboBox<String> detectorComboBox;
 
-    public SmellResultsFrame(Map<SmellType, Set<Smell>> detectedSmells) {
+    public SmellResultsFrame(SmellStore detectedSmells) {
+        this(detectedSmells, null);
+    }
+
+    /**
+     * Shows the smells of a saved result file. The smells are decoded in the background.
+     * @param resultFile The opened result file.
+     */
+    public SmellResultsFrame(SmellResultFile resultFile) {
+        this(null, resultFile);
+    }
+
+    private SmellResultsFrame(SmellStore detectedSmells, SmellResultFile resultFile) {
         this.detectedSmells = detectedSmells;
+        this.resultFile = resultFile;
 
         // Create the main frame
         frame = new JFrame("Detected Smells");
@@ -31,13 +58,24 @@ public class SmellResultsFrame extends JFrame {
         frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
         frame.setLayout(new BorderLayout());
 
-        // Table to display detected smells
-        String[] columnNames = {"Smell Type", "Class Name", "Affected Element", "Start Line", "Detectors"};
-        model = new DefaultTableModel(columnNames, 0);
+        // Table to display detected smells. The model filters and sorts in the background,
+        // so the rows are filled in shortly after the window is shown
+        model = new SmellTableModel();
         table = new JTable(model);
-
-        // Populate the table with all detected smells initially
-        populateTable(0, "All Detectors");
+        table.getTableHeader().addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int column = table.columnAtPoint(e.getPoint());
+                if (column >= 0) {
+                    model.sortBy(table.convertColumnIndexToModel(column));
+                }
+            }
+        });
+        if (resultFile != null) {
+            model.setSmells(resultFile);
+        } else {
+            model.setSmells(detectedSmells);
+        }
 
         // Add the table to a scroll pane and add it to the frame
         JScrollPane scrollPane = new JScrollPane(table);
@@ -63,12 +101,9 @@ public class SmellResultsFrame extends JFrame {
         JLabel detectorLabel = new JLabel("Filter by detector:");
 
         // Initialize detector names dynamically
-        Set<String> detectors = detectedSmells.values().stream()
-                .flatMap(Set::stream)
-                .flatMap(smell -> Set.of(smell.getDetectorNames().split(",")).stream())
-                .collect(Collectors.toCollection(TreeSet::new));
-        detectors.add("All Detectors"); // Option to not filter by detector
-        detectorComboBox = new JComboBox<>(detectors.toArray(new String[0]));
+        // Option to not filter by detector, the names of the detectors are added once the rows are loaded
+        detectorComboBox = new JComboBox<>(new String[]{SmellTableModel.ALL_DETECTORS});
+        model.setDetectorNamesListener(this::addDetectorNames);
         detectorComboBox.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
@@ -84,9 +119,22 @@ public class SmellResultsFrame extends JFrame {
         filterPanel.add(detectorLabel);
         filterPanel.add(detectorComboBox);
 
+        // Button for saving the shown results, so that they can be opened again without a detection
+        JPanel buttonPanel = new JPanel(new FlowLayout());
+        JButton saveButton = new JButton("Save Results");
+        saveButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                saveResults();
+            }
+        });
+        buttonPanel.add(saveButton);
+
         // Add the filter panel and scroll pane to the frame
         frame.add(filterPanel, BorderLayout.NORTH);
         frame.add(scrollPane, BorderLayout.CENTER);
+        frame.add(buttonPanel, BorderLayout.SOUTH);
+        addCloseAction(model::dispose);
 
         // Show the frame
         frame.setVisible(true);
@@ -94,35 +142,114 @@ public class SmellResultsFrame extends JFrame {
 
     /**
      * Populates the table with rows filtered by the number of detectors and specific detector name.
+     * The rows are filtered in the background, and the table is updated once they are ready.
      * @param detectorCount The number of detectors to filter by. Use 0 to show all rows.
      * @param detectorName The name of the detector to filter by. Use "All Detectors" to show all.
      */
     private void populateTable(int detectorCount, String detectorName) {
-        model.setRowCount(0); // Clear existing rows
-
-        for (Map.Entry<SmellType, Set<Smell>> entry : detectedSmells.entrySet()) {
-            SmellType smellType = entry.getKey();
-            Set<Smell> smells = entry.getValue();
-            
-            for (Smell smell : smells) {
-                // Check the number of detectors if a specific filter is applied
-                int numDetectors = smell.getDetectorNames().split(",").length;
-                boolean matchesDetectorCount = detectorCount == 0 || numDetectors == detectorCount;
-
-                // Check if the smell was detected by the selected detector
-                boolean matchesDetectorName = detectorName.equals("All Detectors") || smell.getDetectorNames().contains(detectorName);
-
-                if (matchesDetectorCount && matchesDetectorName) {
-                    Object[] rowData = {
-                        smellType.getName(),
-                        smell.getClassName(),
-                        smell.getAffectedElementName(),
-                        smell.getTargetStartLine(),
-                        smell.getDetectorNames()
-                    };
-                    model.addRow(rowData);
+        model.filter(detectorCount, detectorName);
+    }
+
+    private void addDetectorNames(Set<String> detectorNames) {
+        Set<String> knownDetectors = new HashSet<>();
+        for (int i = 0; i < detectorComboBox.getItemCount(); i++) {
+            knownDetectors.add(detectorComboBox.getItemAt(i));
+        }
+        for (String detectorName : detectorNames) {
+            if (knownDetectors.add(detectorName))
+                detectorComboBox.addItem(detectorName);
+        }
+    }
+
+    /**
+     * Updates the table with the smells that appeared and disappeared since the shown results,
+     * e.g. after a watched file is saved. Only the changed rows are touched, and the current
+     * filters and sort order are kept. It must be called on the event dispatch thread.
+     * @param changes The changes of the smells of the project.
+     */
+    public void applyChanges(ProjectWatcher.SmellChanges changes) {
+        detectedSmells = changes.getDetectedSmells();
+        model.applyChanges(changes.getRemovedSmells(), changes.getAddedSmells());
+        frame.setTitle("Detected Smells (updated in " + changes.getElapsedMillis() + " ms)");
+    }
+
+    /**
+     * Adds the smells of a detector that has just finished, while the other detectors are still
+     * running. It must be called on the event dispatch thread.
+     * @param detectorSmells The smells found by the detector.
+     */
+    public void addSmells(SmellStore detectorSmells) {
+        model.applyChanges(Collections.emptyList(), detectorSmells.stream().toList());
+    }
+
+    /**
+     * Replaces the shown smells, e.g. with the merged smells of all the detectors once the
+     * detection has finished. It must be called on the event dispatch thread.
+     * @param detectedSmells The smells to be shown.
+     */
+    public void setSmells(SmellStore detectedSmells) {
+        this.detectedSmells = detectedSmells;
+        this.resultFile = null;
+        model.setSmells(detectedSmells);
+    }
+
+    /**
+     * Asks for a file and saves the shown smells in it, in the background.
+     */
+    private void saveResults() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setFileFilter(new FileNameExtensionFilter("Smell results", SmellResultFile.FILE_EXTENSION.substring(1)));
+        JCheckBox compressCheckBox = new JCheckBox("Compress");
+        fileChooser.setAccessory(compressCheckBox);
+        if (fileChooser.showSaveDialog(frame) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+
+        File selectedFile = fileChooser.getSelectedFile();
+        File targetFile = selectedFile.getName().endsWith(SmellResultFile.FILE_EXTENSION) ? selectedFile
+                : new File(selectedFile.getPath() + SmellResultFile.FILE_EXTENSION);
+        boolean compressed = compressCheckBox.isSelected();
+        SmellResultFile shownResultFile = resultFile;
+        SmellStore shownSmells = detectedSmells;
+
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                Stream<Smell> smells = shownResultFile != null ? shownResultFile.stream() : shownSmells.stream();
+                SmellResultFile.save(smells, targetFile, compressed);
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    get();
+                    JOptionPane.showMessageDialog(frame, "The results have been saved in " + targetFile);
+                } catch (InterruptedException | ExecutionException ex) {
+                    JOptionPane.showMessageDialog(frame, "Error saving the results: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
                 }
             }
-        }
+        }.execute();
+    }
+
+    /**
+     * Shows the given status in the title of the window.
+     * @param status The status, e.g. the progress of the detection, or null for none.
+     */
+    public void setStatus(String status) {
+        frame.setTitle(status == null ? "Detected Smells" : "Detected Smells (" + status + ")");
+    }
+
+    /**
+     * Runs the given action once the window of the results is closed.
+     * @param closeAction The action to be run, e.g. stopping a watcher of the project.
+     */
+    public void addCloseAction(Runnable closeAction) {
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                closeAction.run();
+            }
+        });
     }
 }
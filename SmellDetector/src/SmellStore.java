@@ -0,0 +1,256 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Holds the detected smells. Every smell is kept once: adding a smell that is already
+ * present (see {@link Smell#equals(Object)}) only adds the name of the detector to the smell
+ * that is already kept. Besides that, the smells are indexed by smell type, file, class and
+ * detector, so that queries only look at the smells that can match.
+ *
+ * All the methods are synchronized, so detectors may add smells from more than one thread.
+ */
+public class SmellStore {
+
+	private final Map<Smell, Smell> canonicalSmells = new HashMap<>();
+	private final Map<SmellType, Set<Smell>> smellsByType = new EnumMap<>(SmellType.class);
+	private final Map<String, Set<Smell>> smellsByFile = new HashMap<>();
+	private final Map<String, Set<Smell>> smellsByClass = new HashMap<>();
+	private final Map<String, Set<Smell>> smellsByDetector = new HashMap<>();
+
+	//The id of the next duplication group, which is always greater than the id of every stored duplicate
+	private int nextDuplicationGroupId = 1;
+
+	/**
+	 * Adds the given smell as found by the given detector. If an equal smell is already
+	 * stored, the detector is added to that one instead.
+	 *
+	 * @param detectorName the name of the detector that found the smell
+	 * @param newSmell the new {@code Smell} to be added
+	 * @return the stored {@code Smell}, which is either the new one or the one already stored
+	 */
+	public synchronized Smell add(String detectorName, Smell newSmell) {
+		Smell storedSmell = store(newSmell);
+		addDetectorName(storedSmell, detectorName);
+
+		return storedSmell;
+	}
+
+	/**
+	 * Adds all the smells of the given store, together with the detectors that found them. The
+	 * smells that are not stored yet are copied, so that adding detectors to the smells of one
+	 * store does not change the smells of the other.
+	 *
+	 * @param otherStore the store with the smells to be added
+	 */
+	public void addAll(SmellStore otherStore) {
+		List<Smell> otherSmells = otherStore.stream().toList();
+		synchronized (this) {
+			for(Smell otherSmell : otherSmells) {
+				Smell storedSmell = canonicalSmells.get(otherSmell);
+				if(storedSmell != null) {
+					otherSmell.getDetectorNameSet().forEach(detectorName -> addDetectorName(storedSmell, detectorName));
+				} else {
+					Smell copiedSmell = store(otherSmell.copy());
+					copiedSmell.getDetectorNameSet().forEach(detectorName -> addToIndex(smellsByDetector, detectorName, copiedSmell));
+				}
+			}
+		}
+	}
+
+	private Smell store(Smell newSmell) {
+		Smell storedSmell = canonicalSmells.putIfAbsent(newSmell, newSmell);
+		if(storedSmell != null)
+			return storedSmell;
+
+		smellsByType.computeIfAbsent(newSmell.getSmellType(), smellType -> new LinkedHashSet<>()).add(newSmell);
+		if(newSmell.getTargetFile() != null)
+			addToIndex(smellsByFile, Utils.getNormalisedPath(newSmell.getTargetFile()), newSmell);
+		if(newSmell.getClassName() != null)
+			addToIndex(smellsByClass, newSmell.getClassName(), newSmell);
+		if(newSmell.getSmellType() == SmellType.DUPLICATE_CODE)
+			nextDuplicationGroupId = Math.max(nextDuplicationGroupId, newSmell.getDuplicationGroupId() + 1);
+
+		return newSmell;
+	}
+
+	private void addDetectorName(Smell storedSmell, String detectorName) {
+		storedSmell.addDetectorName(detectorName);
+		addToIndex(smellsByDetector, detectorName, storedSmell);
+	}
+
+	private static void addToIndex(Map<String, Set<Smell>> index, String key, Smell smell) {
+		index.computeIfAbsent(key, indexKey -> new LinkedHashSet<>()).add(smell);
+	}
+
+	/**
+	 * Reserves a new duplication group, whose id is greater than the id of every group
+	 * that is already stored or reserved.
+	 *
+	 * @return the id of the new duplication group
+	 */
+	public synchronized int createDuplicationGroupId() {
+		return nextDuplicationGroupId++;
+	}
+
+	public synchronized int size() {
+		return canonicalSmells.size();
+	}
+
+	public synchronized boolean isEmpty() {
+		return canonicalSmells.isEmpty();
+	}
+
+	public synchronized Set<SmellType> getSmellTypes() {
+		return Collections.unmodifiableSet(new LinkedHashSet<>(smellsByType.keySet()));
+	}
+
+	/**
+	 * Returns the names of all the detectors that found at least one of the stored smells.
+	 *
+	 * @return a sorted {@code Set} with the names of the detectors
+	 */
+	public synchronized Set<String> getDetectorNames() {
+		return Collections.unmodifiableSet(new TreeSet<>(smellsByDetector.keySet()));
+	}
+
+	/**
+	 * Returns all the stored smells, grouped by smell type.
+	 *
+	 * @return a {@code Stream} of the smells
+	 */
+	public Stream<Smell> stream() {
+		return query().stream();
+	}
+
+	/**
+	 * Starts a query over the stored smells. Conditions are added to the returned query,
+	 * and the matching smells are streamed with {@link Query#stream()}.
+	 *
+	 * @return a new {@code Query} without conditions
+	 */
+	public Query query() {
+		return new Query();
+	}
+
+
+	/**
+	 * A query over the stored smells. The smells are read from the smallest index that
+	 * belongs to one of the conditions, and the rest of the conditions are checked lazily
+	 * while the stream is consumed.
+	 */
+	public class Query {
+		private SmellType smellType;
+		private String filePath;
+		private String className;
+		private String detectorName;
+		private int detectorCount;
+
+		private Query() {
+		}
+
+		public Query ofType(SmellType smellType) {
+			this.smellType = smellType;
+			return this;
+		}
+
+		public Query inFile(File file) {
+			this.filePath = Utils.getNormalisedPath(file);
+			return this;
+		}
+
+		public Query inClass(String className) {
+			this.className = className;
+			return this;
+		}
+
+		public Query detectedBy(String detectorName) {
+			this.detectorName = detectorName;
+			return this;
+		}
+
+		/**
+		 * Keeps only the smells that were found by exactly the given number of detectors.
+		 *
+		 * @param detectorCount the number of detectors, or 0 for any number
+		 * @return this query
+		 */
+		public Query detectedByCount(int detectorCount) {
+			this.detectorCount = detectorCount;
+			return this;
+		}
+
+		/**
+		 * Streams the smells that match all the conditions of the query. The smells of the
+		 * chosen index are copied when the stream is created, so the stream is not affected
+		 * by smells that are added afterwards.
+		 *
+		 * @return a {@code Stream} of the matching smells
+		 */
+		public Stream<Smell> stream() {
+			List<Smell> candidates;
+			List<Predicate<Smell>> conditions = new ArrayList<>(4);
+
+			synchronized (SmellStore.this) {
+				Set<Smell> smallestIndex = null;
+				String indexName = null;
+				if(smellType != null) {
+					smallestIndex = smellsByType.getOrDefault(smellType, Collections.emptySet());
+					indexName = "type";
+				}
+				if(filePath != null && isSmaller(smellsByFile.get(filePath), smallestIndex)) {
+					smallestIndex = smellsByFile.getOrDefault(filePath, Collections.emptySet());
+					indexName = "file";
+				}
+				if(className != null && isSmaller(smellsByClass.get(className), smallestIndex)) {
+					smallestIndex = smellsByClass.getOrDefault(className, Collections.emptySet());
+					indexName = "class";
+				}
+				if(detectorName != null && isSmaller(smellsByDetector.get(detectorName), smallestIndex)) {
+					smallestIndex = smellsByDetector.getOrDefault(detectorName, Collections.emptySet());
+					indexName = "detector";
+				}
+
+				if(smallestIndex == null) {
+					candidates = new ArrayList<>(canonicalSmells.size());
+					smellsByType.values().forEach(candidates::addAll);
+				} else {
+					candidates = new ArrayList<>(smallestIndex);
+				}
+
+				//The condition of the chosen index holds for every candidate
+				if(smellType != null && !"type".equals(indexName))
+					conditions.add(smell -> smell.getSmellType() == smellType);
+				if(filePath != null && !"file".equals(indexName))
+					conditions.add(smell -> smell.getTargetFile() != null && filePath.equals(Utils.getNormalisedPath(smell.getTargetFile())));
+				if(className != null && !"class".equals(indexName))
+					conditions.add(smell -> className.equals(smell.getClassName()));
+				if(detectorName != null && !"detector".equals(indexName))
+					conditions.add(smell -> smell.isDetectedBy(detectorName));
+			}
+			if(detectorCount > 0)
+				conditions.add(smell -> smell.getDetectorCount() == detectorCount);
+
+			Stream<Smell> smells = candidates.stream();
+			for(Predicate<Smell> condition : conditions) {
+				smells = smells.filter(condition);
+			}
+
+			return smells;
+		}
+
+		private boolean isSmaller(Set<Smell> index, Set<Smell> smallestIndex) {
+			return smallestIndex == null || index == null || index.size() < smallestIndex.size();
+		}
+	}
+
+}
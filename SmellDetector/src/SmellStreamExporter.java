@@ -0,0 +1,38 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes smells in an export format one at a time, as they are detected, so that the memory
+ * of the export does not depend on the number of smells. New formats are added by
+ * implementing this interface and registering the implementation with
+ * {@link StreamingExportListener#registerFormat(String, String, StreamingExportListener.ExporterFactory)}.
+ */
+public interface SmellStreamExporter extends Closeable {
+
+	/**
+	 * A method that writes a single smell. Every record holds the type, the class, the method,
+	 * the file, the lines, the duplication group and the detectors of the smell.
+	 * 
+	 * @param smell the smell to be written
+	 * @throws IOException if the smell cannot be written
+	 */
+	void writeSmell(Smell smell) throws IOException;
+
+	/**
+	 * A method that hands the written smells to the reader of the export, e.g. after the
+	 * smells of a detector, so that the reader can start before the detection ends.
+	 * 
+	 * @throws IOException if the smells cannot be written
+	 */
+	void flush() throws IOException;
+
+	/**
+	 * A method that completes the export, e.g. closes the open elements of a document, and
+	 * closes the output.
+	 * 
+	 * @throws IOException if the export cannot be completed
+	 */
+	@Override
+	void close() throws IOException;
+
+}
@@ -0,0 +1,371 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * The model of the table of detected smells, made for hundreds of thousands of rows. The
+ * cells of every smell are computed once, and the rows of every detector and of every number
+ * of detectors are kept as bitsets, so a filter is a few bitset operations. Filtering and
+ * sorting run on a background thread, which builds the new order of the rows and publishes it
+ * to the table with a single change event. The table only asks for the cells of the visible
+ * rows, so the cost of painting does not depend on the number of rows.
+ *
+ * The methods of the model are called on the event dispatch thread.
+ */
+public class SmellTableModel extends AbstractTableModel {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final String ALL_DETECTORS = "All Detectors";
+
+	private static final String[] COLUMN_NAMES = {"Smell Type", "Class Name", "Affected Element", "Start Line", "Detectors"};
+	private static final int START_LINE_COLUMN = 3;
+
+	//A single thread, so that the tasks are applied in the order in which they were asked for
+	private final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "smell-table");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	//Only used on the worker thread
+	private Rows rows = new Rows(new Smell[0], 0);
+	private int detectorCountFilter;
+	private String detectorFilter = ALL_DETECTORS;
+	private int sortColumn = -1;
+	private boolean sortAscending = true;
+
+	//Only used on the event dispatch thread
+	private View view = new View(rows, new int[0]);
+	private Consumer<Set<String>> detectorNamesListener = detectorNames -> {};
+
+	/**
+	 * Replaces the rows of the model with the given smells.
+	 *
+	 * @param detectedSmells the smells to be shown
+	 */
+	public void setSmells(SmellStore detectedSmells) {
+		loadSmells(detectedSmells::stream);
+	}
+
+	/**
+	 * Replaces the rows of the model with the smells of the given result file, which are
+	 * decoded in the background.
+	 *
+	 * @param resultFile the opened result file
+	 */
+	public void setSmells(SmellResultFile resultFile) {
+		loadSmells(resultFile::stream);
+	}
+
+	private void loadSmells(Supplier<Stream<Smell>> smellSource) {
+		submit(() -> {
+			Smell[] smells = smellSource.get().toArray(Smell[]::new);
+			rows = new Rows(smells, smells.length);
+			publish();
+		});
+	}
+
+	/**
+	 * Removes the given smells from the model and adds the others, e.g. after a watched file
+	 * changed. The rows of the removed smells are only marked, so nothing is copied but the
+	 * added smells.
+	 *
+	 * @param removedSmells the smells that are no longer detected
+	 * @param addedSmells the smells that are newly detected
+	 */
+	public void applyChanges(Collection<Smell> removedSmells, Collection<Smell> addedSmells) {
+		submit(() -> {
+			rows = rows.withChanges(removedSmells, addedSmells);
+			publish();
+		});
+	}
+
+	/**
+	 * Shows only the smells that were found by the given number of detectors and by the given detector.
+	 *
+	 * @param detectorCount the number of detectors, or 0 for any number
+	 * @param detectorName the name of a detector, or {@link #ALL_DETECTORS}
+	 */
+	public void filter(int detectorCount, String detectorName) {
+		submit(() -> {
+			detectorCountFilter = detectorCount;
+			detectorFilter = detectorName;
+			publish();
+		});
+	}
+
+	/**
+	 * Sorts the rows by the given column. Sorting by the same column again reverses the order.
+	 *
+	 * @param column the index of the column in the model
+	 */
+	public void sortBy(int column) {
+		submit(() -> {
+			sortAscending = column != sortColumn || !sortAscending;
+			sortColumn = column;
+			publish();
+		});
+	}
+
+	/**
+	 * Sets what is told about the names of the detectors of the rows whenever they are published.
+	 *
+	 * @param detectorNamesListener called on the event dispatch thread with the sorted names
+	 */
+	public void setDetectorNamesListener(Consumer<Set<String>> detectorNamesListener) {
+		this.detectorNamesListener = detectorNamesListener;
+	}
+
+	/**
+	 * Stops the background thread of the model, e.g. when its window is closed.
+	 */
+	public void dispose() {
+		worker.shutdownNow();
+	}
+
+	/**
+	 * Returns the smell of the given row of the table.
+	 *
+	 * @param rowIndex the index of the row in the table
+	 * @return the {@code Smell} of the row
+	 */
+	public Smell getSmellAt(int rowIndex) {
+		return view.rows.smells[view.rowOrder[rowIndex]];
+	}
+
+	@Override
+	public int getRowCount() {
+		return view.rowOrder.length;
+	}
+
+	@Override
+	public int getColumnCount() {
+		return COLUMN_NAMES.length;
+	}
+
+	@Override
+	public String getColumnName(int column) {
+		return COLUMN_NAMES[column];
+	}
+
+	@Override
+	public Class<?> getColumnClass(int column) {
+		return column == START_LINE_COLUMN ? Integer.class : String.class;
+	}
+
+	@Override
+	public Object getValueAt(int rowIndex, int columnIndex) {
+		int row = view.rowOrder[rowIndex];
+		if(columnIndex == START_LINE_COLUMN)
+			return view.rows.startLines[row];
+		return view.rows.cells[columnIndex][row];
+	}
+
+	private void submit(Runnable task) {
+		//A disposed model ignores what is asked of it, e.g. the results of a detection that ended after its window closed
+		if(!worker.isShutdown())
+			worker.execute(task);
+	}
+
+	/**
+	 * Builds the order of the rows for the current filter and sort on the worker thread, and
+	 * hands it to the table in a single event.
+	 */
+	private void publish() {
+		BitSet visibleRows = (BitSet) rows.liveRows.clone();
+		if(detectorCountFilter > 0)
+			visibleRows.and(rows.rowsOfDetectorCount(detectorCountFilter));
+		if(!ALL_DETECTORS.equals(detectorFilter))
+			visibleRows.and(rows.rowsOfDetector(detectorFilter));
+
+		int[] rowOrder = visibleRows.stream().toArray();
+		if(sortColumn >= 0)
+			rowOrder = rows.sort(rowOrder, sortColumn, sortAscending);
+
+		View newView = new View(rows, rowOrder);
+		Set<String> detectorNames = Collections.unmodifiableSet(new TreeSet<>(rows.rowsPerDetector.keySet()));
+		SwingUtilities.invokeLater(() -> {
+			view = newView;
+			fireTableDataChanged();
+			detectorNamesListener.accept(detectorNames);
+		});
+	}
+
+
+	/**
+	 * What the table shows: the rows and the order of the visible ones.
+	 */
+	private static class View {
+		private final Rows rows;
+		private final int[] rowOrder;
+
+		View(Rows rows, int[] rowOrder) {
+			this.rows = rows;
+			this.rowOrder = rowOrder;
+		}
+	}
+
+
+	/**
+	 * The cells of every smell, in arrays indexed by row. Once published, a {@code Rows} is
+	 * never changed; changes make a new one that shares what did not change.
+	 */
+	private static class Rows {
+		private final Smell[] smells;
+		private final int size;
+		private final String[][] cells;
+		private final int[] startLines;
+		private final BitSet liveRows;
+		private final Map<String, BitSet> rowsPerDetector;
+		private final Map<Integer, BitSet> rowsPerDetectorCount;
+		private final Map<Smell, Integer> rowOfSmell;
+		//The rank of the cell of every row in the order of its column, computed when first sorted by the column
+		private final int[][] sortRanks = new int[COLUMN_NAMES.length][];
+
+		Rows(Smell[] smells, int size) {
+			this(smells, size, new String[COLUMN_NAMES.length][size], new int[size], new BitSet(size),
+					new HashMap<>(), new HashMap<>(), new IdentityHashMap<>());
+			for(int row = 0; row < size; row++) {
+				fillRow(row);
+			}
+		}
+
+		private Rows(Smell[] smells, int size, String[][] cells, int[] startLines, BitSet liveRows,
+				Map<String, BitSet> rowsPerDetector, Map<Integer, BitSet> rowsPerDetectorCount, Map<Smell, Integer> rowOfSmell) {
+			this.smells = smells;
+			this.size = size;
+			this.cells = cells;
+			this.startLines = startLines;
+			this.liveRows = liveRows;
+			this.rowsPerDetector = rowsPerDetector;
+			this.rowsPerDetectorCount = rowsPerDetectorCount;
+			this.rowOfSmell = rowOfSmell;
+		}
+
+		private void fillRow(int row) {
+			Smell smell = smells[row];
+			cells[0][row] = smell.getSmellType().getName();
+			cells[1][row] = smell.getClassName();
+			cells[2][row] = smell.getAffectedElementName();
+			cells[4][row] = smell.getDetectorNames();
+			startLines[row] = smell.getTargetStartLine();
+
+			liveRows.set(row);
+			for(String detectorName : smell.getDetectorNameSet()) {
+				rowsPerDetector.computeIfAbsent(detectorName, name -> new BitSet()).set(row);
+			}
+			rowsPerDetectorCount.computeIfAbsent(smell.getDetectorCount(), count -> new BitSet()).set(row);
+			rowOfSmell.put(smell, row);
+		}
+
+		BitSet rowsOfDetector(String detectorName) {
+			return rowsPerDetector.getOrDefault(detectorName, new BitSet());
+		}
+
+		BitSet rowsOfDetectorCount(int detectorCount) {
+			return rowsPerDetectorCount.getOrDefault(detectorCount, new BitSet());
+		}
+
+		/**
+		 * Returns new rows without the removed smells and with the added ones at the end. The
+		 * arrays grow like the ones of a list, so adding a few smells copies nothing most of the time.
+		 */
+		Rows withChanges(Collection<Smell> removedSmells, Collection<Smell> addedSmells) {
+			int newSize = size + addedSmells.size();
+			int capacity = Math.max(newSize, smells.length);
+			if(newSize > smells.length)
+				capacity = Math.max(newSize, smells.length + (smells.length >> 1));
+
+			String[][] newCells = new String[COLUMN_NAMES.length][];
+			for(int column = 0; column < COLUMN_NAMES.length; column++) {
+				newCells[column] = capacity == smells.length ? cells[column] : Arrays.copyOf(cells[column], capacity);
+			}
+			Map<String, BitSet> newRowsPerDetector = new HashMap<>();
+			rowsPerDetector.forEach((detectorName, detectorRows) -> newRowsPerDetector.put(detectorName, (BitSet) detectorRows.clone()));
+			Map<Integer, BitSet> newRowsPerDetectorCount = new HashMap<>();
+			rowsPerDetectorCount.forEach((detectorCount, countRows) -> newRowsPerDetectorCount.put(detectorCount, (BitSet) countRows.clone()));
+
+			//The cells of the published rows are never overwritten, only the ones after their size are filled
+			Rows newRows = new Rows(capacity == smells.length ? smells : Arrays.copyOf(smells, capacity), newSize, newCells,
+					capacity == smells.length ? startLines : Arrays.copyOf(startLines, capacity), (BitSet) liveRows.clone(),
+					newRowsPerDetector, newRowsPerDetectorCount, new IdentityHashMap<>(rowOfSmell));
+
+			for(Smell removedSmell : removedSmells) {
+				Integer row = newRows.rowOfSmell.remove(removedSmell);
+				if(row != null)
+					newRows.liveRows.clear(row);
+			}
+			int row = size;
+			for(Smell addedSmell : addedSmells) {
+				newRows.smells[row] = addedSmell;
+				newRows.fillRow(row++);
+			}
+			return newRows;
+		}
+
+		/**
+		 * Sorts the given rows by the given column. Every row is turned into a single long of
+		 * its rank in the column and its index, so the rows are sorted as primitives, and rows
+		 * with equal cells keep their order.
+		 */
+		int[] sort(int[] rowOrder, int column, boolean ascending) {
+			int[] ranks = getSortRanks(column);
+			long[] keys = new long[rowOrder.length];
+			for(int i = 0; i < rowOrder.length; i++) {
+				long rank = ascending ? ranks[rowOrder[i]] : -(long) ranks[rowOrder[i]];
+				keys[i] = (rank << 32) | rowOrder[i];
+			}
+			Arrays.parallelSort(keys);
+
+			int[] sortedRows = new int[rowOrder.length];
+			for(int i = 0; i < keys.length; i++) {
+				sortedRows[i] = (int) keys[i];
+			}
+			return sortedRows;
+		}
+
+		private int[] getSortRanks(int column) {
+			if(sortRanks[column] != null)
+				return sortRanks[column];
+
+			int[] ranks = new int[size];
+			if(column == START_LINE_COLUMN) {
+				System.arraycopy(startLines, 0, ranks, 0, size);
+			} else {
+				//Every distinct cell gets the rank of its place among the distinct cells of the column
+				String[] distinctCells = Arrays.stream(cells[column], 0, size)
+						.map(cell -> cell == null ? "" : cell)
+						.distinct()
+						.sorted(String.CASE_INSENSITIVE_ORDER.thenComparing(Comparator.naturalOrder()))
+						.toArray(String[]::new);
+				Map<String, Integer> rankOfCell = new HashMap<>(distinctCells.length * 2);
+				for(int rank = 0; rank < distinctCells.length; rank++) {
+					rankOfCell.put(distinctCells[rank], rank);
+				}
+				for(int row = 0; row < size; row++) {
+					ranks[row] = rankOfCell.get(cells[column][row] == null ? "" : cells[column][row]);
+				}
+			}
+			sortRanks[column] = ranks;
+			return ranks;
+		}
+	}
+
+}
@@ -0,0 +1,188 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.JavaModelException;
+
+/**
+ * The line table of a source file: the offset at which every line starts, and the lines that
+ * may declare a method, i.e. the lines that contain a '(', together with the name in front of
+ * the '('. The file is read once when the index is created, and both questions are then
+ * answered with a binary search.
+ */
+public class SourceIndex {
+
+	private final int[] lineStartOffsets;
+	private final int[] declarationLines;
+	private final String[] declarationNames;
+
+	private SourceIndex(int[] lineStartOffsets, int[] declarationLines, String[] declarationNames) {
+		this.lineStartOffsets = lineStartOffsets;
+		this.declarationLines = declarationLines;
+		this.declarationNames = declarationNames;
+	}
+
+	/**
+	 * Reads the given file and creates its index.
+	 *
+	 * @param sourceFile the file to be indexed
+	 * @return the {@code SourceIndex} of the file
+	 * @throws IOException
+	 */
+	public static SourceIndex of(File sourceFile) throws IOException {
+		return of(new String(Files.readAllBytes(sourceFile.toPath()), Charset.defaultCharset()));
+	}
+
+	/**
+	 * Creates the index of the given source code. Lines end at "\n", "\r\n" or "\r", in the
+	 * same way as {@link java.io.BufferedReader#readLine()} splits them.
+	 *
+	 * @param source the source code to be indexed
+	 * @return the {@code SourceIndex} of the source code
+	 */
+	public static SourceIndex of(String source) {
+		int[] lineStartOffsets = new int[16];
+		int[] declarationLines = new int[16];
+		String[] declarationNames = new String[16];
+		int lineCount = 0;
+		int declarationCount = 0;
+
+		int lineStart = 0;
+		while(true) {
+			int lineEnd = lineStart;
+			int indexOfParen = -1;
+			while(lineEnd < source.length() && source.charAt(lineEnd) != '\n' && source.charAt(lineEnd) != '\r') {
+				if(indexOfParen == -1 && source.charAt(lineEnd) == '(')
+					indexOfParen = lineEnd;
+				lineEnd++;
+			}
+
+			if(lineCount == lineStartOffsets.length)
+				lineStartOffsets = Arrays.copyOf(lineStartOffsets, lineCount * 2);
+			lineStartOffsets[lineCount++] = lineStart;
+
+			if(indexOfParen != -1) {
+				if(declarationCount == declarationLines.length) {
+					declarationLines = Arrays.copyOf(declarationLines, declarationCount * 2);
+					declarationNames = Arrays.copyOf(declarationNames, declarationCount * 2);
+				}
+
+				String lineBeforeParen = source.substring(lineStart, indexOfParen);
+				declarationLines[declarationCount] = lineCount;
+				declarationNames[declarationCount++] = lineBeforeParen.substring(lineBeforeParen.lastIndexOf(' ') + 1);
+			}
+
+			if(lineEnd == source.length())
+				break;
+
+			lineStart = lineEnd + 1;
+			if(source.charAt(lineEnd) == '\r' && lineStart < source.length() && source.charAt(lineStart) == '\n')
+				lineStart++;
+		}
+
+		return new SourceIndex(Arrays.copyOf(lineStartOffsets, lineCount),
+				Arrays.copyOf(declarationLines, declarationCount), Arrays.copyOf(declarationNames, declarationCount));
+	}
+
+	public int getLineCount() {
+		return lineStartOffsets.length;
+	}
+
+	/**
+	 * Returns the number of the line in which the given character offset is located.
+	 *
+	 * @param offset the character offset to be checked
+	 * @return the line number of the offset, starting from 1
+	 */
+	public int getLineNumber(int offset) {
+		int index = Arrays.binarySearch(lineStartOffsets, offset);
+
+		return index >= 0 ? index + 1 : -index - 1;
+	}
+
+	/**
+	 * Finds the first method declaration at or after the given line, i.e. the first line that
+	 * contains a '(', and returns the name of the method and the line of the declaration.
+	 *
+	 * @param methodLine the line from which to search for the declaration
+	 * @return the name of the method and its correct line
+	 * @throws IOException if there is no declaration at or after the given line
+	 */
+	public Object[] findMethodDeclaration(int methodLine) throws IOException {
+		int index = Arrays.binarySearch(declarationLines, methodLine);
+		if(index < 0)
+			index = -index - 1;
+
+		if(index == declarationLines.length)
+			throw new IOException("Method declaration not found in file");
+
+		return new Object[]{declarationNames[index], declarationLines[index]};
+	}
+
+
+	/**
+	 * The indexes of the files of a single run. Every file is read once no matter how many
+	 * smells or detectors ask for it, and the cache can be shared between the detectors of
+	 * the run.
+	 */
+	public static class Cache {
+		private final Map<String, SourceIndex> indexes = new ConcurrentHashMap<>();
+
+		/**
+		 * Returns the index of the given file, which is created the first time it is asked for.
+		 *
+		 * @param sourceFile the file of the index
+		 * @return the {@code SourceIndex} of the file
+		 * @throws IOException
+		 */
+		public SourceIndex get(File sourceFile) throws IOException {
+			String filePath = Utils.getNormalisedPath(sourceFile);
+			SourceIndex index = indexes.get(filePath);
+			if(index == null) {
+				index = SourceIndex.of(sourceFile);
+				SourceIndex existingIndex = indexes.putIfAbsent(filePath, index);
+				if(existingIndex != null)
+					index = existingIndex;
+			}
+
+			return index;
+		}
+
+		/**
+		 * Returns the index of the given file, which is created from the given content of the
+		 * file if it does not exist yet. This is used by detectors that read the file anyway.
+		 *
+		 * @param sourceFile the file of the index
+		 * @param source the content of the file
+		 * @return the {@code SourceIndex} of the file
+		 */
+		public SourceIndex get(File sourceFile, String source) {
+			return indexes.computeIfAbsent(Utils.getNormalisedPath(sourceFile), filePath -> SourceIndex.of(source));
+		}
+
+		/**
+		 * Returns the index of the source of the given compilation unit.
+		 *
+		 * @param cUnit the compilation unit of the index
+		 * @return the {@code SourceIndex} of the compilation unit
+		 * @throws JavaModelException
+		 */
+		public SourceIndex get(ICompilationUnit cUnit) throws JavaModelException {
+			SourceIndex index = indexes.get(cUnit.getHandleIdentifier());
+			if(index == null) {
+				index = SourceIndex.of(cUnit.getSource());
+				SourceIndex existingIndex = indexes.putIfAbsent(cUnit.getHandleIdentifier(), index);
+				if(existingIndex != null)
+					index = existingIndex;
+			}
+
+			return index;
+		}
+	}
+
+}
@@ -0,0 +1,198 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Exports the smells of a detection while it is running. The smells of every detector are
+ * written as soon as the detector ends and are then flushed, so a reader of the export, e.g.
+ * a code review tool that follows the file, can start before the slowest detector ends.
+ *
+ * Since the results of the detectors are only merged at the end, a smell that more than one
+ * detector found is only written by the first of them that ends, with that detector, so the
+ * export has one record for every merged smell. The duplicates are written last, once their
+ * groups are unified across the detectors.
+ *
+ * The formats are pluggable: jsonl and sarif are registered, and others can be added with
+ * {@link #registerFormat(String, String, ExporterFactory)}.
+ */
+public class StreamingExportListener implements DetectionListener, Closeable {
+
+	private static final String EXPORT_FILE_NAME = "Detected_smells";
+	private static final Map<String, Format> FORMATS = new LinkedHashMap<>();
+
+	static {
+		registerFormat("jsonl", ".jsonl", JsonLinesExporter::new);
+		registerFormat("sarif", ".sarif", SarifExporter::new);
+	}
+
+	private final SmellStreamExporter exporter;
+	private final File exportFile;
+	private IOException failure;
+	private final Set<Smell> writtenSmells = new HashSet<>();
+
+	/**
+	 * Creates a listener that writes the smells with the given exporter.
+	 *
+	 * @param exporter the exporter of the smells, which is closed with the listener
+	 * @param exportFile the file that the exporter writes, or {@code null} if it is not a file
+	 */
+	public StreamingExportListener(SmellStreamExporter exporter, File exportFile) {
+		this.exporter = exporter;
+		this.exportFile = exportFile;
+	}
+
+	/**
+	 * Creates a listener that writes the smells in the given format to a file of the given
+	 * directory, which is named after the format, e.g. {@code Detected_smells.sarif}.
+	 *
+	 * @param format the name of a registered format
+	 * @param exportDirectory the directory of the export
+	 * @return the listener of the export
+	 * @throws IOException if the file cannot be created
+	 * @throws IllegalArgumentException if the format is not registered
+	 */
+	public static StreamingExportListener create(String format, File exportDirectory) throws IOException {
+		Format exportFormat;
+		synchronized (FORMATS) {
+			exportFormat = FORMATS.get(format);
+		}
+		if(exportFormat == null)
+			throw new IllegalArgumentException("Unknown export format: " + format);
+
+		File exportFile = new File(exportDirectory, EXPORT_FILE_NAME + exportFormat.fileExtension);
+		Writer writer = SmellExporter.openBufferedWriter(exportFile.getPath(), StandardCharsets.UTF_8);
+		try {
+			return new StreamingExportListener(exportFormat.exporterFactory.create(writer), exportFile);
+		} catch (IOException | RuntimeException e) {
+			writer.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Adds an export format, or replaces the one with the same name.
+	 *
+	 * @param format the name of the format, e.g. the value of {@code --format}
+	 * @param fileExtension the extension of the exported file, with its dot
+	 * @param exporterFactory creates the exporter of the format over a writer
+	 */
+	public static void registerFormat(String format, String fileExtension, ExporterFactory exporterFactory) {
+		synchronized (FORMATS) {
+			FORMATS.put(format, new Format(fileExtension, exporterFactory));
+		}
+	}
+
+	/**
+	 * Returns the names of the registered formats, in the order in which they were registered.
+	 *
+	 * @return a {@code Set} with the names of the formats
+	 */
+	public static Set<String> getFormats() {
+		synchronized (FORMATS) {
+			return Collections.unmodifiableSet(new LinkedHashSet<>(FORMATS.keySet()));
+		}
+	}
+
+	public File getExportFile() {
+		return exportFile;
+	}
+
+	@Override
+	public synchronized void detectorFinished(String detectorName, SmellStore detectorSmells) {
+		detectorSmells.stream()
+			.filter(smell -> smell.getSmellType() != SmellType.DUPLICATE_CODE && writtenSmells.add(smell))
+			.forEach(this::write);
+		flush();
+	}
+
+	@Override
+	public synchronized void detectionFinished(SmellStore detectedSmells) {
+		//Every merged smell is written exactly once, whichever detector it came from
+		detectedSmells.stream()
+			.filter(smell -> smell.getSmellType() == SmellType.DUPLICATE_CODE || writtenSmells.add(smell))
+			.forEach(this::write);
+		flush();
+	}
+
+	/**
+	 * Writes all the given smells, e.g. the results of a detection that could not report its
+	 * progress. Every smell is written once, with all the detectors that found it.
+	 *
+	 * @param detectedSmells the smells to be written
+	 */
+	public synchronized void exportAll(SmellStore detectedSmells) {
+		detectedSmells.stream().forEach(this::write);
+		flush();
+	}
+
+	/**
+	 * Completes the export.
+	 *
+	 * @throws IOException if a smell could not be written, or the export cannot be completed
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			exporter.close();
+		} catch (IOException e) {
+			if(failure == null)
+				failure = e;
+		}
+		if(failure != null)
+			throw failure;
+	}
+
+	/**
+	 * The listener is not allowed to throw, so the first failure is kept for {@link #close()},
+	 * and nothing more is written after it.
+	 */
+	private void write(Smell smell) {
+		if(failure != null)
+			return;
+
+		try {
+			exporter.writeSmell(smell);
+		} catch (IOException e) {
+			failure = e;
+		}
+	}
+
+	private void flush() {
+		if(failure != null)
+			return;
+
+		try {
+			exporter.flush();
+		} catch (IOException e) {
+			failure = e;
+		}
+	}
+
+
+	/**
+	 * Creates the exporter of a format over the writer of the export.
+	 */
+	public interface ExporterFactory {
+		SmellStreamExporter create(Writer writer) throws IOException;
+	}
+
+
+	private static class Format {
+		private final String fileExtension;
+		private final ExporterFactory exporterFactory;
+
+		Format(String fileExtension, ExporterFactory exporterFactory) {
+			this.fileExtension = fileExtension;
+			this.exporterFactory = exporterFactory;
+		}
+	}
+
+}
@@ -0,0 +1,278 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * A duplicate code detector that runs inside the application instead of calling CPD or DuDe.
+ * Every file is split into tokens in parallel, and every window of {@value #MINIMUM_TOKEN_COUNT}
+ * consecutive tokens gets a fingerprint with a rolling hash. The fingerprints of all the
+ * windows are sorted together, so windows with the same tokens end up next to each other. The
+ * text of the tokens of such windows is compared to rule out hash collisions, and every match
+ * is extended for as long as the text of the tokens stays the same.
+ */
+public class TokenCloneSmellDetector extends SmellDetector {
+
+	//The same minimum as the one CPD is run with
+	private static final int MINIMUM_TOKEN_COUNT = 100;
+	private static final long HASH_BASE = 0x9E3779B97F4A7C15L;
+
+	private String projectDirectory;
+	private SmellStore detectedSmells;
+
+	public TokenCloneSmellDetector(String projectDirectory) {
+		this.projectDirectory = projectDirectory;
+		this.detectedSmells = new SmellStore();
+	}
+
+	private static final Set<SmellType> SUPPORTED_SMELL_TYPES = Collections.unmodifiableSet(
+			new HashSet<SmellType>(Arrays.asList(SmellType.DUPLICATE_CODE)));
+
+	@Override
+	public Set<SmellType> getSupportedSmellTypes() {
+		return SUPPORTED_SMELL_TYPES;
+	}
+
+	@Override
+	public String getDetectorName() {
+		return "TokenClone";
+	}
+
+	@Override
+	public void findSmells(SmellType smellType, SmellStore detectedSmells) throws Exception {
+		//Duplicates span more than one file, so they are only searched for in full runs
+		if(!isCrossFileAnalysisEnabled()) {
+			this.detectedSmells = detectedSmells;
+			return;
+		}
+
+		List<File> javaFiles = collectJavaFiles();
+		List<JavaTokenizer.Tokens> fileTokens = tokenizeFiles(javaFiles);
+		List<CloneGroup> cloneGroups = findCloneGroups(fileTokens);
+
+		//The groups are numbered in the order of their files and lines, so every run gives the same ids
+		cloneGroups.sort(Comparator.comparingInt((CloneGroup group) -> group.fileIndexes[0])
+								   .thenComparingInt(group -> group.startTokens[0]));
+		for(CloneGroup cloneGroup : cloneGroups) {
+			int duplicationGroupId = detectedSmells.createDuplicationGroupId();
+			for(int i = 0; i < cloneGroup.fileIndexes.length; i++) {
+				File targetFile = javaFiles.get(cloneGroup.fileIndexes[i]);
+				JavaTokenizer.Tokens tokens = fileTokens.get(cloneGroup.fileIndexes[i]);
+				int startToken = cloneGroup.startTokens[i];
+
+				detectedSmells.add(getDetectorName(),
+						Utils.createSmellObject(SmellType.DUPLICATE_CODE, duplicationGroupId, targetFile.getName(), targetFile,
+								tokens.getLine(startToken), tokens.getLine(startToken + cloneGroup.tokenCount - 1)));
+			}
+		}
+
+		this.detectedSmells = detectedSmells;
+		System.out.println("End TokenClone");
+	}
+
+	private List<File> collectJavaFiles() throws IOException {
+		try(Stream<Path> paths = Files.walk(Path.of(projectDirectory))) {
+			return paths.filter(path -> path.toString().endsWith(".java") && Files.isRegularFile(path))
+						.sorted()
+						.map(Path::toFile)
+						.collect(Collectors.toList());
+		}
+	}
+
+	private List<JavaTokenizer.Tokens> tokenizeFiles(List<File> javaFiles) throws IOException {
+		try {
+			return javaFiles.parallelStream()
+							.map(file -> {
+								try {
+									return JavaTokenizer.tokenize(new String(Files.readAllBytes(file.toPath()), Charset.defaultCharset()));
+								} catch (IOException e) {
+									throw new UncheckedIOException(e);
+								}
+							})
+							.collect(Collectors.toList());
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Finds the groups of code fragments that have the same tokens. Every window of tokens is
+	 * kept in a single {@code long}: the upper half holds its fingerprint and the lower half the
+	 * global number of the window, so sorting the array puts the windows with the same
+	 * fingerprint next to each other without any further objects.
+	 *
+	 * @param fileTokens the tokens of every file
+	 * @return the groups of duplicated fragments
+	 */
+	private List<CloneGroup> findCloneGroups(List<JavaTokenizer.Tokens> fileTokens) {
+		//The number of the first window of every file, and the total number of windows at the end
+		long[] firstWindows = new long[fileTokens.size() + 1];
+		for(int i = 0; i < fileTokens.size(); i++) {
+			firstWindows[i + 1] = firstWindows[i] + Math.max(0, fileTokens.get(i).size() - MINIMUM_TOKEN_COUNT + 1);
+		}
+		long windowCount = firstWindows[fileTokens.size()];
+		if(windowCount > Integer.MAX_VALUE)
+			throw new IllegalStateException("The project has too many tokens for the clone detector: " + windowCount);
+
+		long[] windows = new long[(int) windowCount];
+		IntStream.range(0, fileTokens.size()).parallel().forEach(fileIndex ->
+				fingerprintWindows(fileTokens.get(fileIndex), (int) firstWindows[fileIndex], windows));
+		Arrays.parallelSort(windows);
+
+		List<int[]> buckets = new ArrayList<>();
+		int bucketStart = 0;
+		for(int i = 1; i <= windows.length; i++) {
+			if(i == windows.length || (windows[i] >>> 32) != (windows[bucketStart] >>> 32)) {
+				if(i - bucketStart > 1)
+					buckets.add(new int[] {bucketStart, i});
+				bucketStart = i;
+			}
+		}
+
+		return buckets.parallelStream()
+					  .flatMap(bucket -> matchWindows(windows, bucket[0], bucket[1], firstWindows, fileTokens).stream())
+					  .collect(Collectors.toList());
+	}
+
+	private static void fingerprintWindows(JavaTokenizer.Tokens tokens, int firstWindow, long[] windows) {
+		int windowsOfFile = tokens.size() - MINIMUM_TOKEN_COUNT + 1;
+		if(windowsOfFile <= 0)
+			return;
+
+		long highestPower = 1;
+		for(int i = 1; i < MINIMUM_TOKEN_COUNT; i++) {
+			highestPower *= HASH_BASE;
+		}
+
+		long fingerprint = 0;
+		for(int i = 0; i < MINIMUM_TOKEN_COUNT; i++) {
+			fingerprint = fingerprint * HASH_BASE + tokens.getHash(i);
+		}
+
+		for(int window = 0; window < windowsOfFile; window++) {
+			if(window > 0) {
+				fingerprint = (fingerprint - tokens.getHash(window - 1) * highestPower) * HASH_BASE
+						+ tokens.getHash(window + MINIMUM_TOKEN_COUNT - 1);
+			}
+
+			long mixedFingerprint = fingerprint * 0xBF58476D1CE4E5B9L;
+			windows[firstWindow + window] = (mixedFingerprint & 0xFFFFFFFF00000000L) | (firstWindow + window);
+		}
+	}
+
+	/**
+	 * Turns the windows of a bucket, which share their fingerprint, into clone groups. The
+	 * windows are split into classes of windows with the same tokens, and the first window of
+	 * every class is extended together with each of the others. Windows whose previous tokens
+	 * are the same as well are skipped, since they are part of a match that starts earlier.
+	 *
+	 * @param windows the sorted windows
+	 * @param start the index of the first window of the bucket
+	 * @param end the index after the last window of the bucket
+	 * @param firstWindows the number of the first window of every file
+	 * @param fileTokens the tokens of every file
+	 * @return the clone groups that start in the bucket
+	 */
+	private static List<CloneGroup> matchWindows(long[] windows, int start, int end, long[] firstWindows,
+			List<JavaTokenizer.Tokens> fileTokens) {
+		List<List<int[]>> windowClasses = new ArrayList<>();
+		for(int i = start; i < end; i++) {
+			int window = (int) windows[i];
+			int fileIndex = Arrays.binarySearch(firstWindows, window);
+			//Files without windows share their first window number with the next file
+			if(fileIndex < 0) {
+				fileIndex = -fileIndex - 2;
+			} else {
+				while(firstWindows[fileIndex + 1] == window)
+					fileIndex++;
+			}
+			int[] location = {fileIndex, window - (int) firstWindows[fileIndex]};
+
+			List<int[]> windowClass = windowClasses.stream()
+					.filter(candidate -> sameTokens(candidate.get(0), location, MINIMUM_TOKEN_COUNT, fileTokens))
+					.findFirst()
+					.orElse(null);
+			if(windowClass == null) {
+				windowClass = new ArrayList<>();
+				windowClasses.add(windowClass);
+			}
+			windowClass.add(location);
+		}
+
+		List<CloneGroup> cloneGroups = new ArrayList<>();
+		for(List<int[]> windowClass : windowClasses) {
+			int[] first = windowClass.get(0);
+			JavaTokenizer.Tokens firstTokens = fileTokens.get(first[0]);
+			//The other fragments of the class, by the number of tokens they have in common with the first one
+			Map<Integer, List<int[]>> matchesPerLength = new LinkedHashMap<>();
+
+			for(int[] other : windowClass.subList(1, windowClass.size())) {
+				JavaTokenizer.Tokens otherTokens = fileTokens.get(other[0]);
+				boolean sameFile = first[0] == other[0];
+				if(sameFile && Math.abs(first[1] - other[1]) < MINIMUM_TOKEN_COUNT)
+					continue;
+				if(first[1] > 0 && other[1] > 0 && firstTokens.sameToken(first[1] - 1, otherTokens, other[1] - 1))
+					continue;
+
+				int tokenCount = MINIMUM_TOKEN_COUNT;
+				while(first[1] + tokenCount < firstTokens.size() && other[1] + tokenCount < otherTokens.size()
+						&& firstTokens.sameToken(first[1] + tokenCount, otherTokens, other[1] + tokenCount)
+						&& !(sameFile && Math.min(first[1], other[1]) + tokenCount >= Math.max(first[1], other[1])))
+					tokenCount++;
+
+				matchesPerLength.computeIfAbsent(tokenCount, length -> new ArrayList<>()).add(other);
+			}
+
+			matchesPerLength.forEach((tokenCount, matches) -> cloneGroups.add(new CloneGroup(first, matches, tokenCount)));
+		}
+
+		return cloneGroups;
+	}
+
+	private static boolean sameTokens(int[] first, int[] second, int tokenCount, List<JavaTokenizer.Tokens> fileTokens) {
+		return fileTokens.get(first[0]).matches(first[1], fileTokens.get(second[0]), second[1], tokenCount);
+	}
+
+	@Override
+	public SmellStore getDetectedSmells() {
+		return this.detectedSmells;
+	}
+
+
+	/**
+	 * Fragments with the same tokens, given as the file and the first token of every fragment.
+	 */
+	private static class CloneGroup {
+		private final int[] fileIndexes;
+		private final int[] startTokens;
+		private final int tokenCount;
+
+		CloneGroup(int[] first, List<int[]> others, int tokenCount) {
+			this.fileIndexes = new int[others.size() + 1];
+			this.startTokens = new int[others.size() + 1];
+			this.tokenCount = tokenCount;
+
+			fileIndexes[0] = first[0];
+			startTokens[0] = first[1];
+			for(int i = 0; i < others.size(); i++) {
+				fileIndexes[i + 1] = others.get(i)[0];
+				startTokens[i + 1] = others.get(i)[1];
+			}
+		}
+	}
+
+}
@@ -0,0 +1,12 @@
+
+/**
+ * The ways in which a detector can drive the external tool it is built on.
+ */
+public enum ToolExecutionMode {
+	
+	//The tool is started as a separate process and its report is parsed afterwards
+	EXTERNAL_PROCESS,
+	//The tool is called through its Java API inside the running JVM
+	EMBEDDED;
+	
+}
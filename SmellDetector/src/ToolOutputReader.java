@@ -0,0 +1,17 @@
+import java.io.InputStream;
+
+/**
+ * Reads the standard output of an external tool while the tool is still running.
+ */
+@FunctionalInterface
+public interface ToolOutputReader {
+	
+	/**
+	 * Consumes the output of the tool. The stream does not need to be read until its end.
+	 * 
+	 * @param output the standard output of the tool
+	 * @throws Exception
+	 */
+	void read(InputStream output) throws Exception;
+
+}
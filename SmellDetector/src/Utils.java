@@ -1,157 +1,86 @@
 
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.LinkedHashSet;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.TimeUnit;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.eclipse.jdt.core.ICompilationUnit;
 import org.eclipse.jdt.core.IType;
 import org.eclipse.jdt.core.JavaModelException;
-import org.w3c.dom.Document;
-import org.xml.sax.SAXException;
 
 
 public abstract class Utils {
 		
 	/**
-	 * Runs the given command from the command list and returns the output as a {@code String}
+	 * Creates a streaming XML reader for the given input. Anything in front of the first
+	 * markup character, like a byte order mark or a log line of the tool, is skipped.
 	 * 
-	 * @param commandList a list that contains the parts of the command to be processed
-	 * @param returnOutput a flag that indicates whether output should be returned or not
-	 * @return the output of the command after it's run
-	 * @throws InterruptedException 
+	 * @param input the stream that contains the XML
+	 * @return an {@code XMLStreamReader} positioned at the start of the document
+	 * @throws XMLStreamException
+	 * @throws IOException
 	 */
-	public static String runCommand(List<String> commandList, String directory, boolean returnOutput) throws InterruptedException {
-		ProcessBuilder pb = new ProcessBuilder(commandList);
-		pb.redirectErrorStream(true);
-		if(directory != null && !directory.isEmpty())
-			pb.directory(new File(directory));
+	public static XMLStreamReader createXmlStreamReader(InputStream input) throws XMLStreamException, IOException {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, false);
 		
-		StringBuilder output = new StringBuilder();
-		try {
-			Process p = pb.start();
-			
-			if(!returnOutput) {
-				p.waitFor(2, TimeUnit.MINUTES);
-				p.destroy();
-				if(!p.waitFor(20, TimeUnit.SECONDS))
-					p.destroyForcibly();
-				
-				return null;
-			}
-				
-			BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()));
-					
-			String line;
-			while((line = reader.readLine()) != null) {
-				//Skipping unnecessary line from CheckStyle tool
-				if(line.startsWith("Checkstyle ends with"))
-					continue;
-				
-				output.append(line);
-				output.append("\n");
-			}
-			
-			reader.close();
-			p.destroy();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		BufferedInputStream bufferedInput = new BufferedInputStream(input);
+		int nextByte;
+		do {
+			bufferedInput.mark(1);
+			nextByte = bufferedInput.read();
+		} while(nextByte != -1 && nextByte != '<');
+		bufferedInput.reset();
 		
-		return output.toString();
+		return factory.createXMLStreamReader(bufferedInput);
 	}
 	
 	/**
-	 * Parses the given XML {@code String} and creates a new XML {@code Document}.
-	 * 
-	 * @param xmlString an XML formatted as a {@code String}
-	 * @return the created XML {@code Document}
-	 */
-	public static Document getXmlDocument(String xmlString) {
-        DocumentBuilder db = createDocumentBuilder();
-        Document doc = null;
-
-        try {
-            // Log the XML content for debugging
-            System.out.println("XML Content: " + xmlString);
-
-            // Validate XML content (basic check)
-            if (xmlString == null || xmlString.trim().isEmpty() || !xmlString.trim().startsWith("<")) {
-                System.err.println("Invalid XML content: Not well-formed XML");
-                return null;
-            }
-
-            // Remove BOM if present
-            if (xmlString.startsWith("\uFEFF")) {
-                xmlString = xmlString.substring(1);
-            }
-
-            // Parse the XML string
-            doc = db.parse(new ByteArrayInputStream(xmlString.getBytes(StandardCharsets.UTF_8)));
-        } catch (SAXException e) {
-            System.err.println("SAXException while parsing XML: " + e.getMessage());
-        } catch (IOException e) {
-            System.err.println("IOException while parsing XML: " + e.getMessage());
-        } catch (Exception e) {
-            System.err.println("Unexpected exception while parsing XML: " + e.getMessage());
-        }
-
-        if (doc == null) {
-            System.err.println("Failed to parse XML document.");
-        }
-
-        return doc;
-    }
-
-	
-	/**
-	 * Parses the given XML {@code File} and creates a new XML {@code Document}.
+	 * Moves the given reader to the start of the next element. Reading stops at the end of the
+	 * root element, so that anything the tool prints after its report is never parsed.
 	 * 
-	 * @param xmlFile an XML {@code File}
-	 * @return the created XML {@code Document}
+	 * @param reader the reader to be moved
+	 * @param rootElementName the name of the root element of the document
+	 * @return true if the reader is at the start of an element; false if the document has ended
+	 * @throws XMLStreamException
 	 */
-	public static Document getXmlDocument(File xmlFile) {
-		DocumentBuilder db = createDocumentBuilder();
-		Document doc = null;
-		try {
-			doc = db.parse(xmlFile);
-		} catch (SAXException | IOException e) {
-			e.printStackTrace();
+	public static boolean nextStartElement(XMLStreamReader reader, String rootElementName) throws XMLStreamException {
+		while(reader.hasNext()) {
+			int event = reader.next();
+			if(event == XMLStreamConstants.START_ELEMENT)
+				return true;
+			if(event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals(rootElementName))
+				return false;
 		}
 		
-		return doc;
+		return false;
 	}
 	
 	/**
-	 * Gets a new instance of the {@code DocumentBuilderFactory} and then creates and returns
-	 * a new {@code DocumentBuilder}.
+	 * Skips the element at which the given reader is positioned, together with all of its
+	 * content, without keeping any of it.
 	 * 
-	 * @return a {@code DocumentBuilder}
+	 * @param reader a reader positioned at the start of an element
+	 * @throws XMLStreamException
 	 */
-	private static DocumentBuilder createDocumentBuilder() {
-		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-		DocumentBuilder db = null;
-		try {
-			db = dbf.newDocumentBuilder();
-		} catch (ParserConfigurationException e) {
-			e.printStackTrace();
+	public static void skipXmlElement(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while(depth > 0 && reader.hasNext()) {
+			int event = reader.next();
+			if(event == XMLStreamConstants.START_ELEMENT)
+				depth++;
+			else if(event == XMLStreamConstants.END_ELEMENT)
+				depth--;
 		}
-		
-		return db;
 	}
 	
 	/**
@@ -191,97 +120,37 @@ public abstract class Utils {
 	}
 	
 	/**
-	 * Adds the given new smell to the detected smells map.
+	 * Calculates the line number in which the given character offset is located
+	 * (credits to JSpIRIT).
 	 * 
-	 * @param smellType the {@code SmellType} of the new smell
-	 * @param detectedSmells a {@code Map} that contains the detected smells
-	 * @param newSmell the new {@code Smell} to be added
+	 * @param cUnit the compilation unit of the java element to be checked
+	 * @param offSet the character offset to be checked
+	 * @return the line number of the offset
 	 */
-	public static void addSmell(SmellType smellType, Map<SmellType, Set<Smell>> detectedSmells, String detectorName, Smell newSmell) {
-		if(!detectedSmells.containsKey(smellType)) {
-			detectedSmells.put(smellType, new LinkedHashSet<Smell>());
-		}
-		
-		Set<Smell> detectedSmellsForSmellType = detectedSmells.get(smellType);
-		if(detectedSmellsForSmellType.contains(newSmell)) {
-			detectedSmellsForSmellType.stream().filter( smell -> smell.equals(newSmell)).findFirst().orElse(null).addDetectorName(detectorName);
-		} else {
-			newSmell.addDetectorName(detectorName);
-			detectedSmellsForSmellType.add(newSmell);
-		}
+	public static int getLineNumFromOffset(ICompilationUnit cUnit, int offSet) {
+		return getLineNumFromOffset(cUnit, offSet, new SourceIndex.Cache());
 	}
 	
 	/**
-	 * Calculates the line number in which the given character offset is located
-	 * (credits to JSpIRIT).
+	 * Calculates the line number in which the given character offset is located, using the
+	 * line table of the compilation unit from the given cache.
 	 * 
 	 * @param cUnit the compilation unit of the java element to be checked
 	 * @param offSet the character offset to be checked
+	 * @param sourceIndexes the source indexes of the current run
 	 * @return the line number of the offset
 	 */
-	public static int getLineNumFromOffset(ICompilationUnit cUnit, int offSet) {
+	public static int getLineNumFromOffset(ICompilationUnit cUnit, int offSet, SourceIndex.Cache sourceIndexes) {
         try {
-            String source = cUnit.getSource();
             IType type = cUnit.findPrimaryType();
-            if(type != null) {
-                String sourcetodeclaration = source.substring(0, offSet);
-                int lines = 0;
-                char[] chars = new char[sourcetodeclaration.length()];
-                sourcetodeclaration.getChars(0, sourcetodeclaration.length(), chars, 0);
-                for (int i = 0; i < chars.length; i++) {
-                    if (chars[i] == '\n') {
-                    	lines++;
-                    }
-                }
-                
-                return lines + 1;
-            }
+            if(type != null)
+                return sourceIndexes.get(cUnit).getLineNumber(offSet);
         } catch (JavaModelException jme) {
         }
         
         return 0;      
 	}
 	
-	/**
-	 * Parses the given {@code IFile} until it reaches the given line and then extracts the
-	 * method name in that line.
-	 * 
-	 * @param targetFile the {@code IFile} that will be parsed
-	 * @param methodLine the line in which the method is declared
-	 * @return the name of the method and its correct line from the given file
-	 * @throws Exception
-	 */
-	public static Object[] extractMethodNameAndCorrectLineFromFile(File targetFile, int methodLine) throws IOException {
-      
-        try (BufferedReader reader = new BufferedReader(new FileReader(targetFile))) {
-            int lineCounter = 1;
-            String line;
-
-            while ((line = reader.readLine()) != null) {
-                // Check if we've reached the methodLine or if we've passed it
-                if ((lineCounter == methodLine || lineCounter > methodLine) && line.indexOf('(') != -1) {
-                    break;
-                }
-                lineCounter++;
-            }
-
-            if (line == null) {
-                throw new IOException("Method declaration not found in file");
-            }
-
-            int indexOfParen = line.indexOf('(');
-            if (indexOfParen == -1) {
-                throw new IOException("Method declaration line does not contain '('");
-            }
-
-            line = line.substring(0, indexOfParen);
-            String methodName = line.substring(line.lastIndexOf(" ") + 1);
-
-            return new Object[]{methodName, lineCounter};
-        }
-    }
-
-	
 	/**
 	 * A convenience method which checks if the given smell type is linked to smells related to classes.
 	 * 
@@ -298,32 +167,44 @@ public abstract class Utils {
 		return false;
 	}
 	
-	
-	
-	
-	
 	/**
-	 * Finds either the greatest duplication group id from the already detected duplicates, or
-	 * returns 1 if no duplicates already exist.
+	 * A convenience method which checks if the given smell type depends on more than the file
+	 * in which the smell is found, e.g. duplicates and coupling smells.
 	 * 
-	 * @param detectedSmells a {@code Map} from smellType to a {@code Set} of detected smells
-	 * @return the greatest duplication group id from existing duplicates or 1 if none already exist
+	 * @param smellType the smell type to be checked
+	 * @return true if the smell has to be detected on the whole project; false otherwise
 	 */
-	public static int getGreatestDuplicationGroupId(Map<SmellType, Set<Smell>> detectedSmells) {
-		if(detectedSmells.containsKey(SmellType.DUPLICATE_CODE)) {
-			return Collections.max(detectedSmells.get(SmellType.DUPLICATE_CODE), new Comparator<Smell>() {
-			    @Override
-			    public int compare(Smell first, Smell second) {
-			        if (first.getDuplicationGroupId() > second.getDuplicationGroupId())
-			            return 1;
-			        else if (first.getDuplicationGroupId() < second.getDuplicationGroupId())
-			            return -1;
-			        return 0;
-			    }
-			}).getDuplicationGroupId() + 1;
-		}
+	public static boolean isCrossFileSmell(SmellType smellType) {
+		if(smellType == SmellType.DUPLICATE_CODE || smellType == SmellType.SHOTGUN_SURGERY ||
+		   smellType == SmellType.DISPERSED_COUPLING || smellType == SmellType.INTENSIVE_COUPLING)
+			return true;
 		
-		return 1;
+		return false;
+	}
+	
+	/**
+	 * Returns the absolute and normalised path of the given file, so that the same file is
+	 * always described by the same {@code String} no matter how a tool reported it.
+	 * 
+	 * @param file the file for which to get the path
+	 * @return the normalised absolute path of the file
+	 */
+	public static String getNormalisedPath(File file) {
+		return file.getAbsoluteFile().toPath().normalize().toString();
+	}
+
+	/**
+	 * Returns the directory of the current user in which the application keeps the files
+	 * that should outlive a run, e.g. caches. The directory is created if it does not exist.
+	 *
+	 * @return the data directory of the application
+	 * @throws IOException
+	 */
+	public static File getApplicationDataDirectory() throws IOException {
+		File dataDirectory = new File(System.getProperty("user.home"), ".smelldetector");
+		Files.createDirectories(dataDirectory.toPath());
+
+		return dataDirectory;
 	}
 	
 	/**
@@ -0,0 +1,228 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The messages between a {@code DistributedCoordinator} and its {@code AnalysisWorker}s. A
+ * connection starts with the version of the protocol and the token that the worker was
+ * started with, and then carries any number of shards, one after the other: the coordinator
+ * writes a shard request, and the worker answers with the smells of the shard, or with the
+ * reason why the shard failed. The files are sent as paths, so every worker must see the project under
+ * the same path as the coordinator, e.g. on a shared volume.
+ */
+final class WorkerProtocol {
+
+	//Changing a message must change the version, so that old workers are not sent new messages
+	static final int VERSION = 3;
+
+	private static final int SHARD_SUCCEEDED = 0;
+	private static final int SHARD_FAILED = 1;
+
+	private WorkerProtocol() {
+	}
+
+	/**
+	 * The work of a single shard: the file-local smells of some files of a project.
+	 */
+	static class ShardRequest {
+		final SmellType smellType;
+		final String projectDirectory;
+		final ToolExecutionMode toolExecutionMode;
+		final boolean resultCacheEnabled;
+		final int organicParallelism;
+		final boolean metricRulesEnabled;
+		final boolean quickScanEnabled;
+		final Duration toolTimeout;
+		final List<File> files;
+
+		ShardRequest(SmellType smellType, String projectDirectory, DetectionOptions options, List<File> files) {
+			this(smellType, projectDirectory, options.getToolExecutionMode(), options.isResultCacheEnabled(),
+					options.getOrganicParallelism(), options.isMetricRulesEnabled(), options.isQuickScanEnabled(),
+					options.getToolTimeout(), files);
+		}
+
+		private ShardRequest(SmellType smellType, String projectDirectory, ToolExecutionMode toolExecutionMode,
+				boolean resultCacheEnabled, int organicParallelism, boolean metricRulesEnabled, boolean quickScanEnabled,
+				Duration toolTimeout, List<File> files) {
+			this.smellType = smellType;
+			this.projectDirectory = projectDirectory;
+			this.toolExecutionMode = toolExecutionMode;
+			this.resultCacheEnabled = resultCacheEnabled;
+			this.organicParallelism = organicParallelism;
+			this.metricRulesEnabled = metricRulesEnabled;
+			this.quickScanEnabled = quickScanEnabled;
+			this.toolTimeout = toolTimeout;
+			this.files = files;
+		}
+
+		/**
+		 * Returns the options of the run of the shard on a worker, which only looks for the
+		 * file-local smells of the files of the shard. The detectors that analyse the whole
+		 * project are left to the central pass of the coordinator.
+		 */
+		DetectionOptions toDetectionOptions() {
+			return new DetectionOptions.Builder()
+					.setToolExecutionMode(toolExecutionMode)
+					.setResultCacheEnabled(resultCacheEnabled)
+					.setOrganicParallelism(organicParallelism)
+					.setMetricRulesEnabled(metricRulesEnabled)
+					.setQuickScanEnabled(quickScanEnabled)
+					.setToolTimeout(toolTimeout)
+					.setAnalysisScope(files)
+					.setCrossFileAnalysisEnabled(false)
+					.setWholeProjectDetectors(DetectionOptions.WholeProjectDetectors.SKIPPED)
+					.build();
+		}
+	}
+
+	static void writeHello(DataOutputStream output, String token) throws IOException {
+		output.writeInt(VERSION);
+		output.writeUTF(token == null ? "" : token);
+		output.flush();
+	}
+
+	/**
+	 * Reads the start of a connection and checks its token.
+	 *
+	 * @param input the stream of the coordinator
+	 * @param expectedToken the token of the worker, or {@code null} if any coordinator is accepted
+	 * @throws IOException if the version or the token are wrong, or the connection broke
+	 */
+	static void readHello(DataInputStream input, String expectedToken) throws IOException {
+		int version = input.readInt();
+		if(version != VERSION)
+			throw new IOException("Unsupported protocol version: " + version);
+
+		String token = input.readUTF();
+		if(expectedToken != null && !MessageDigest.isEqual(expectedToken.getBytes(StandardCharsets.UTF_8),
+				token.getBytes(StandardCharsets.UTF_8)))
+			throw new IOException("The coordinator did not send the token of the worker");
+	}
+
+	static void writeShardRequest(DataOutputStream output, ShardRequest request) throws IOException {
+		output.writeUTF(request.smellType.name());
+		output.writeUTF(request.projectDirectory);
+		output.writeUTF(request.toolExecutionMode.name());
+		output.writeBoolean(request.resultCacheEnabled);
+		output.writeInt(request.organicParallelism);
+		output.writeBoolean(request.metricRulesEnabled);
+		output.writeBoolean(request.quickScanEnabled);
+		output.writeLong(request.toolTimeout == null ? -1 : request.toolTimeout.toMillis());
+		output.writeInt(request.files.size());
+		for(File file : request.files) {
+			output.writeUTF(file.getPath());
+		}
+		output.flush();
+	}
+
+	static ShardRequest readShardRequest(DataInputStream input) throws IOException {
+		SmellType smellType = SmellType.valueOf(input.readUTF());
+		String projectDirectory = input.readUTF();
+		ToolExecutionMode toolExecutionMode = ToolExecutionMode.valueOf(input.readUTF());
+		boolean resultCacheEnabled = input.readBoolean();
+		int organicParallelism = input.readInt();
+		boolean metricRulesEnabled = input.readBoolean();
+		boolean quickScanEnabled = input.readBoolean();
+		long toolTimeoutMillis = input.readLong();
+
+		int fileCount = input.readInt();
+		List<File> files = new ArrayList<>(fileCount);
+		for(int i = 0; i < fileCount; i++) {
+			files.add(new File(input.readUTF()));
+		}
+
+		return new ShardRequest(smellType, projectDirectory, toolExecutionMode, resultCacheEnabled, organicParallelism,
+				metricRulesEnabled, quickScanEnabled, toolTimeoutMillis < 0 ? null : Duration.ofMillis(toolTimeoutMillis), files);
+	}
+
+	static void writeShardResult(DataOutputStream output, SmellStore detectedSmells) throws IOException {
+		List<Smell> smells = detectedSmells.stream().toList();
+		output.writeInt(SHARD_SUCCEEDED);
+		output.writeInt(smells.size());
+		for(Smell smell : smells) {
+			output.writeUTF(smell.getSmellType().name());
+			writeNullableString(output, smell.getClassName());
+			writeNullableString(output, smell.getMethodName());
+			writeNullableString(output, smell.getTargetFile() == null ? null : smell.getTargetFile().getPath());
+			output.writeInt(smell.getTargetStartLine());
+			output.writeInt(smell.getTargetEndLine());
+			output.writeInt(smell.getDuplicationGroupId());
+			output.writeInt(smell.getDetectorNameSet().size());
+			for(String detectorName : smell.getDetectorNameSet()) {
+				output.writeUTF(detectorName);
+			}
+		}
+		output.flush();
+	}
+
+	static void writeShardFailure(DataOutputStream output, String message) throws IOException {
+		output.writeInt(SHARD_FAILED);
+		output.writeUTF(message == null ? "" : message);
+		output.flush();
+	}
+
+	/**
+	 * Reads the answer of a worker to a shard request.
+	 *
+	 * @param input the stream of the worker
+	 * @return the smells of the shard, each one with the names of the detectors that found it
+	 * @throws ShardFailedException if the worker could not analyse the shard
+	 * @throws IOException if the connection to the worker broke
+	 */
+	static List<Smell> readShardResult(DataInputStream input) throws IOException {
+		if(input.readInt() == SHARD_FAILED)
+			throw new ShardFailedException(input.readUTF());
+
+		int smellCount = input.readInt();
+		List<Smell> smells = new ArrayList<>(smellCount);
+		for(int i = 0; i < smellCount; i++) {
+			Smell.Builder builder = new Smell.Builder(SmellType.valueOf(input.readUTF()))
+					.setClassName(readNullableString(input))
+					.setMethodName(readNullableString(input));
+			String targetFile = readNullableString(input);
+			Smell smell = builder.setTargetFile(targetFile == null ? null : new File(targetFile))
+					.setStartLine(input.readInt())
+					.setEndLine(input.readInt())
+					.setDuplicationGroupId(input.readInt())
+					.build();
+
+			int detectorCount = input.readInt();
+			for(int j = 0; j < detectorCount; j++) {
+				smell.addDetectorName(input.readUTF());
+			}
+			smells.add(smell);
+		}
+		return smells;
+	}
+
+	private static void writeNullableString(DataOutputStream output, String value) throws IOException {
+		output.writeBoolean(value != null);
+		if(value != null)
+			output.writeUTF(value);
+	}
+
+	private static String readNullableString(DataInputStream input) throws IOException {
+		return input.readBoolean() ? input.readUTF() : null;
+	}
+
+
+	/**
+	 * Thrown when a worker is alive but could not analyse a shard, so that the shard is not
+	 * sent to the same worker again, and is left for the coordinator once every live worker
+	 * failed it.
+	 */
+	static class ShardFailedException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		ShardFailedException(String message) {
+			super(message);
+		}
+	}
+
+}